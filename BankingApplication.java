@@ -1,7 +1,66 @@
+import com.metrics.Counter;
+import com.metrics.LatencyHistogram;
+import com.metrics.Metrics;
+import com.snapshot.SnapshotReader;
+import com.snapshot.SnapshotWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 abstract class BankAccount {
     private String accountNumber;
     protected double balance;
+    private int lastAccrualPeriod; // The last month-end period applied, for example 202610
+    private WithdrawalRule[] withdrawalRules = NO_RULES;
+    private WithdrawalHistory withdrawalHistory; // Created when the first rules are set
+
+    private static final WithdrawalRule[] NO_RULES = new WithdrawalRule[0];
+
+    // Hot-path metrics shared by all account types
+    protected static final LatencyHistogram WITHDRAW_LATENCY = Metrics.histogram("bank.withdraw");
+    protected static final Counter WITHDRAW_REJECTIONS = Metrics.counter("bank.withdraw.rejected");
 
     public BankAccount(String accountNumber, double balance) {
         this.accountNumber = accountNumber;
@@ -16,25 +75,120 @@ abstract class BankAccount {
         return balance;
     }
 
-    // Abstract method to be overridden by subclasses
-    public abstract void withdraw(double amount) throws Exception;
+    int getLastAccrualPeriod() {
+        return lastAccrualPeriod;
+    }
+
+    // For BankSnapshot: puts back the last month-end period of a restored account
+    void restoreLastAccrualPeriod(int period) {
+        lastAccrualPeriod = period;
+    }
+
+    // Sets the fraud and velocity checks run before every withdrawal, replacing any set before.
+    // Withdrawals run under the account lock, so they see the new rules and their history together.
+    public synchronized void setWithdrawalRules(WithdrawalRule... rules) {
+        if (rules.length > 0 && withdrawalHistory == null) {
+            withdrawalHistory = new WithdrawalHistory();
+        }
+        withdrawalRules = rules.clone();
+    }
+
+    // Returns the recent withdrawals seen by the rules, or null if no rules were ever set
+    public synchronized WithdrawalHistory getWithdrawalHistory() {
+        return withdrawalHistory;
+    }
+
+    // Withdraws, throwing an exception if the withdrawal is refused
+    public void withdraw(double amount) throws Exception {
+        tryWithdraw(amount).throwIfRejected();
+    }
 
-    public void deposit(double amount) {
-        if (amount == 0) {
+    // Abstract method to be overridden by subclasses.
+    // Withdraws if allowed and reports the outcome without throwing, for callers that expect
+    // many refusals and cannot afford an exception (and its stack trace) for each one.
+    public abstract WithdrawalResult tryWithdraw(double amount);
+
+    // Balance changes lock the account, so checks and updates made together stay atomic
+    public synchronized void deposit(double amount) {
+        if (amount > 0) {
             balance += amount;
+            balanceChanged();
+        }
+    }
+
+    // Gives back a withdrawal that was taken and then called off, such as the debit of an aborted transfer
+    public synchronized void reverseWithdrawal(double amount) {
+        balance += amount;
+        withdrawalReversed();
+        balanceChanged();
+    }
+
+    // Called with the account locked when a withdrawal is reversed; subclasses undo what it counted against their limits
+    protected void withdrawalReversed() {
+    }
+
+    // Posts one period's interest or fee, at most once per period.
+    // Returns the cents posted: positive for interest, negative for a fee, 0 if already applied.
+    public final synchronized long applyMonthEnd(AccrualPolicy policy, int period, int days) {
+        if (period <= lastAccrualPeriod) {
+            return 0;
+        }
+        long posted = monthEndCents(policy, days);
+        balance += posted / 100.0;
+        lastAccrualPeriod = period;
+        balanceChanged();
+        return posted;
+    }
+
+    // Called with the account locked after every change to the balance
+    protected void balanceChanged() {
+    }
+
+    // Subclasses work out their month-end interest or fee in whole cents
+    protected abstract long monthEndCents(AccrualPolicy policy, int days);
+
+    // Runs the withdrawal rules in order. Subclasses call this after their own checks, just before
+    // taking the money: on SUCCESS the withdrawal has been added to the history.
+    protected final WithdrawalResult screenWithdrawal(double amount) {
+        WithdrawalRule[] rules = withdrawalRules;
+        if (rules.length == 0) {
+            return WithdrawalResult.SUCCESS;
         }
+        long now = System.nanoTime();
+        long amountCents = AccrualPolicy.toCents(amount);
+        for (WithdrawalRule rule : rules) {
+            WithdrawalResult result = rule.check(withdrawalHistory, amountCents, now);
+            if (!result.isSuccess()) {
+                return result;
+            }
+        }
+        withdrawalHistory.record(now, amountCents);
+        return WithdrawalResult.SUCCESS;
     }
 
     // Method to print monthly account statement
     public void printMonthlyStatement() {
-        System.out.println("Account Number: " + accountNumber);
-        System.out.println("Current Balance: ₦" + balance);
+        System.out.print(getMonthlyStatement());
+    }
+
+    // Returns the monthly statement as text, one line per entry
+    public String getMonthlyStatement() {
+        StringBuilder out = new StringBuilder();
+        appendStatement(out);
+        return out.toString();
+    }
+
+    // Subclasses add their own lines after these
+    protected void appendStatement(StringBuilder out) {
+        out.append("Account Number: ").append(accountNumber).append('\n');
+        out.append("Current Balance: ₦").append(balance).append('\n');
     }
 }
 
 // SECTION 2: SavingsAccount class (3 withdrawals/month limit)
 class SavingsAccount extends BankAccount {
     private int withdrawalCount;
+    private long accruedMicroCents; // Interest earned but not yet a whole cent, carried to next month
     private static final int MAX_WITHDRAWALS = 3;
 
     public SavingsAccount(String accountNumber, double balance) {
@@ -43,47 +197,149 @@ class SavingsAccount extends BankAccount {
     }
 
     @Override
-    public void withdraw(double amount) throws Exception {
+    public synchronized WithdrawalResult tryWithdraw(double amount) {
+        long start = Metrics.startTimer();
         if (withdrawalCount == MAX_WITHDRAWALS) {
-            throw new WithdrawalLimitExceededException("Withdrawal limit of 3 per month exceeded.");
+            WITHDRAW_REJECTIONS.increment();
+            return WithdrawalResult.LIMIT_EXCEEDED;
         }
-        if (amount == balance) {
-            throw new InsufficientFundsException("Insufficient funds.");
+        if (amount > balance) {
+            WITHDRAW_REJECTIONS.increment();
+            return WithdrawalResult.INSUFFICIENT_FUNDS;
+        }
+        WithdrawalResult screened = screenWithdrawal(amount);
+        if (!screened.isSuccess()) {
+            WITHDRAW_REJECTIONS.increment();
+            return screened;
         }
         balance -= amount;
         withdrawalCount++;
+        WITHDRAW_LATENCY.recordSince(start);
+        return WithdrawalResult.SUCCESS;
     }
 
     public void resetWithdrawals() {
         withdrawalCount = 0;
     }
 
+    // A reversed withdrawal no longer uses up one of this month's withdrawals
     @Override
-    public void printMonthlyStatement() {
-        super.printMonthlyStatement();
-        System.out.println("Withdrawals this month: " + withdrawalCount);
+    protected void withdrawalReversed() {
+        if (withdrawalCount > 0) {
+            withdrawalCount--;
+        }
+    }
+
+    int getWithdrawalCount() {
+        return withdrawalCount;
+    }
+
+    long getAccruedMicroCents() {
+        return accruedMicroCents;
+    }
+
+    // For BankSnapshot: puts back this month's counters of a restored account
+    void restoreCounters(int withdrawalCount, long accruedMicroCents) {
+        this.withdrawalCount = withdrawalCount;
+        this.accruedMicroCents = accruedMicroCents;
+    }
+
+    // Daily interest on the current balance; whole cents are paid and the remainder carried over
+    @Override
+    protected long monthEndCents(AccrualPolicy policy, int days) {
+        accruedMicroCents += days * policy.dailyInterestMicroCents(AccrualPolicy.toCents(balance));
+        long cents = accruedMicroCents / AccrualPolicy.MICRO_CENTS_PER_CENT;
+        accruedMicroCents -= cents * AccrualPolicy.MICRO_CENTS_PER_CENT;
+        return cents;
+    }
+
+    @Override
+    protected void appendStatement(StringBuilder out) {
+        super.appendStatement(out);
+        out.append("Withdrawals this month: ").append(withdrawalCount).append('\n');
     }
 }
 
-// SECTION 3: CurrentAccount class (no withdrawal limit)
+// SECTION 3: CurrentAccount class (no withdrawal limit; may go overdrawn up to its overdraft limit)
 class CurrentAccount extends BankAccount {
+    private OverdraftPolicy overdraft = OverdraftPolicy.NONE;
+    private String branch;            // Branch the exposure is counted under, or null if not tracked
+    private LongAdder exposure;       // This account's branch/product exposure, or null if not tracked
+    private long reportedExposureCents; // The overdrawn amount last added to exposure
 
     public CurrentAccount(String accountNumber, double balance) {
         super(accountNumber, balance);
     }
 
+    public synchronized OverdraftPolicy getOverdraft() {
+        return overdraft;
+    }
+
+    public synchronized String getBranch() {
+        return branch;
+    }
+
+    // Sets the overdraft policy and moves this account's exposure to the branch/product it now belongs to.
+    // Lowering a limit below the current overdrawn amount is allowed; it only blocks further withdrawals.
+    public synchronized void setOverdraft(OverdraftPolicy policy, String branch, ExposureTracker tracker) {
+        if (policy == null || tracker == null) {
+            throw new IllegalArgumentException("An overdraft needs a policy and an exposure tracker.");
+        }
+        LongAdder segment = tracker.segment(branch, policy.getProduct()); // Validates the branch before anything moves
+        if (exposure != null) {
+            exposure.add(-reportedExposureCents);
+        }
+        overdraft = policy;
+        exposure = segment;
+        this.branch = branch;
+        reportedExposureCents = 0;
+        balanceChanged();
+    }
+
+    // The limit is checked and the balance taken under one lock, so concurrent withdrawals cannot overshoot it
     @Override
-    public void withdraw(double amount) throws Exception {
-        if (amount == balance) {
-            throw new InsufficientFundsException("Insufficient funds.");
+    public synchronized WithdrawalResult tryWithdraw(double amount) {
+        long start = Metrics.startTimer();
+        if (!overdraft.allows(AccrualPolicy.toCents(balance), AccrualPolicy.toCents(amount))) {
+            WITHDRAW_REJECTIONS.increment();
+            return WithdrawalResult.INSUFFICIENT_FUNDS;
+        }
+        WithdrawalResult screened = screenWithdrawal(amount);
+        if (!screened.isSuccess()) {
+            WITHDRAW_REJECTIONS.increment();
+            return screened;
         }
         balance -= amount;
+        balanceChanged();
+        WITHDRAW_LATENCY.recordSince(start);
+        return WithdrawalResult.SUCCESS;
     }
 
+    // Adds the change in the overdrawn amount to the branch/product exposure
     @Override
-    public void printMonthlyStatement() {
-        super.printMonthlyStatement();
-        System.out.println("No withdrawal limits for this account.");
+    protected void balanceChanged() {
+        if (exposure != null) {
+            long overdrawnCents = Math.max(0, -AccrualPolicy.toCents(balance));
+            if (overdrawnCents != reportedExposureCents) {
+                exposure.add(overdrawnCents - reportedExposureCents);
+                reportedExposureCents = overdrawnCents;
+            }
+        }
+    }
+
+    // The monthly maintenance fee, charged as a negative amount
+    @Override
+    protected long monthEndCents(AccrualPolicy policy, int days) {
+        return -policy.monthlyFeeCents(AccrualPolicy.toCents(balance));
+    }
+
+    @Override
+    protected void appendStatement(StringBuilder out) {
+        super.appendStatement(out);
+        out.append("No withdrawal limits for this account.\n");
+        if (overdraft.getLimitCents() > 0) {
+            out.append("Overdraft limit: ₦").append(overdraft.getLimitCents() / 100.0).append('\n');
+        }
     }
 }
 
@@ -101,31 +357,1949 @@ class WithdrawalLimitExceededException extends Exception {
     }
 }
 
-// SECTION 6: Main class to run the application
-public class BankingApplication {
-    public static void main(String[] args) {
-        try {
-            // Create SavingsAccount and perform transactions
-            BankAccount savings = new SavingsAccount("SAV001", 5000);
-            savings.deposit(2000);
-            savings.withdraw(1000);
-            savings.withdraw(500);
-            savings.withdraw(700);
-            // Uncommenting this will throw WithdrawalLimitExceededException
-            // savings.withdraw(200);
+// SECTION 6: WithdrawalResult - outcome codes of the non-throwing withdrawal API
+// The constants are created once, carry no stack trace and have fixed messages, so a refusal
+// costs no more than a success.
+enum WithdrawalResult {
+    SUCCESS("Withdrawal completed."),
+    LIMIT_EXCEEDED("Withdrawal limit of 3 per month exceeded."),
+    INSUFFICIENT_FUNDS("Insufficient funds."),
+    VELOCITY_LIMIT_EXCEEDED("Too many withdrawals in a short time."),
+    AMOUNT_SPIKE("Withdrawal is far larger than this account's recent withdrawals."),
+    RATE_LIMITED("Withdrawals are too close together; try again shortly.");
 
-            savings.printMonthlyStatement();
+    private final String message;
 
-            System.out.println("\n-------------------------\n");
+    WithdrawalResult(String message) {
+        this.message = message;
+    }
 
-            // Create CurrentAccount and perform transactions
-            BankAccount current = new CurrentAccount("CUR002", 10000);
-            current.withdraw(3000);
-            current.deposit(5000);
-            current.printMonthlyStatement();
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return this == SUCCESS;
+    }
+
+    // Bridges to the exception API: throws the matching exception unless the withdrawal succeeded
+    public void throwIfRejected() throws InsufficientFundsException, WithdrawalLimitExceededException, WithdrawalBlockedException {
+        if (this == LIMIT_EXCEEDED) {
+            throw new WithdrawalLimitExceededException(message);
+        }
+        if (this == INSUFFICIENT_FUNDS) {
+            throw new InsufficientFundsException(message);
+        }
+        if (this != SUCCESS) {
+            throw new WithdrawalBlockedException(message);
+        }
+    }
+}
+
+// SECTION 7: Bank - thread-safe registry of accounts
+// Each operation locks only the account it touches, so requests for different accounts run in parallel.
+// Accounts are also numbered in the order they were opened, so batch jobs can split them into ranges.
+class Bank {
+    private final Map<String, BankAccount> accounts;
+    private final Object openingLock = new Object();
+    private volatile BankAccount[] byOrdinal;
+    private volatile int accountCount;
+
+    public Bank() {
+        this(16);
+    }
+
+    // Sized up front for the expected number of accounts, so opening them never resizes the indexes
+    public Bank(int expectedAccounts) {
+        accounts = new ConcurrentHashMap<>(Math.max(16, expectedAccounts));
+        byOrdinal = new BankAccount[Math.max(16, expectedAccounts)];
+    }
+
+    public void addAccount(BankAccount account) {
+        if (accounts.putIfAbsent(account.getAccountNumber(), account) != null) {
+            throw new IllegalArgumentException("Account " + account.getAccountNumber() + " already exists.");
+        }
+        synchronized (openingLock) {
+            BankAccount[] ordinals = byOrdinal;
+            if (accountCount == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+                byOrdinal = ordinals;
+            }
+            ordinals[accountCount] = account;
+            accountCount++; // Published after the slot is filled
+        }
+    }
+
+    // Returns the account opened in the given position, counting from 0
+    public BankAccount getAccountAt(int ordinal) {
+        if (ordinal < 0 || ordinal >= accountCount) {
+            throw new IllegalArgumentException("No account at position " + ordinal + ".");
+        }
+        return byOrdinal[ordinal];
+    }
+
+    public BankAccount getAccount(String accountNumber) {
+        BankAccount account = accounts.get(accountNumber);
+        if (account == null) {
+            throw new IllegalArgumentException("No account " + accountNumber + ".");
+        }
+        return account;
+    }
+
+    public int size() {
+        return accountCount;
+    }
+
+    // Deposits into an account and returns the new balance
+    public double deposit(String accountNumber, double amount) {
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new IllegalArgumentException("Deposit amount must be positive.");
+        }
+        BankAccount account = getAccount(accountNumber);
+        synchronized (account) {
+            account.deposit(amount);
+            return account.getBalance();
+        }
+    }
+
+    // Withdraws from an account and returns the new balance
+    public double withdraw(String accountNumber, double amount) throws Exception {
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new IllegalArgumentException("Withdrawal amount must be positive.");
+        }
+        BankAccount account = getAccount(accountNumber);
+        synchronized (account) {
+            account.withdraw(amount);
+            return account.getBalance();
+        }
+    }
+
+    // Withdraws from an account, reporting a refusal as a result instead of an exception
+    public WithdrawalResult tryWithdraw(String accountNumber, double amount) {
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new IllegalArgumentException("Withdrawal amount must be positive.");
+        }
+        BankAccount account = getAccount(accountNumber);
+        synchronized (account) {
+            return account.tryWithdraw(amount);
+        }
+    }
+
+    // Moves money between two accounts of this bank. The money leaves the source before it reaches the
+    // destination, so the two accounts are never locked together and opposite transfers cannot deadlock.
+    public WithdrawalResult transfer(String fromAccount, String toAccount, double amount) {
+        if (fromAccount.equals(toAccount)) {
+            throw new IllegalArgumentException("Cannot transfer from an account to itself.");
+        }
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new IllegalArgumentException("Transfer amount must be positive.");
+        }
+        BankAccount target = getAccount(toAccount);
+        WithdrawalResult result = tryWithdraw(fromAccount, amount);
+        if (result.isSuccess()) {
+            target.deposit(amount);
+        }
+        return result;
+    }
+
+    // Adds up every balance, each read under its account's lock; only exact while no money is moving
+    public double totalBalance() {
+        double total = 0;
+        for (int i = 0, count = accountCount; i < count; i++) {
+            BankAccount account = byOrdinal[i];
+            synchronized (account) {
+                total += account.getBalance();
+            }
+        }
+        return total;
+    }
+
+    public double getBalance(String accountNumber) {
+        BankAccount account = getAccount(accountNumber);
+        synchronized (account) {
+            return account.getBalance();
+        }
+    }
+
+    public String getMonthlyStatement(String accountNumber) {
+        BankAccount account = getAccount(accountNumber);
+        synchronized (account) {
+            return account.getMonthlyStatement();
+        }
+    }
+}
+
+// SECTION 8: BankServer - line-protocol server over non-blocking sockets
+// Requests are single lines of text, answered in order with one line each:
+//   DEPOSIT <account> <amount>   -> OK <new balance>
+//   WITHDRAW <account> <amount>  -> OK <new balance>
+//   BALANCE <account>            -> OK <balance>
+//   STATEMENT <account>          -> OK <statement lines joined by " | ">
+//   TRANSFER <from> <to> <amount>              -> OK <source balance>, both accounts on this server
+//   PREPARE <id> DEBIT|CREDIT <account> <amount> -> OK, or ERR if this leg of a transfer cannot go ahead
+//   COMMIT <id>, ABORT <id>      -> OK, ending a prepared transfer (see TransferParticipant)
+//   TOTAL                        -> OK <sum of all balances> <transfers still prepared>
+// Failures answer "ERR <message>". Each event-loop thread multiplexes thousands of connections
+// with one selector, and every request is handled in microseconds on the loop that read it, so
+// no thread is ever parked per connection or per request.
+class BankServer implements Closeable {
+    private static final int BUFFER_BYTES = 512;
+    private static final int MAX_PENDING_OUTPUT = 64 * 1024; // Stop reading from a client that does not read its answers
+
+    private final Bank bank;
+    private final TransferParticipant transfers;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    public BankServer(Bank bank, int port, int loopCount) throws IOException {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("Event loop count must be positive.");
+        }
+        this.bank = bank;
+        this.transfers = new TransferParticipant(bank);
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16_384);
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop("bank-loop-" + i);
+            loops[i].start();
+        }
+        this.acceptor = new Thread(this::acceptLoop, "bank-acceptor");
+        this.acceptor.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    // Hands each new connection to the event loops in turn
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next++ % loops.length].add(channel);
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
 
+    // Runs one request line and returns the response line, without the newline
+    String execute(String line) {
+        String[] parts = line.trim().split("\\s+");
+        try {
+            switch (parts[0].toUpperCase()) {
+                case "DEPOSIT":
+                    requireArguments(parts, 3);
+                    return ok(bank.deposit(parts[1], Double.parseDouble(parts[2])));
+                case "WITHDRAW":
+                    requireArguments(parts, 3);
+                    WithdrawalResult result = bank.tryWithdraw(parts[1], Double.parseDouble(parts[2]));
+                    return result.isSuccess() ? ok(bank.getBalance(parts[1])) : "ERR " + result.getMessage();
+                case "BALANCE":
+                    requireArguments(parts, 2);
+                    return ok(bank.getBalance(parts[1]));
+                case "STATEMENT":
+                    requireArguments(parts, 2);
+                    return "OK " + bank.getMonthlyStatement(parts[1]).trim().replace("\n", " | ");
+                case "TRANSFER":
+                    requireArguments(parts, 4);
+                    WithdrawalResult moved = bank.transfer(parts[1], parts[2], Double.parseDouble(parts[3]));
+                    return moved.isSuccess() ? ok(bank.getBalance(parts[1])) : "ERR " + moved.getMessage();
+                case "PREPARE":
+                    requireArguments(parts, 5);
+                    return prepare(parts[1], parts[2].toUpperCase(), parts[3], Double.parseDouble(parts[4]));
+                case "COMMIT":
+                    requireArguments(parts, 2);
+                    transfers.commit(parts[1]);
+                    return "OK";
+                case "ABORT":
+                    requireArguments(parts, 2);
+                    transfers.abort(parts[1]);
+                    return "OK";
+                case "TOTAL":
+                    requireArguments(parts, 1);
+                    return ok(bank.totalBalance()) + " " + transfers.getPreparedCount();
+                default:
+                    return "ERR Unknown command: " + parts[0];
+            }
+        } catch (NumberFormatException e) {
+            return "ERR Invalid amount.";
         } catch (Exception e) {
-            System.out.println("Error: " + e.getMessage());
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    private String prepare(String transferId, String leg, String accountNumber, double amount) {
+        if (leg.equals("DEBIT")) {
+            WithdrawalResult result = transfers.prepareDebit(transferId, accountNumber, amount);
+            return result.isSuccess() ? ok(bank.getBalance(accountNumber)) : "ERR " + result.getMessage();
+        }
+        if (leg.equals("CREDIT")) {
+            transfers.prepareCredit(transferId, accountNumber, amount);
+            return "OK";
+        }
+        return "ERR PREPARE takes DEBIT or CREDIT, not " + leg + ".";
+    }
+
+    private static void requireArguments(String[] parts, int count) {
+        if (parts.length != count) {
+            throw new IllegalArgumentException(parts[0].toUpperCase() + " takes " + (count - 1) + " argument(s).");
+        }
+    }
+
+    private static String ok(double balance) {
+        return "OK " + Math.round(balance * 100) / 100.0;
+    }
+
+    // Buffers of one client connection; only touched by the loop that owns it
+    private static final class Connection {
+        final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES); // Kept ready for writing more
+
+        void queue(String response) {
+            byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+            if (out.remaining() < bytes.length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            out.put(bytes);
+        }
+    }
+
+    private final class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            this.selector = Selector.open();
+        }
+
+        void add(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection());
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key);
+                            }
+                        } catch (IOException e) {
+                            closeQuietly(key);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                System.out.println("Event loop " + getName() + " stopped: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Nothing left to release
+                }
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            if (channel.read(connection.in) < 0) {
+                closeQuietly(key);
+                return;
+            }
+            ByteBuffer in = connection.in;
+            in.flip();
+            int lineStart = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    String line = new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII);
+                    connection.queue(line.trim().isEmpty() ? "ERR Empty request." : execute(line));
+                    lineStart = i + 1;
+                }
+            }
+            in.position(lineStart);
+            in.compact();
+            if (!in.hasRemaining()) { // A full buffer with no newline: the request is too long to be valid
+                in.clear();
+                connection.queue("ERR Request too long.");
+            }
+            flush(key);
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            connection.out.flip();
+            ((SocketChannel) key.channel()).write(connection.out);
+            connection.out.compact();
+            int pending = connection.out.position();
+            if (pending == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (pending > MAX_PENDING_OUTPUT) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void closeQuietly(SelectionKey key) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // Connection already gone
+            }
+        }
+    }
+}
+
+// SECTION 9: BankLoadClient - closed-loop load generator for BankServer
+// Opens many connections from one selector thread; each connection sends a request, waits for the
+// answer, records the round-trip time and immediately sends the next one.
+class BankLoadClient {
+    private final InetSocketAddress address;
+    private final int accountCount;
+    private final Random random = new Random(42);
+
+    public BankLoadClient(InetSocketAddress address, int accountCount) {
+        this.address = address;
+        this.accountCount = accountCount;
+    }
+
+    static String accountNumber(String prefix, int index) {
+        return String.format("%s%06d", prefix, index);
+    }
+
+    public void run(int connections, int seconds) throws IOException {
+        LatencyHistogram latency = Metrics.histogram("bank.loadtest.request");
+        try (Selector selector = Selector.open()) {
+            List<SocketChannel> channels = new ArrayList<>(connections);
+            long connectStart = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, new ClientConnection());
+                channels.add(channel);
+            }
+
+            long deadline = Long.MAX_VALUE;
+            int connected = 0;
+            long ok = 0;
+            long rejected = 0;
+            long measureStart = 0;
+            while (System.nanoTime() < deadline) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    ClientConnection connection = (ClientConnection) key.attachment();
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                        if (++connected == connections) {
+                            System.out.printf("Connected %d clients in %.0f ms%n", connections, (System.nanoTime() - connectStart) / 1e6);
+                            measureStart = System.nanoTime();
+                            deadline = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+                        }
+                        send(key, connection);
+                    } else if (key.isReadable()) {
+                        if (channel.read(connection.in) < 0) {
+                            throw new IOException("Server closed a connection.");
+                        }
+                        int end = indexOfNewline(connection.in);
+                        if (end < 0) {
+                            continue;
+                        }
+                        boolean accepted = connection.in.get(0) == 'O';
+                        connection.in.clear();
+                        if (measureStart > 0) { // Count only once every client is connected
+                            latency.recordSince(connection.sentNanos);
+                            if (accepted) {
+                                ok++;
+                            } else {
+                                rejected++;
+                            }
+                        }
+                        send(key, connection);
+                    } else if (key.isWritable()) {
+                        write(key, connection);
+                    }
+                }
+            }
+
+            double elapsed = (System.nanoTime() - measureStart) / 1e9;
+            System.out.printf("%d connections, %d s: %.0f requests/s (%d OK, %d rejected)%n",
+                              connections, seconds, (ok + rejected) / elapsed, ok, rejected);
+            System.out.printf("Round trip: p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                              latency.getPercentileNanos(0.50) / 1e6, latency.getPercentileNanos(0.99) / 1e6,
+                              latency.getPercentileNanos(0.999) / 1e6, latency.getMaxNanos() / 1e6);
+            if (!Metrics.ENABLED) {
+                System.out.println("(Latencies are not recorded with -Dmetrics.enabled=false.)");
+            }
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    // Mostly balance checks, with deposits and withdrawals on current accounts
+    private String nextRequest() {
+        String account = accountNumber("CUR", random.nextInt(accountCount));
+        int kind = random.nextInt(10);
+        if (kind < 6) {
+            return "BALANCE " + account + "\n";
+        } else if (kind < 8) {
+            return "DEPOSIT " + account + " " + (1 + random.nextInt(100)) + "\n";
+        }
+        return "WITHDRAW " + account + " " + (1 + random.nextInt(100)) + "\n";
+    }
+
+    private void send(SelectionKey key, ClientConnection connection) throws IOException {
+        connection.out.clear();
+        connection.out.put(nextRequest().getBytes(StandardCharsets.US_ASCII));
+        connection.out.flip();
+        connection.sentNanos = System.nanoTime();
+        write(key, connection);
+    }
+
+    private static void write(SelectionKey key, ClientConnection connection) throws IOException {
+        ((SocketChannel) key.channel()).write(connection.out);
+        key.interestOps(connection.out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class ClientConnection {
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        final ByteBuffer out = ByteBuffer.allocate(64);
+        long sentNanos;
+    }
+}
+
+// SECTION 10: AccrualPolicy - month-end interest and fee terms
+// All amounts are fixed-point integers: cents for money, basis points (1/100 of a percent) for rates,
+// and micro-cents (1/1,000,000 of a cent) for interest accrued below one cent.
+class AccrualPolicy {
+    static final long MICRO_CENTS_PER_CENT = 1_000_000;
+
+    private final long savingsRateBasisPoints;
+    private final long monthlyFeeCents;
+    private final long feeWaiverBalanceCents;
+
+    public AccrualPolicy(long savingsRateBasisPoints, long monthlyFeeCents, long feeWaiverBalanceCents) {
+        if (savingsRateBasisPoints < 0 || monthlyFeeCents < 0 || feeWaiverBalanceCents < 0) {
+            throw new IllegalArgumentException("Rates, fees and balances in an accrual policy cannot be negative.");
+        }
+        this.savingsRateBasisPoints = savingsRateBasisPoints;
+        this.monthlyFeeCents = monthlyFeeCents;
+        this.feeWaiverBalanceCents = feeWaiverBalanceCents;
+    }
+
+    // One day of interest on a balance, using a 365-day year: cents * bp / 10,000 / 365, in micro-cents
+    public long dailyInterestMicroCents(long balanceCents) {
+        if (balanceCents <= 0) {
+            return 0;
+        }
+        return Math.multiplyExact(Math.multiplyExact(balanceCents, savingsRateBasisPoints), 100L) / 365;
+    }
+
+    // The maintenance fee for a current account, waived when the balance is high enough
+    public long monthlyFeeCents(long balanceCents) {
+        return balanceCents >= feeWaiverBalanceCents ? 0 : monthlyFeeCents;
+    }
+
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+}
+
+// SECTION 11: MonthEndEngine - parallel, resumable interest and fee batch
+// Accounts are processed in fixed chunks of the bank's account list, spread over a fork-join pool.
+// Finished chunks are recorded in a checkpoint file, so a run that is stopped (or hits its deadline)
+// resumes where it left off. Each account also remembers the last period applied to it, so the
+// chunk that was in progress when a run stopped is not charged twice.
+class MonthEndEngine {
+    private static final int CHUNK_SIZE = 16_384;
+    private static final int CHECKPOINT_MAGIC = 0x4D454E32; // "MEN2"; older checkpoints are ignored
+
+    private final Bank bank;
+    private final AccrualPolicy policy;
+    private final Path checkpointPath;
+    private final ForkJoinPool pool;
+    private volatile boolean stopRequested;
+
+    public MonthEndEngine(Bank bank, AccrualPolicy policy, Path checkpointPath, ForkJoinPool pool) {
+        this.bank = bank;
+        this.policy = policy;
+        this.checkpointPath = checkpointPath;
+        this.pool = pool;
+    }
+
+    // Asks a running batch to stop after the chunks already started; it can be resumed later
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Applies one period's interest and fees to every account not yet done for that period.
+     * @param period The period being closed, for example 202610 for October 2026. Must increase from run to run.
+     * @param days The number of days of interest to accrue.
+     * @param deadlineNanos A System.nanoTime() value after which no new chunks start, or Long.MAX_VALUE.
+     * @return What this run did; run again with the same period to finish an incomplete batch.
+     */
+    public MonthEndReport run(int period, int days, long deadlineNanos) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        stopRequested = false;
+        int accountCount = bank.size();
+        int chunkCount = (accountCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        AtomicLongArray doneChunks = loadCheckpoint(period, accountCount);
+        LongAdder accounts = new LongAdder();
+        LongAdder interestCents = new LongAdder();
+        LongAdder feeCents = new LongAdder();
+
+        ForkJoinTask<Void> batch = pool.submit(new ChunkRange(0, chunkCount, period, days, deadlineNanos, accountCount,
+                                                              doneChunks, accounts, interestCents, feeCents));
+        while (!batch.isDone()) {
+            try {
+                batch.get(1, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                saveCheckpoint(period, accountCount, doneChunks); // Periodic checkpoint while the batch runs
+            } catch (ExecutionException e) {
+                saveCheckpoint(period, accountCount, doneChunks);
+                throw new IllegalStateException("Month-end batch failed.", e.getCause());
+            }
+        }
+        saveCheckpoint(period, accountCount, doneChunks);
+
+        int completed = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            completed += isChunkDone(doneChunks, i) ? 1 : 0;
+        }
+        return new MonthEndReport(accounts.sum(), interestCents.sum(), feeCents.sum(), completed, chunkCount,
+                                  System.nanoTime() - start);
+    }
+
+    private void processChunk(int chunk, int period, int days, int accountCount,
+                              LongAdder accounts, LongAdder interestCents, LongAdder feeCents) {
+        int end = Math.min(accountCount, (chunk + 1) * CHUNK_SIZE);
+        long processed = 0;
+        long interest = 0;
+        long fees = 0;
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            BankAccount account = bank.getAccountAt(i);
+            long posted;
+            synchronized (account) {
+                posted = account.applyMonthEnd(policy, period, days);
+            }
+            if (posted > 0) {
+                interest += posted;
+            } else {
+                fees -= posted;
+            }
+            processed++;
+        }
+        accounts.add(processed);
+        interestCents.add(interest);
+        feeCents.add(fees);
+    }
+
+    private static boolean isChunkDone(AtomicLongArray doneChunks, int chunk) {
+        return (doneChunks.get(chunk >>> 6) & (1L << chunk)) != 0;
+    }
+
+    private static void markChunkDone(AtomicLongArray doneChunks, int chunk) {
+        long bit = 1L << chunk;
+        doneChunks.getAndAccumulate(chunk >>> 6, bit, (word, b) -> word | b);
+    }
+
+    // Checkpoint file: [int magic][int period][int account count][int words][long words of the finished-chunk bit set]
+    private AtomicLongArray loadCheckpoint(int period, int accountCount) throws IOException {
+        int chunkCount = (accountCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        AtomicLongArray doneChunks = new AtomicLongArray((chunkCount + 63) / 64);
+        if (!Files.exists(checkpointPath)) {
+            return doneChunks;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointPath)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != period) {
+                return doneChunks; // Left by another period: start fresh
+            }
+            int savedAccounts = in.readInt();
+            int words = in.readInt();
+            for (int i = 0; i < Math.min(words, doneChunks.length()); i++) {
+                doneChunks.set(i, in.readLong());
+            }
+            if (savedAccounts != accountCount) { // Accounts opened since then fill the last saved chunk and new ones
+                for (int chunk = savedAccounts / CHUNK_SIZE; chunk < chunkCount; chunk++) {
+                    doneChunks.set(chunk >>> 6, doneChunks.get(chunk >>> 6) & ~(1L << chunk));
+                }
+            }
+        }
+        return doneChunks;
+    }
+
+    private void saveCheckpoint(int period, int accountCount, AtomicLongArray doneChunks) throws IOException {
+        Path temp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(period);
+            out.writeInt(accountCount);
+            out.writeInt(doneChunks.length());
+            for (int i = 0; i < doneChunks.length(); i++) {
+                out.writeLong(doneChunks.get(i));
+            }
+        }
+        Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Splits a range of chunks in half until one chunk is left, then processes it
+    private final class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int period;
+        private final int days;
+        private final long deadlineNanos;
+        private final int accountCount;
+        private final AtomicLongArray doneChunks;
+        private final LongAdder accounts;
+        private final LongAdder interestCents;
+        private final LongAdder feeCents;
+
+        ChunkRange(int from, int to, int period, int days, long deadlineNanos, int accountCount, AtomicLongArray doneChunks,
+                   LongAdder accounts, LongAdder interestCents, LongAdder feeCents) {
+            this.from = from;
+            this.to = to;
+            this.period = period;
+            this.days = days;
+            this.deadlineNanos = deadlineNanos;
+            this.accountCount = accountCount;
+            this.doneChunks = doneChunks;
+            this.accounts = accounts;
+            this.interestCents = interestCents;
+            this.feeCents = feeCents;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkRange(from, middle, period, days, deadlineNanos, accountCount, doneChunks, accounts, interestCents, feeCents),
+                          new ChunkRange(middle, to, period, days, deadlineNanos, accountCount, doneChunks, accounts, interestCents, feeCents));
+                return;
+            }
+            if (from == to || isChunkDone(doneChunks, from) || stopRequested || System.nanoTime() > deadlineNanos) {
+                return;
+            }
+            processChunk(from, period, days, accountCount, accounts, interestCents, feeCents);
+            markChunkDone(doneChunks, from);
+        }
+    }
+}
+
+// What one month-end run did
+class MonthEndReport {
+    private final long accountsProcessed;
+    private final long interestCents;
+    private final long feeCents;
+    private final int chunksCompleted;
+    private final int chunkCount;
+    private final long elapsedNanos;
+
+    public MonthEndReport(long accountsProcessed, long interestCents, long feeCents, int chunksCompleted, int chunkCount, long elapsedNanos) {
+        this.accountsProcessed = accountsProcessed;
+        this.interestCents = interestCents;
+        this.feeCents = feeCents;
+        this.chunksCompleted = chunksCompleted;
+        this.chunkCount = chunkCount;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getAccountsProcessed() {
+        return accountsProcessed;
+    }
+
+    public long getInterestCents() {
+        return interestCents;
+    }
+
+    public long getFeeCents() {
+        return feeCents;
+    }
+
+    public boolean isComplete() {
+        return chunksCompleted == chunkCount;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d accounts in %.0f ms (%,.0f/s), interest ₦%,.2f, fees ₦%,.2f, chunks %d/%d%s",
+                             accountsProcessed, elapsedNanos / 1e6, accountsProcessed / Math.max(1e-9, elapsedNanos / 1e9),
+                             interestCents / 100.0, feeCents / 100.0, chunksCompleted, chunkCount,
+                             isComplete() ? "" : " (incomplete, run again to resume)");
+    }
+}
+
+// SECTION 12: Custom Exception for withdrawals blocked by a fraud or velocity rule
+class WithdrawalBlockedException extends Exception {
+    public WithdrawalBlockedException(String message) {
+        super(message);
+    }
+}
+
+// SECTION 13: WithdrawalHistory - ring buffer of an account's recent withdrawals
+// Holds the time and amount of the last 16 withdrawals. One thread records at a time (the thread
+// holding the account, as Bank does), while any number of threads read without locking: each slot
+// is written before the volatile count that publishes it, and a reader that finds a slot was
+// overwritten while it looked stops there, seeing only the newer entries.
+class WithdrawalHistory {
+    static final int CAPACITY = 16; // A power of two, so slots are found with a mask
+    private static final int MASK = CAPACITY - 1;
+
+    private final long[] timestampsNanos = new long[CAPACITY];
+    private final long[] amountsCents = new long[CAPACITY];
+    private volatile long recorded; // Withdrawals ever recorded; the newest is at recorded - 1
+
+    public void record(long nanos, long amountCents) {
+        long next = recorded;
+        int slot = (int) next & MASK;
+        timestampsNanos[slot] = nanos;
+        amountsCents[slot] = amountCents;
+        recorded = next + 1;
+    }
+
+    // Counts the withdrawals at or after the given time, stopping once the limit is reached
+    public int countSince(long fromNanos, int limit) {
+        long end = recorded;
+        int count = 0;
+        for (long i = end - 1; i >= 0 && i >= end - CAPACITY && count < limit; i--) {
+            long nanos = timestampsNanos[(int) i & MASK];
+            if (i <= recorded - CAPACITY || nanos - fromNanos < 0) {
+                break; // Overwritten while reading, or too old
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // Returns the time of the newest withdrawal, or Long.MIN_VALUE if there is none
+    public long lastTimestampNanos() {
+        long end = recorded;
+        if (end == 0) {
+            return Long.MIN_VALUE;
+        }
+        long nanos = timestampsNanos[(int) (end - 1) & MASK];
+        return end - 1 <= recorded - CAPACITY ? Long.MIN_VALUE : nanos;
+    }
+
+    // Returns the average of the retained withdrawal amounts, or -1 if fewer than minSamples are held
+    public long averageCents(int minSamples) {
+        long end = recorded;
+        long total = 0;
+        int samples = 0;
+        for (long i = end - 1; i >= 0 && i >= end - CAPACITY; i--) {
+            long cents = amountsCents[(int) i & MASK];
+            if (i <= recorded - CAPACITY) {
+                break;
+            }
+            total += cents;
+            samples++;
+        }
+        return samples < minSamples ? -1 : total / samples;
+    }
+}
+
+// SECTION 14: WithdrawalRule - pluggable checks run before a withdrawal is allowed
+// Rules are shared by any number of accounts and keep no state of their own; everything they need
+// is in the account's history. They run inline on every withdrawal, so each check is a few reads
+// of the ring buffer and no allocation.
+interface WithdrawalRule {
+    // Returns SUCCESS to allow the withdrawal, or the reason to refuse it
+    WithdrawalResult check(WithdrawalHistory history, long amountCents, long nowNanos);
+}
+
+// Sliding-window velocity limit: at most maxWithdrawals in any window of the given length
+class VelocityRule implements WithdrawalRule {
+    private final int maxWithdrawals;
+    private final long windowNanos;
+
+    public VelocityRule(int maxWithdrawals, long windowNanos) {
+        if (maxWithdrawals < 1 || maxWithdrawals > WithdrawalHistory.CAPACITY) {
+            throw new IllegalArgumentException("A velocity limit must allow between 1 and " + WithdrawalHistory.CAPACITY + " withdrawals.");
+        }
+        if (windowNanos <= 0) {
+            throw new IllegalArgumentException("A velocity window must be positive.");
+        }
+        this.maxWithdrawals = maxWithdrawals;
+        this.windowNanos = windowNanos;
+    }
+
+    @Override
+    public WithdrawalResult check(WithdrawalHistory history, long amountCents, long nowNanos) {
+        return history.countSince(nowNanos - windowNanos, maxWithdrawals) >= maxWithdrawals
+               ? WithdrawalResult.VELOCITY_LIMIT_EXCEEDED : WithdrawalResult.SUCCESS;
+    }
+}
+
+// Amount-spike detection: refuses a withdrawal far larger than the account's recent average
+class AmountSpikeRule implements WithdrawalRule {
+    private final long maxMultipleOfAverage;
+    private final int minSamples;
+
+    public AmountSpikeRule(long maxMultipleOfAverage, int minSamples) {
+        if (maxMultipleOfAverage < 1 || minSamples < 1 || minSamples > WithdrawalHistory.CAPACITY) {
+            throw new IllegalArgumentException("A spike rule needs a multiple of at least 1 and between 1 and "
+                                               + WithdrawalHistory.CAPACITY + " samples.");
+        }
+        this.maxMultipleOfAverage = maxMultipleOfAverage;
+        this.minSamples = minSamples;
+    }
+
+    @Override
+    public WithdrawalResult check(WithdrawalHistory history, long amountCents, long nowNanos) {
+        long average = history.averageCents(minSamples);
+        if (average < 0) {
+            return WithdrawalResult.SUCCESS; // Not enough history to judge
+        }
+        return amountCents > Math.max(1, average) * maxMultipleOfAverage
+               ? WithdrawalResult.AMOUNT_SPIKE : WithdrawalResult.SUCCESS;
+    }
+}
+
+// Per-account rate limit: withdrawals must be at least the given interval apart
+class RateLimitRule implements WithdrawalRule {
+    private final long minIntervalNanos;
+
+    public RateLimitRule(long minIntervalNanos) {
+        if (minIntervalNanos <= 0) {
+            throw new IllegalArgumentException("A rate limit interval must be positive.");
+        }
+        this.minIntervalNanos = minIntervalNanos;
+    }
+
+    @Override
+    public WithdrawalResult check(WithdrawalHistory history, long amountCents, long nowNanos) {
+        long last = history.lastTimestampNanos();
+        return last != Long.MIN_VALUE && nowNanos - last < minIntervalNanos
+               ? WithdrawalResult.RATE_LIMITED : WithdrawalResult.SUCCESS;
+    }
+}
+
+// SECTION 15: OverdraftPolicy - how far below zero a current account may go
+class OverdraftPolicy {
+    public static final OverdraftPolicy NONE = new OverdraftPolicy("NONE", 0);
+
+    private final String product;
+    private final long limitCents;
+
+    public OverdraftPolicy(String product, double limit) {
+        if (product == null || product.isEmpty()) {
+            throw new IllegalArgumentException("An overdraft policy needs a product name.");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Overdraft limit cannot be negative.");
+        }
+        this.product = product;
+        this.limitCents = AccrualPolicy.toCents(limit);
+    }
+
+    public String getProduct() {
+        return product;
+    }
+
+    public long getLimitCents() {
+        return limitCents;
+    }
+
+    // True if taking the amount would leave the balance within the limit
+    public boolean allows(long balanceCents, long amountCents) {
+        return balanceCents - amountCents >= -limitCents;
+    }
+}
+
+// SECTION 16: ExposureTracker - total overdrawn amount per branch and product
+// Each branch/product pair has one LongAdder, which spreads concurrent updates over separate
+// cells instead of contending on one value. Accounts add the change in their overdrawn amount
+// while they hold their own lock, and the risk team reads sums at any time without blocking them;
+// a read taken during updates is at most a few in-flight withdrawals behind.
+class ExposureTracker {
+    private final Map<String, LongAdder> segments = new ConcurrentHashMap<>();
+
+    // Returns the counter for one branch and product, creating it on first use
+    public LongAdder segment(String branch, String product) {
+        if (branch == null || branch.isEmpty()) {
+            throw new IllegalArgumentException("Exposure needs a branch.");
+        }
+        return segments.computeIfAbsent(branch + "/" + product, key -> new LongAdder());
+    }
+
+    public long getExposureCents(String branch, String product) {
+        LongAdder segment = segments.get(branch + "/" + product);
+        return segment == null ? 0 : segment.sum();
+    }
+
+    public long getTotalExposureCents() {
+        long total = 0;
+        for (LongAdder segment : segments.values()) {
+            total += segment.sum();
+        }
+        return total;
+    }
+
+    // One line per branch/product, in name order
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        new TreeMap<>(segments).forEach((key, segment) ->
+            out.append(String.format("%s exposure ₦%,.2f%n", key, segment.sum() / 100.0)));
+        return out.toString();
+    }
+}
+
+// SECTION 17: BankSnapshot - the whole bank in one compact binary file
+// Accounts are written in the order they were opened, so a restored bank numbers them the same way
+// and month-end chunks and checkpoints still line up. Each account is its type, number, balance and
+// last month-end period, then the savings counters or the overdraft terms and branch. Withdrawal
+// rules and their recent history are configuration, set again after a restore, and are not saved.
+// Each account is read under its own lock, but the bank as a whole is not frozen, so take a snapshot
+// while no requests are being served.
+class BankSnapshot {
+    private static final String KIND = "bank";
+    private static final int SAVINGS = 0;
+    private static final int CURRENT = 1;
+
+    private BankSnapshot() {
+    }
+
+    // Writes every account and returns the size of the snapshot in bytes
+    public static long write(Bank bank, Path path) throws IOException {
+        try (SnapshotWriter out = SnapshotWriter.create(path, KIND)) {
+            int count = bank.size();
+            out.writeVarInt(count);
+            for (int i = 0; i < count; i++) {
+                BankAccount account = bank.getAccountAt(i);
+                synchronized (account) {
+                    writeAccount(out, account);
+                }
+            }
+            long size = out.size();
+            out.commit();
+            return size;
+        }
+    }
+
+    private static void writeAccount(SnapshotWriter out, BankAccount account) throws IOException {
+        out.writeByte(account instanceof SavingsAccount ? SAVINGS : CURRENT);
+        out.writeString(account.getAccountNumber());
+        out.writeDouble(account.getBalance());
+        out.writeVarInt(account.getLastAccrualPeriod());
+        if (account instanceof SavingsAccount) {
+            SavingsAccount savings = (SavingsAccount) account;
+            out.writeVarInt(savings.getWithdrawalCount());
+            out.writeVarLong(savings.getAccruedMicroCents());
+        } else {
+            CurrentAccount current = (CurrentAccount) account;
+            out.writeSharedString(current.getOverdraft().getProduct());
+            out.writeVarLong(current.getOverdraft().getLimitCents());
+            out.writeSharedString(current.getBranch() == null ? "" : current.getBranch());
+        }
+    }
+
+    // Restores a bank. Current accounts with an overdraft add their overdrawn amounts to the tracker again.
+    public static Bank read(Path path, ExposureTracker tracker) throws IOException {
+        try (SnapshotReader in = SnapshotReader.open(path, KIND)) {
+            int count = in.readVarInt();
+            Bank bank = new Bank(count);
+            Map<String, OverdraftPolicy> policies = new HashMap<>(); // One policy object per product and limit, as when issued
+            policies.put(key(OverdraftPolicy.NONE.getProduct(), 0), OverdraftPolicy.NONE);
+            for (int i = 0; i < count; i++) {
+                bank.addAccount(readAccount(in, tracker, policies));
+            }
+            if (!in.atEnd()) {
+                throw new IOException("Snapshot " + path + " has data after its last account.");
+            }
+            return bank;
+        }
+    }
+
+    private static BankAccount readAccount(SnapshotReader in, ExposureTracker tracker,
+                                           Map<String, OverdraftPolicy> policies) throws IOException {
+        int type = in.readByte();
+        String accountNumber = in.readString();
+        double balance = in.readDouble();
+        int lastAccrualPeriod = in.readVarInt();
+        BankAccount account;
+        if (type == SAVINGS) {
+            SavingsAccount savings = new SavingsAccount(accountNumber, balance);
+            savings.restoreCounters(in.readVarInt(), in.readVarLong());
+            account = savings;
+        } else if (type == CURRENT) {
+            CurrentAccount current = new CurrentAccount(accountNumber, balance);
+            String product = in.readSharedString();
+            long limitCents = in.readVarLong();
+            String branch = in.readSharedString();
+            if (!branch.isEmpty()) {
+                OverdraftPolicy policy = policies.computeIfAbsent(key(product, limitCents),
+                                                                  k -> new OverdraftPolicy(product, limitCents / 100.0));
+                current.setOverdraft(policy, branch, tracker);
+            }
+            account = current;
+        } else {
+            throw new IOException("Unknown account type " + type + " in snapshot.");
+        }
+        account.restoreLastAccrualPeriod(lastAccrualPeriod);
+        return account;
+    }
+
+    private static String key(String product, long limitCents) {
+        return product + "/" + limitCents;
+    }
+}
+
+// SECTION 19: ShardMap - which node of a cluster owns each account
+// Accounts are spread over the nodes by a hash of the account number, so every node and every client
+// works out the owner on its own from the account number and the node count, with nothing to look up.
+class ShardMap {
+    private final List<InetSocketAddress> nodes;
+
+    public ShardMap(List<InetSocketAddress> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A cluster needs at least one node.");
+        }
+        this.nodes = new ArrayList<>(nodes);
+    }
+
+    // The shard owning an account; String.hashCode is fixed by the language, so every JVM agrees
+    public static int shardOf(String accountNumber, int shardCount) {
+        int h = accountNumber.hashCode() * 0x9E3779B9; // Sequential account numbers would otherwise differ only in the low bits
+        return Math.floorMod(h ^ (h >>> 16), shardCount);
+    }
+
+    public int shardOf(String accountNumber) {
+        return shardOf(accountNumber, nodes.size());
+    }
+
+    public InetSocketAddress getAddress(int shard) {
+        return nodes.get(shard);
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+}
+
+// SECTION 20: TransferParticipant - one node's side of two-phase transfers between nodes
+// Preparing a debit takes the money from the source account straight away, so it is held by the
+// transfer and cannot be spent again while the coordinator collects votes; aborting gives it back.
+// Preparing a credit only checks that the account is here, and the deposit is made on commit.
+// A prepared leg is kept until the coordinator resolves it: a node never decides alone how a
+// transfer ends. Committing or aborting a transfer that is not prepared here does nothing, so the
+// coordinator may repeat a decision, or abort both legs without knowing which one prepared.
+class TransferParticipant {
+    private final Bank bank;
+    private final Map<String, PreparedLeg> prepared = new ConcurrentHashMap<>();
+
+    public TransferParticipant(Bank bank) {
+        this.bank = bank;
+    }
+
+    // Takes the money for the debit leg of a transfer, or reports why it cannot be taken
+    public WithdrawalResult prepareDebit(String transferId, String accountNumber, double amount) {
+        requireNew(transferId);
+        BankAccount account = bank.getAccount(accountNumber);
+        WithdrawalResult result = bank.tryWithdraw(accountNumber, amount);
+        if (result.isSuccess() && prepared.putIfAbsent(transferId, new PreparedLeg(account, amount, true)) != null) {
+            account.reverseWithdrawal(amount); // Lost a race with a repeated PREPARE
+            throw new IllegalArgumentException("Transfer " + transferId + " is already prepared.");
+        }
+        return result;
+    }
+
+    // Checks the credit leg of a transfer can be paid in; throws if the account is not on this node
+    public void prepareCredit(String transferId, String accountNumber, double amount) {
+        if (!Double.isFinite(amount) || amount <= 0) {
+            throw new IllegalArgumentException("Transfer amount must be positive.");
+        }
+        requireNew(transferId);
+        if (prepared.putIfAbsent(transferId, new PreparedLeg(bank.getAccount(accountNumber), amount, false)) != null) {
+            throw new IllegalArgumentException("Transfer " + transferId + " is already prepared.");
+        }
+    }
+
+    public void commit(String transferId) {
+        PreparedLeg leg = prepared.remove(transferId);
+        if (leg != null && !leg.debit) {
+            leg.account.deposit(leg.amount);
+        }
+    }
+
+    public void abort(String transferId) {
+        PreparedLeg leg = prepared.remove(transferId);
+        if (leg != null && leg.debit) {
+            leg.account.reverseWithdrawal(leg.amount);
+        }
+    }
+
+    // Transfers prepared here and not yet committed or aborted
+    public int getPreparedCount() {
+        return prepared.size();
+    }
+
+    private void requireNew(String transferId) {
+        if (prepared.containsKey(transferId)) {
+            throw new IllegalArgumentException("Transfer " + transferId + " is already prepared.");
+        }
+    }
+
+    private static final class PreparedLeg {
+        final BankAccount account;
+        final double amount;
+        final boolean debit;
+
+        PreparedLeg(BankAccount account, double amount, boolean debit) {
+            this.account = account;
+            this.amount = amount;
+            this.debit = debit;
+        }
+    }
+}
+
+// SECTION 21: ClusterClient - routes requests to the node owning each account and coordinates transfers
+// Keeps one connection to every node. Requests for one account go to the node that owns it, and a
+// transfer between two accounts on the same node is a single TRANSFER there. A transfer between nodes
+// runs two-phase commit with this client as coordinator: PREPARE goes to both nodes at once, then
+// COMMIT to both if both answered OK, otherwise ABORT to both. Answers are the server's response
+// lines. The decision is not logged, so if a client dies between the two phases its prepared legs
+// stay held on the nodes (see TOTAL) until something resolves them. Not thread-safe: one per thread.
+class ClusterClient implements Closeable {
+    private final ShardMap shards;
+    private final NodeConnection[] nodes;
+    private final String clientId; // Makes transfer IDs unique across clients without asking the nodes
+    private long nextTransfer;
+    private long crossNodeTransfers;
+    private long abortedTransfers;
+
+    public ClusterClient(ShardMap shards) throws IOException {
+        this.shards = shards;
+        this.nodes = new NodeConnection[shards.size()];
+        this.clientId = Long.toString(new Random().nextLong() & Long.MAX_VALUE, 36);
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = new NodeConnection(shards.getAddress(i));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public String deposit(String accountNumber, double amount) throws IOException {
+        return nodeFor(accountNumber).request("DEPOSIT " + accountNumber + " " + amount);
+    }
+
+    public String withdraw(String accountNumber, double amount) throws IOException {
+        return nodeFor(accountNumber).request("WITHDRAW " + accountNumber + " " + amount);
+    }
+
+    public String balance(String accountNumber) throws IOException {
+        return nodeFor(accountNumber).request("BALANCE " + accountNumber);
+    }
+
+    // Moves money between any two accounts; answers "OK <source balance>" or the refusal
+    public String transfer(String fromAccount, String toAccount, double amount) throws IOException {
+        NodeConnection debit = nodeFor(fromAccount);
+        NodeConnection credit = nodeFor(toAccount);
+        if (debit == credit) {
+            return debit.request("TRANSFER " + fromAccount + " " + toAccount + " " + amount);
+        }
+        crossNodeTransfers++;
+        String transferId = clientId + "-" + nextTransfer++;
+        debit.send("PREPARE " + transferId + " DEBIT " + fromAccount + " " + amount);
+        credit.send("PREPARE " + transferId + " CREDIT " + toAccount + " " + amount);
+        String debitVote = debit.receive();
+        String creditVote = credit.receive();
+        boolean commit = debitVote.startsWith("OK") && creditVote.startsWith("OK");
+        String decision = (commit ? "COMMIT " : "ABORT ") + transferId;
+        debit.send(decision);
+        credit.send(decision);
+        expectOk(debit.receive(), decision);
+        expectOk(credit.receive(), decision);
+        if (commit) {
+            return debitVote;
+        }
+        abortedTransfers++;
+        return debitVote.startsWith("OK") ? creditVote : debitVote;
+    }
+
+    // Sends the same request to every node and returns the answers, indexed by shard
+    public String[] requestAll(String request) throws IOException {
+        for (NodeConnection node : nodes) {
+            node.send(request);
+        }
+        String[] answers = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            answers[i] = nodes[i].receive();
+        }
+        return answers;
+    }
+
+    public long getCrossNodeTransfers() {
+        return crossNodeTransfers;
+    }
+
+    public long getAbortedTransfers() {
+        return abortedTransfers;
+    }
+
+    @Override
+    public void close() {
+        for (NodeConnection node : nodes) {
+            if (node != null) {
+                node.close();
+            }
+        }
+    }
+
+    private NodeConnection nodeFor(String accountNumber) {
+        return nodes[shards.shardOf(accountNumber)];
+    }
+
+    private static void expectOk(String answer, String request) {
+        if (!answer.startsWith("OK")) {
+            throw new IllegalStateException("A node refused " + request + ": " + answer);
+        }
+    }
+
+    // A blocking connection to one node; requests on it are answered in the order they were sent
+    private static final class NodeConnection {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final BufferedWriter out;
+
+        NodeConnection(InetSocketAddress address) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+        }
+
+        String request(String line) throws IOException {
+            send(line);
+            return receive();
+        }
+
+        void send(String line) throws IOException {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+
+        String receive() throws IOException {
+            String answer = in.readLine();
+            if (answer == null) {
+                throw new IOException("Node " + socket.getRemoteSocketAddress() + " closed the connection.");
+            }
+            return answer;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+}
+
+// SECTION 22: Main class to run the application
+public class BankingApplication {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // Server mode: "java BankingApplication serve [port] [accounts]"
+        if (args.length >= 1 && args[0].equals("serve")) {
+            runServer(args.length > 1 ? Integer.parseInt(args[1]) : 7070, args.length > 2 ? Integer.parseInt(args[2]) : 100_000);
+            return;
+        }
+        // Cluster node mode: "java BankingApplication node <shard> <shards> [port] [accounts]"
+        if (args.length >= 3 && args[0].equals("node")) {
+            runNode(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                    args.length > 3 ? Integer.parseInt(args[3]) : 0, args.length > 4 ? Integer.parseInt(args[4]) : 100_000);
+            return;
+        }
+        // Cluster scaling mode: "java BankingApplication cluster [max nodes] [seconds] [accounts] [clients]"
+        if (args.length >= 1 && args[0].equals("cluster")) {
+            runCluster(args.length > 1 ? Integer.parseInt(args[1]) : 4,
+                       args.length > 2 ? Integer.parseInt(args[2]) : 10,
+                       args.length > 3 ? Integer.parseInt(args[3]) : 100_000,
+                       args.length > 4 ? Integer.parseInt(args[4]) : 16);
+            return;
+        }
+        // Rejection benchmark mode: "java BankingApplication rejections [withdrawals] [reject percent]"
+        if (args.length >= 1 && args[0].equals("rejections")) {
+            runRejectionBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000,
+                                  args.length > 2 ? Integer.parseInt(args[2]) : 90);
+            return;
+        }
+        // Load-test mode: "java BankingApplication loadtest [connections] [seconds] [accounts]"
+        if (args.length >= 1 && args[0].equals("loadtest")) {
+            runLoadTest(args.length > 1 ? Integer.parseInt(args[1]) : 10_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 100_000);
+            return;
+        }
+        // Fraud-check benchmark mode: "java BankingApplication fraudcheck [withdrawals]"
+        if (args.length >= 1 && args[0].equals("fraudcheck")) {
+            runFraudCheckBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000);
+            return;
+        }
+        // Overdraft stress mode: "java BankingApplication overdraft [threads] [withdrawals per thread]"
+        if (args.length >= 1 && args[0].equals("overdraft")) {
+            runOverdraftStress(args.length > 1 ? Integer.parseInt(args[1]) : 8,
+                               args.length > 2 ? Integer.parseInt(args[2]) : 500_000);
+            return;
+        }
+        // Month-end batch mode: "java BankingApplication monthend [accounts] [window seconds]"
+        if (args.length >= 1 && args[0].equals("monthend")) {
+            runMonthEnd(args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 60);
+            return;
+        }
+        // Snapshot benchmark mode: "java BankingApplication snapshot [accounts] [path]"
+        if (args.length >= 1 && args[0].equals("snapshot")) {
+            runSnapshotBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000,
+                                 Paths.get(args.length > 2 ? args[2] : "bank.snapshot"));
+            return;
+        }
+
+        try {
+            // Create SavingsAccount and perform transactions
+            BankAccount savings = new SavingsAccount("SAV001", 5000);
+            savings.deposit(2000);
+            savings.withdraw(1000);
+            savings.withdraw(500);
+            savings.withdraw(700);
+            // Uncommenting this will throw WithdrawalLimitExceededException
+            // savings.withdraw(200);
+
+            savings.printMonthlyStatement();
+
+            System.out.println("\n-------------------------\n");
+
+            // Create CurrentAccount and perform transactions
+            BankAccount current = new CurrentAccount("CUR002", 10000);
+            current.withdraw(3000);
+            current.deposit(5000);
+            current.printMonthlyStatement();
+
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+
+        System.out.println("\n-------------------------\n");
+        System.out.print(Metrics.report());
+    }
+
+    /**
+     * Times the exception API against the result API when most withdrawals are refused.
+     * Refusals come from a savings account that has used its monthly withdrawals; the rest succeed
+     * on a current account.
+     */
+    private static void runRejectionBenchmark(int withdrawals, int rejectPercent) {
+        BankAccount maxedOut = new SavingsAccount("SAV-BOT", 1_000_000);
+        for (int i = 0; i < 3; i++) {
+            maxedOut.tryWithdraw(1);
+        }
+        BankAccount current = new CurrentAccount("CUR-BENCH", 1e15);
+        for (int round = 1; round <= 3; round++) { // Later rounds run with compiled code
+            long rejected = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < withdrawals; i++) {
+                try {
+                    (i % 100 < rejectPercent ? maxedOut : current).withdraw(1);
+                } catch (Exception e) {
+                    rejected++;
+                }
+            }
+            long exceptionNanos = System.nanoTime() - start;
+
+            long refused = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < withdrawals; i++) {
+                if (!(i % 100 < rejectPercent ? maxedOut : current).tryWithdraw(1).isSuccess()) {
+                    refused++;
+                }
+            }
+            long resultNanos = System.nanoTime() - start;
+            System.out.printf("Round %d, %d%% refused: exceptions %.1f ns/withdrawal (%d refused), results %.1f ns/withdrawal (%d refused)%n",
+                              round, rejectPercent, (double) exceptionNanos / withdrawals, rejected,
+                              (double) resultNanos / withdrawals, refused);
+        }
+    }
+
+    /**
+     * Times single withdrawals with and without the fraud rules and reports the latency they add.
+     * Withdrawals rotate over 1,024 accounts, as they would on a busy bank, so most pass every rule
+     * and each check reads a full, cache-cold ring buffer; one in a thousand is a spike.
+     */
+    private static void runFraudCheckBenchmark(int withdrawals) {
+        BankAccount[] plain = new BankAccount[1024];
+        BankAccount[] screened = new BankAccount[1024];
+        for (int i = 0; i < plain.length; i++) {
+            plain[i] = new CurrentAccount("PLAIN" + i, 1e15);
+            screened[i] = new CurrentAccount("RULED" + i, 1e15);
+            screened[i].setWithdrawalRules(new RateLimitRule(TimeUnit.MICROSECONDS.toNanos(10)),
+                                           new VelocityRule(16, TimeUnit.MILLISECONDS.toNanos(1)),
+                                           new AmountSpikeRule(20, 8));
+        }
+        long[] plainNanos = new long[withdrawals];
+        long[] screenedNanos = new long[withdrawals];
+        for (int round = 1; round <= 3; round++) { // Later rounds run with compiled code
+            long refused = 0;
+            for (int i = 0; i < withdrawals; i++) {
+                double amount = i % 1000 == 999 ? 5000 : 1 + i % 100;
+                long start = System.nanoTime();
+                plain[i & 1023].tryWithdraw(amount);
+                long middle = System.nanoTime();
+                if (!screened[i & 1023].tryWithdraw(amount).isSuccess()) {
+                    refused++;
+                }
+                screenedNanos[i] = System.nanoTime() - middle;
+                plainNanos[i] = middle - start;
+            }
+            Arrays.sort(plainNanos);
+            Arrays.sort(screenedNanos);
+            long plainP99 = plainNanos[(int) (withdrawals * 0.99)];
+            long screenedP99 = screenedNanos[(int) (withdrawals * 0.99)];
+            System.out.printf("Round %d: p50 %d -> %d ns, p99 %d -> %d ns (+%d ns), p999 %d -> %d ns, %.2f%% refused by rules%n",
+                              round, plainNanos[withdrawals / 2], screenedNanos[withdrawals / 2], plainP99, screenedP99,
+                              screenedP99 - plainP99, plainNanos[(int) (withdrawals * 0.999)],
+                              screenedNanos[(int) (withdrawals * 0.999)], 100.0 * refused / withdrawals);
+        }
+    }
+
+    /**
+     * Has several threads withdraw from the same overdraft accounts at once, without the Bank's lock,
+     * while another thread keeps reading the exposure. Fails if any account ends beyond its limit or
+     * the exposure does not match the accounts' overdrawn balances.
+     */
+    private static void runOverdraftStress(int threads, int withdrawalsPerThread) throws InterruptedException {
+        ExposureTracker tracker = new ExposureTracker();
+        OverdraftPolicy personal = new OverdraftPolicy("PERSONAL", 500);
+        OverdraftPolicy business = new OverdraftPolicy("BUSINESS", 20_000);
+        CurrentAccount[] accounts = new CurrentAccount[64];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = new CurrentAccount("OD" + i, 100);
+            accounts[i].setOverdraft(i % 4 == 0 ? business : personal, i % 3 == 0 ? "ABUJA" : "LAGOS", tracker);
+        }
+
+        LongAdder refused = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < withdrawalsPerThread; i++) {
+                    CurrentAccount account = accounts[random.nextInt(accounts.length)];
+                    if (random.nextInt(4) == 0) {
+                        account.deposit(1 + random.nextInt(50));
+                    } else if (!account.tryWithdraw(1 + random.nextInt(40)).isSuccess()) {
+                        refused.increment();
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long reads = 0;
+        long peakCents = 0;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) { // The risk team reading while withdrawals run
+                peakCents = Math.max(peakCents, tracker.getTotalExposureCents());
+                reads++;
+                Thread.sleep(1);
+            }
+            worker.join();
+        }
+        System.out.printf("%,d operations on %d threads in %.2f s, %,d withdrawals refused, %,d live exposure reads (peak ₦%,.2f)%n",
+                          (long) threads * withdrawalsPerThread, threads, (System.nanoTime() - start) / 1e9,
+                          refused.sum(), reads, peakCents / 100.0);
+
+        long overdrawnCents = 0;
+        for (CurrentAccount account : accounts) {
+            long balanceCents = AccrualPolicy.toCents(account.getBalance());
+            if (balanceCents < -account.getOverdraft().getLimitCents()) {
+                throw new IllegalStateException(account.getAccountNumber() + " went past its overdraft limit: " + account.getBalance());
+            }
+            overdrawnCents += Math.max(0, -balanceCents);
+        }
+        if (overdrawnCents != tracker.getTotalExposureCents()) {
+            throw new IllegalStateException("Exposure " + tracker.getTotalExposureCents() + " does not match overdrawn " + overdrawnCents + ".");
+        }
+        System.out.print(tracker.report());
+        System.out.printf("No account passed its limit; exposure matches overdrawn balances (₦%,.2f)%n", overdrawnCents / 100.0);
+    }
+
+    /**
+     * Runs the month-end batch over half savings and half current accounts: first with a deadline
+     * that cuts it short, then resumed from its checkpoint, then once more to show nothing is charged
+     * twice. Fails if the whole batch takes longer than the window.
+     */
+    private static void runMonthEnd(int accountCount, int windowSeconds) throws IOException, InterruptedException {
+        Bank bank = new Bank();
+        long start = System.nanoTime();
+        for (int i = 0; i < accountCount; i++) {
+            bank.addAccount(i % 2 == 0 ? new SavingsAccount("S" + i, 1_000 + i % 50_000)
+                                       : new CurrentAccount("C" + i, i % 3_000));
+        }
+        System.out.printf("Opened %,d accounts in %.1f s%n", bank.size(), (System.nanoTime() - start) / 1e9);
+
+        AccrualPolicy policy = new AccrualPolicy(350, 500, 100_000); // 3.5% a year; ₦5 fee below ₦1,000
+        Path checkpoint = Files.createTempFile("monthend", ".checkpoint");
+        Files.delete(checkpoint);
+        MonthEndEngine engine = new MonthEndEngine(bank, policy, checkpoint, ForkJoinPool.commonPool());
+        int period = 202610;
+        try {
+            MonthEndReport interrupted = engine.run(period, 31, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(25));
+            System.out.println("Interrupted run: " + interrupted);
+            MonthEndReport resumed = engine.run(period, 31, Long.MAX_VALUE);
+            System.out.println("Resumed run:     " + resumed);
+            MonthEndReport repeated = engine.run(period, 31, Long.MAX_VALUE);
+            System.out.println("Repeated run:    " + repeated);
+
+            double seconds = (interrupted.getElapsedNanos() + resumed.getElapsedNanos()) / 1e9;
+            System.out.printf("Month-end for %,d accounts took %.2f s of a %d s window%n", bank.size(), seconds, windowSeconds);
+            if (!resumed.isComplete() || seconds > windowSeconds) {
+                throw new IllegalStateException("Month-end batch did not finish within the window.");
+            }
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    /**
+     * Builds a bank from code the way the other modes do (opening accounts, a day of activity and a
+     * month-end), then writes it to a snapshot and restores it with the original gone, as a fresh
+     * process would. The restored bank must write a byte-for-byte identical snapshot.
+     */
+    private static void runSnapshotBenchmark(int accountCount, Path path) throws IOException, InterruptedException {
+        ExposureTracker tracker = new ExposureTracker();
+        OverdraftPolicy personal = new OverdraftPolicy("PERSONAL", 500);
+        long start = System.nanoTime();
+        Bank bank = new Bank();
+        for (int i = 0; i < accountCount; i++) {
+            if (i % 2 == 0) {
+                bank.addAccount(new SavingsAccount("S" + i, 1_000 + i % 50_000));
+            } else {
+                CurrentAccount current = new CurrentAccount("C" + i, i % 3_000);
+                if (i % 4 == 1) {
+                    current.setOverdraft(personal, i % 3 == 0 ? "ABUJA" : "LAGOS", tracker);
+                }
+                bank.addAccount(current);
+            }
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < accountCount; i++) {
+            BankAccount account = bank.getAccountAt(random.nextInt(accountCount));
+            if (random.nextBoolean()) {
+                account.deposit(1 + random.nextInt(500));
+            } else {
+                account.tryWithdraw(1 + random.nextInt(800));
+            }
+        }
+        Path checkpoint = path.resolveSibling(path.getFileName() + ".checkpoint");
+        new MonthEndEngine(bank, new AccrualPolicy(350, 500, 100_000), checkpoint, ForkJoinPool.commonPool())
+            .run(202610, 31, Long.MAX_VALUE);
+        Files.deleteIfExists(checkpoint);
+        double rebuildSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rebuilt %,d accounts from code in %.2f s%n", bank.size(), rebuildSeconds);
+
+        start = System.nanoTime();
+        long bytes = BankSnapshot.write(bank, path);
+        double writeSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Snapshot written in %.2f s: %.1f MB, %.1f bytes per account, %.0f MB/s%n",
+                          writeSeconds, bytes / 1e6, (double) bytes / bank.size(), bytes / 1e6 / writeSeconds);
+        long exposureCents = tracker.getTotalExposureCents();
+        bank = null; // Restore into an empty heap, like a process starting up
+        System.gc();
+
+        start = System.nanoTime();
+        ExposureTracker restoredTracker = new ExposureTracker();
+        Bank restored = BankSnapshot.read(path, restoredTracker);
+        double restoreSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Restored %,d accounts in %.2f s (%.0f accounts/s), %.1fx faster than rebuilding%n",
+                          restored.size(), restoreSeconds, restored.size() / restoreSeconds, rebuildSeconds / restoreSeconds);
+
+        Path copy = path.resolveSibling(path.getFileName() + ".copy");
+        BankSnapshot.write(restored, copy);
+        try {
+            if (Files.mismatch(path, copy) != -1) {
+                throw new IllegalStateException("The restored bank does not write the same snapshot.");
+            }
+        } finally {
+            Files.delete(copy);
+        }
+        if (restoredTracker.getTotalExposureCents() != exposureCents) {
+            throw new IllegalStateException("Restored exposure " + restoredTracker.getTotalExposureCents()
+                                            + " does not match " + exposureCents + ".");
+        }
+        System.out.printf("Every account and the overdraft exposure (₦%,.2f) restored exactly%n",
+                          restoredTracker.getTotalExposureCents() / 100.0);
+        Files.delete(path);
+    }
+
+    /**
+     * Opens accounts CUR000000.. and SAV000000.., then serves them until the process is stopped.
+     */
+    private static void runServer(int port, int accountCount) throws IOException {
+        Bank bank = new Bank();
+        for (int i = 0; i < accountCount; i++) {
+            bank.addAccount(new CurrentAccount(BankLoadClient.accountNumber("CUR", i), 1_000_000));
+            bank.addAccount(new SavingsAccount(BankLoadClient.accountNumber("SAV", i), 1_000_000));
+        }
+        BankServer server = new BankServer(bank, port, Runtime.getRuntime().availableProcessors());
+        System.out.println("Listening on port " + server.getPort() + " with " + bank.size() + " accounts");
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    }
+
+    /**
+     * Starts a server in a child JVM, so each side gets its own file-descriptor limit, then drives it
+     * with the load-test client and stops it.
+     */
+    private static void runLoadTest(int connections, int seconds, int accountCount) throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        try {
+            int port = startServerProcess(processes, "serve", "0", String.valueOf(accountCount));
+            new BankLoadClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), accountCount)
+                .run(connections, seconds);
+        } finally {
+            stopProcesses(processes);
+        }
+    }
+
+    /**
+     * Opens the accounts CUR000000.. and SAV000000.. that belong to one shard, then serves them until
+     * the process is stopped. Transfers with accounts on other nodes arrive as PREPARE/COMMIT/ABORT.
+     */
+    private static void runNode(int shard, int shardCount, int port, int accountCount) throws IOException {
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("Shard must be from 0 to " + (shardCount - 1) + ".");
+        }
+        Bank bank = new Bank(2 * accountCount / shardCount + 16);
+        for (int i = 0; i < accountCount; i++) {
+            String current = BankLoadClient.accountNumber("CUR", i);
+            String savings = BankLoadClient.accountNumber("SAV", i);
+            if (ShardMap.shardOf(current, shardCount) == shard) {
+                bank.addAccount(new CurrentAccount(current, 1_000_000));
+            }
+            if (ShardMap.shardOf(savings, shardCount) == shard) {
+                bank.addAccount(new SavingsAccount(savings, 1_000_000));
+            }
+        }
+        BankServer server = new BankServer(bank, port, Runtime.getRuntime().availableProcessors());
+        System.out.println("Listening on port " + server.getPort() + " with " + bank.size() + " accounts of shard "
+                           + shard + " of " + shardCount);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    }
+
+    /**
+     * Measures how throughput grows with the number of nodes. For 1 node up to maxNodes, starts that
+     * many node processes on loopback, each owning its shard of the accounts, and drives them with one
+     * ClusterClient per client thread. A fifth of the requests are transfers between random current
+     * accounts, so with n nodes about (n - 1) / n of those go through two-phase commit. After each run
+     * no node may still hold a prepared transfer, and the balances across all nodes must add up to the
+     * opening balances plus the deposits and less the withdrawals the clients saw succeed.
+     */
+    private static void runCluster(int maxNodes, int seconds, int accountCount, int clients) throws IOException, InterruptedException {
+        System.out.println("Cluster on loopback with " + Runtime.getRuntime().availableProcessors()
+                           + " processor(s); nodes only scale while each can get a core of its own");
+        double singleNodeRate = 0;
+        for (int nodeCount = 1; nodeCount <= maxNodes; nodeCount++) {
+            List<Process> processes = new ArrayList<>();
+            try {
+                List<InetSocketAddress> addresses = new ArrayList<>();
+                for (int shard = 0; shard < nodeCount; shard++) {
+                    int port = startServerProcess(processes, "node", String.valueOf(shard), String.valueOf(nodeCount),
+                                                  "0", String.valueOf(accountCount));
+                    addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+                }
+                double rate = driveCluster(new ShardMap(addresses), seconds, accountCount, clients);
+                if (nodeCount == 1) {
+                    singleNodeRate = rate;
+                }
+                System.out.printf("  %.2fx the throughput of one node%n", rate / singleNodeRate);
+            } finally {
+                stopProcesses(processes);
+            }
+        }
+    }
+
+    // Runs the client threads against one cluster for the given time, checks the books and returns requests per second
+    private static double driveCluster(ShardMap shards, int seconds, int accountCount, int clients) throws IOException, InterruptedException {
+        LongAdder requests = new LongAdder();
+        LongAdder transfers = new LongAdder();
+        LongAdder crossNode = new LongAdder();
+        LongAdder aborted = new LongAdder();
+        LongAdder netDeposits = new LongAdder(); // Whole naira paid in less paid out
+        LatencyHistogram transferLatency = Metrics.histogram("bank.cluster." + shards.size() + "nodes.transfer");
+        List<Throwable> failures = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] threads = new Thread[clients];
+        for (int t = 0; t < clients; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try (ClusterClient client = new ClusterClient(shards)) {
+                    while (System.nanoTime() < deadline) {
+                        String account = BankLoadClient.accountNumber("CUR", random.nextInt(accountCount));
+                        int amount = 1 + random.nextInt(100);
+                        int kind = random.nextInt(10);
+                        if (kind < 5) {
+                            client.balance(account);
+                        } else if (kind < 8) {
+                            boolean deposit = kind < 7;
+                            String answer = deposit ? client.deposit(account, amount) : client.withdraw(account, amount);
+                            if (answer.startsWith("OK")) {
+                                netDeposits.add(deposit ? amount : -amount);
+                            }
+                        } else {
+                            String target = BankLoadClient.accountNumber("CUR", random.nextInt(accountCount));
+                            if (target.equals(account)) {
+                                continue;
+                            }
+                            long start = Metrics.startTimer();
+                            client.transfer(account, target, amount);
+                            transferLatency.recordSince(start);
+                            transfers.increment();
+                        }
+                        requests.increment();
+                    }
+                    crossNode.add(client.getCrossNodeTransfers());
+                    aborted.add(client.getAbortedTransfers());
+                } catch (IOException | RuntimeException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }, "cluster-client-" + t);
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        if (!failures.isEmpty()) {
+            throw new IllegalStateException("A cluster client failed: " + failures.get(0), failures.get(0));
+        }
+
+        double rate = requests.sum() / elapsed;
+        System.out.printf("%d node(s), %d clients, %d s: %.0f requests/s, %,d transfers (%,d across nodes, %,d aborted)%n",
+                          shards.size(), clients, seconds, rate, transfers.sum(), crossNode.sum(), aborted.sum());
+        if (Metrics.ENABLED) {
+            System.out.printf("  Transfer round trips: p50 %.2f ms, p99 %.2f ms%n",
+                              transferLatency.getPercentileNanos(0.50) / 1e6, transferLatency.getPercentileNanos(0.99) / 1e6);
+        }
+
+        double total = 0;
+        long prepared = 0;
+        try (ClusterClient client = new ClusterClient(shards)) {
+            for (String answer : client.requestAll("TOTAL")) { // "OK <total> <prepared>"
+                String[] parts = answer.split(" ");
+                total += Double.parseDouble(parts[1]);
+                prepared += Long.parseLong(parts[2]);
+            }
+        }
+        double expected = 2.0 * accountCount * 1_000_000 + netDeposits.sum();
+        if (prepared != 0 || total != expected) {
+            throw new IllegalStateException(String.format("The books do not balance: %.2f across the nodes, expected %.2f, with %d transfers still prepared.",
+                                                          total, expected, prepared));
+        }
+        System.out.printf("  Books balance: %.0f across the nodes, no transfers left prepared%n", total);
+        return rate;
+    }
+
+    // Starts this program in a child JVM with the given arguments, adds it to the list and returns the port it listens on
+    private static int startServerProcess(List<Process> processes, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(System.getProperty("java.home") + "/bin/java",
+                                                       "-cp", System.getProperty("java.class.path"), "BankingApplication"));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        processes.add(process);
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String ready = output.readLine(); // "Listening on port N with M accounts..."
+        if (ready == null || !ready.startsWith("Listening on port ")) {
+            throw new IllegalStateException("Server failed to start: " + ready);
+        }
+        System.out.println("Server: " + ready);
+        return Integer.parseInt(ready.split(" ")[3]);
+    }
+
+    private static void stopProcesses(List<Process> processes) throws InterruptedException {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            process.waitFor(10, TimeUnit.SECONDS);
         }
     }
 }
\ No newline at end of file
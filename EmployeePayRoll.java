@@ -1,7 +1,56 @@
+import com.metrics.Counter;
+import com.metrics.LatencyHistogram;
+import com.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 // Abstract base class representing a generic Employee
 abstract class Employee {
     private String name;
     private int employeeId;
+    private String department = "General";
+    private EmployeeChangeListener changeListener; // The payroll tracking this employee, if any
+    private int payrollSlot = -1;                   // This employee's position in that payroll
+
+    // Number of salary calculations, shared by all employee types. Timing each one would cost
+    // more than the calculation itself, so whole payroll runs are timed instead.
+    protected static final Counter SALARY_CALCULATIONS = Metrics.counter("payroll.salary.calculations");
 
     // Constructor
     public Employee(String name, int employeeId) {
@@ -32,8 +81,43 @@ abstract class Employee {
         this.employeeId = employeeId;
     }
 
+    public String getDepartment() {
+        return department;
+    }
+
+    // Moving department changes which department totals this employee's pay counts towards
+    public void setDepartment(String department) {
+        if (department == null || department.isEmpty()) {
+            throw new IllegalArgumentException("Department cannot be empty.");
+        }
+        if (!department.equals(this.department)) {
+            this.department = department;
+            changed();
+        }
+    }
+
+    int getPayrollSlot() {
+        return payrollSlot;
+    }
+
+    // Called by the payroll when it starts tracking this employee
+    void joinPayroll(EmployeeChangeListener listener, int slot) {
+        this.changeListener = listener;
+        this.payrollSlot = slot;
+    }
+
+    // Subclasses call this when something that affects pay has changed
+    protected void changed() {
+        if (changeListener != null) {
+            changeListener.employeeChanged(this);
+        }
+    }
+
     // Abstract method to calculate salary (must be implemented by subclasses)
     public abstract double calculateSalary();
+
+    // Gross pay under a payroll plan, which may add premiums such as overtime
+    public abstract double calculateGrossPay(PayrollPlan plan);
 }
 
 // Subclass for full-time employees
@@ -54,12 +138,22 @@ class FullTimeEmployee extends Employee {
         if (monthlySalary < 0) {
             throw new IllegalArgumentException("Monthly salary cannot be negative.");
         }
-        this.monthlySalary = monthlySalary;
+        if (monthlySalary != this.monthlySalary) {
+            this.monthlySalary = monthlySalary;
+            changed();
+        }
     }
 
     // Implementation of abstract method
     @Override
     public double calculateSalary() {
+        SALARY_CALCULATIONS.increment();
+        return monthlySalary;
+    }
+
+    @Override
+    public double calculateGrossPay(PayrollPlan plan) {
+        SALARY_CALCULATIONS.increment();
         return monthlySalary;
     }
 }
@@ -84,7 +178,10 @@ class PartTimeEmployee extends Employee {
         if (hoursWorked < 0) {
             throw new IllegalArgumentException("Hours worked cannot be negative.");
         }
-        this.hoursWorked = hoursWorked;
+        if (hoursWorked != this.hoursWorked) {
+            this.hoursWorked = hoursWorked;
+            changed();
+        }
     }
 
     public double getHourlyRate() {
@@ -96,19 +193,1383 @@ class PartTimeEmployee extends Employee {
         if (hourlyRate < 0) {
             throw new IllegalArgumentException("Hourly rate cannot be negative.");
         }
-        this.hourlyRate = hourlyRate;
+        if (hourlyRate != this.hourlyRate) {
+            this.hourlyRate = hourlyRate;
+            changed();
+        }
     }
 
     // Implementation of abstract method
     @Override
     public double calculateSalary() {
+        SALARY_CALCULATIONS.increment();
         return hoursWorked * hourlyRate;
     }
+
+    // Overtime hours are paid at the plan's multiplier
+    @Override
+    public double calculateGrossPay(PayrollPlan plan) {
+        SALARY_CALCULATIONS.increment();
+        return plan.hourlyGross(hoursWorked, hourlyRate);
+    }
+}
+
+// Payroll rules as configured: tax brackets, deductions and overtime terms.
+// Loaded once at startup, then compiled into a PayrollPlan for the actual calculations.
+class PayrollRules {
+    private final double[] bracketFloors;
+    private final double[] bracketRates;
+    private final Map<String, String> pretaxDeductions;
+    private final Map<String, String> postTaxDeductions;
+    private final double overtimeThresholdHours;
+    private final double overtimeMultiplier;
+
+    public PayrollRules(double[] bracketFloors, double[] bracketRates, Map<String, String> pretaxDeductions,
+                        Map<String, String> postTaxDeductions, double overtimeThresholdHours, double overtimeMultiplier) {
+        if (bracketFloors.length == 0 || bracketFloors.length != bracketRates.length || bracketFloors[0] != 0) {
+            throw new IllegalArgumentException("Tax brackets must start at 0 and give a rate for every floor.");
+        }
+        for (int i = 0; i < bracketFloors.length; i++) {
+            if (i > 0 && bracketFloors[i] <= bracketFloors[i - 1]) {
+                throw new IllegalArgumentException("Tax bracket floors must be in increasing order.");
+            }
+            checkRate(bracketRates[i], "Tax rate");
+        }
+        if (overtimeThresholdHours < 0 || overtimeMultiplier < 1) {
+            throw new IllegalArgumentException("Overtime needs a non-negative threshold and a multiplier of at least 1.");
+        }
+        this.bracketFloors = bracketFloors.clone();
+        this.bracketRates = bracketRates.clone();
+        this.pretaxDeductions = new TreeMap<>(pretaxDeductions);
+        this.postTaxDeductions = new TreeMap<>(postTaxDeductions);
+        this.overtimeThresholdHours = overtimeThresholdHours;
+        this.overtimeMultiplier = overtimeMultiplier;
+        pretaxDeductions.values().forEach(PayrollRules::parseDeduction);
+        postTaxDeductions.values().forEach(PayrollRules::parseDeduction);
+    }
+
+    // No tax, no deductions and no overtime premium: net pay equals gross pay
+    public static PayrollRules none() {
+        return new PayrollRules(new double[]{0}, new double[]{0}, new TreeMap<>(), new TreeMap<>(), 0, 1);
+    }
+
+    // Reads rules from a properties file; see payroll-rules.properties for the format
+    public static PayrollRules load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(in);
+        }
+        String[] brackets = properties.getProperty("tax.brackets", "0:0").split(",");
+        double[] floors = new double[brackets.length];
+        double[] rates = new double[brackets.length];
+        for (int i = 0; i < brackets.length; i++) {
+            String[] parts = brackets[i].trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Tax bracket \"" + brackets[i].trim() + "\" is not floor:rate.");
+            }
+            floors[i] = Double.parseDouble(parts[0]);
+            rates[i] = Double.parseDouble(parts[1]);
+        }
+        Map<String, String> pretax = new TreeMap<>();
+        Map<String, String> postTax = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith("pretax.")) {
+                pretax.put(key.substring("pretax.".length()), properties.getProperty(key).trim());
+            } else if (key.startsWith("deduction.")) {
+                postTax.put(key.substring("deduction.".length()), properties.getProperty(key).trim());
+            } else if (!key.equals("tax.brackets") && !key.startsWith("overtime.")) {
+                throw new IllegalArgumentException("Unknown payroll rule " + key + ".");
+            }
+        }
+        return new PayrollRules(floors, rates, pretax, postTax,
+                                Double.parseDouble(properties.getProperty("overtime.threshold.hours", "0")),
+                                Double.parseDouble(properties.getProperty("overtime.multiplier", "1")));
+    }
+
+    // Flattens the rules: all percentage deductions of a kind become one rate and all flat ones one
+    // amount, and the tax owed below each bracket floor is worked out in advance
+    public PayrollPlan compile() {
+        double[] taxBelowFloor = new double[bracketFloors.length];
+        for (int i = 1; i < bracketFloors.length; i++) {
+            taxBelowFloor[i] = taxBelowFloor[i - 1] + (bracketFloors[i] - bracketFloors[i - 1]) * bracketRates[i - 1];
+        }
+        double[] pretax = sumDeductions(pretaxDeductions);
+        double[] postTax = sumDeductions(postTaxDeductions);
+        return new PayrollPlan(bracketFloors, bracketRates, taxBelowFloor, pretax[0], pretax[1], postTax[0], postTax[1],
+                               overtimeThresholdHours, overtimeMultiplier);
+    }
+
+    // Returns {total rate, total flat amount}
+    private static double[] sumDeductions(Map<String, String> deductions) {
+        double[] totals = new double[2];
+        for (String value : deductions.values()) {
+            double[] deduction = parseDeduction(value);
+            totals[0] += deduction[0];
+            totals[1] += deduction[1];
+        }
+        checkRate(totals[0], "Combined deduction rate");
+        return totals;
+    }
+
+    // "8%" is a rate of 0.08; "50" is a flat 50
+    private static double[] parseDeduction(String value) {
+        double[] deduction = new double[2];
+        if (value.endsWith("%")) {
+            deduction[0] = Double.parseDouble(value.substring(0, value.length() - 1).trim()) / 100;
+            checkRate(deduction[0], "Deduction rate");
+        } else {
+            deduction[1] = Double.parseDouble(value);
+            if (deduction[1] < 0) {
+                throw new IllegalArgumentException("Deduction amounts cannot be negative.");
+            }
+        }
+        return deduction;
+    }
+
+    private static void checkRate(double rate, String what) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException(what + " must be between 0% and 100%.");
+        }
+    }
+}
+
+// Payroll rules compiled into flat arrays and totals, evaluated with straight-line arithmetic.
+// Immutable, so one plan serves any number of threads, and evaluating it allocates nothing.
+class PayrollPlan {
+    private final double[] bracketFloors;
+    private final double[] bracketRates;
+    private final double[] taxBelowFloor;
+    private final double pretaxRate;
+    private final double pretaxFlat;
+    private final double postTaxRate;
+    private final double postTaxFlat;
+    private final double overtimeThresholdHours;
+    private final double overtimeMultiplier;
+
+    PayrollPlan(double[] bracketFloors, double[] bracketRates, double[] taxBelowFloor, double pretaxRate, double pretaxFlat,
+                double postTaxRate, double postTaxFlat, double overtimeThresholdHours, double overtimeMultiplier) {
+        this.bracketFloors = bracketFloors;
+        this.bracketRates = bracketRates;
+        this.taxBelowFloor = taxBelowFloor;
+        this.pretaxRate = pretaxRate;
+        this.pretaxFlat = pretaxFlat;
+        this.postTaxRate = postTaxRate;
+        this.postTaxFlat = postTaxFlat;
+        this.overtimeThresholdHours = overtimeThresholdHours;
+        this.overtimeMultiplier = overtimeMultiplier;
+    }
+
+    // Hourly pay, with hours above the overtime threshold paid at the overtime multiplier
+    public double hourlyGross(int hoursWorked, double hourlyRate) {
+        double overtimeHours = Math.max(0, hoursWorked - overtimeThresholdHours);
+        return (hoursWorked - overtimeHours) * hourlyRate + overtimeHours * hourlyRate * overtimeMultiplier;
+    }
+
+    // Progressive tax: the tax below the highest floor reached plus that bracket's rate on the rest
+    public double tax(double taxablePay) {
+        int bracket = bracketFloors.length - 1;
+        while (bracket > 0 && taxablePay < bracketFloors[bracket]) {
+            bracket--;
+        }
+        return taxBelowFloor[bracket] + (taxablePay - bracketFloors[bracket]) * bracketRates[bracket];
+    }
+
+    // Fills the payslip for one employee and returns the net pay
+    public double evaluate(Employee employee, Payslip payslip) {
+        double gross = employee.calculateGrossPay(this);
+        double pretax = Math.min(gross, gross * pretaxRate + pretaxFlat);
+        double taxable = gross - pretax;
+        double tax = tax(taxable);
+        double postTax = Math.min(taxable - tax, gross * postTaxRate + postTaxFlat);
+        payslip.set(employee.getEmployeeId(), gross, pretax, tax, postTax, taxable - tax - postTax);
+        return payslip.getNetPay();
+    }
+}
+
+// The result of one net-pay calculation. Callers reuse one payslip across employees.
+class Payslip {
+    private int employeeId;
+    private double grossPay;
+    private double pretaxDeductions;
+    private double tax;
+    private double postTaxDeductions;
+    private double netPay;
+
+    void set(int employeeId, double grossPay, double pretaxDeductions, double tax, double postTaxDeductions, double netPay) {
+        this.employeeId = employeeId;
+        this.grossPay = grossPay;
+        this.pretaxDeductions = pretaxDeductions;
+        this.tax = tax;
+        this.postTaxDeductions = postTaxDeductions;
+        this.netPay = netPay;
+    }
+
+    public int getEmployeeId() {
+        return employeeId;
+    }
+
+    public double getGrossPay() {
+        return grossPay;
+    }
+
+    public double getPretaxDeductions() {
+        return pretaxDeductions;
+    }
+
+    public double getTax() {
+        return tax;
+    }
+
+    public double getPostTaxDeductions() {
+        return postTaxDeductions;
+    }
+
+    public double getNetPay() {
+        return netPay;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("gross $%.2f - pre-tax $%.2f - tax $%.2f - deductions $%.2f = net $%.2f",
+                             grossPay, pretaxDeductions, tax, postTaxDeductions, netPay);
+    }
+}
+
+// Receives a call whenever something that affects an employee's pay changes
+interface EmployeeChangeListener {
+    void employeeChanged(Employee employee);
+}
+
+// Payroll that recalculates only the employees changed since the last run.
+// Each employee's last gross and net pay is cached, and department totals are kept up to date by
+// taking out an employee's old figures and adding the new ones. Amounts are held in whole cents,
+// so patching the totals again and again never drifts from a full recalculation.
+class IncrementalPayroll implements EmployeeChangeListener {
+    private final PayrollPlan plan;
+    private final Payslip payslip = new Payslip();
+    private final Map<String, Integer> departmentIndex = new HashMap<>();
+    private final List<String> departmentNames = new ArrayList<>();
+    private long[] departmentGrossCents = new long[8];
+    private long[] departmentNetCents = new long[8];
+
+    private Employee[] employees = new Employee[1024];
+    private long[] grossCents = new long[1024];
+    private long[] netCents = new long[1024];
+    private int[] departmentOf = new int[1024]; // Department the cached figures were counted in, or -1
+    private int size;
+
+    private final BitSet dirty = new BitSet(); // Employees to recalculate, by payroll slot
+    private int dirtyCount;
+
+    public IncrementalPayroll(PayrollPlan plan) {
+        this.plan = plan;
+    }
+
+    // Adds an employee; their pay is first calculated in the next run
+    public synchronized void add(Employee employee) {
+        if (employee.getPayrollSlot() >= 0) {
+            throw new IllegalArgumentException("Employee " + employee.getEmployeeId() + " is already on a payroll.");
+        }
+        if (size == employees.length) {
+            employees = Arrays.copyOf(employees, size * 2);
+            grossCents = Arrays.copyOf(grossCents, size * 2);
+            netCents = Arrays.copyOf(netCents, size * 2);
+            departmentOf = Arrays.copyOf(departmentOf, size * 2);
+        }
+        employees[size] = employee;
+        departmentOf[size] = -1;
+        employee.joinPayroll(this, size);
+        markDirty(size);
+        size++;
+    }
+
+    @Override
+    public synchronized void employeeChanged(Employee employee) {
+        markDirty(employee.getPayrollSlot());
+    }
+
+    private void markDirty(int slot) {
+        if (!dirty.get(slot)) {
+            dirty.set(slot);
+            dirtyCount++;
+        }
+    }
+
+    // Number of employees waiting to be recalculated
+    public synchronized int getPendingChanges() {
+        return dirtyCount;
+    }
+
+    // Recalculates the changed employees, patches the department totals and returns how many were recalculated.
+    // Changed employees are visited in slot order, so the cached figures are read front to back.
+    public synchronized int finalizeRun() {
+        int recalculated = dirtyCount;
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            recalculate(slot);
+        }
+        dirty.clear();
+        dirtyCount = 0;
+        return recalculated;
+    }
+
+    // Recalculates every employee, as a run did before change tracking; for comparison and repair.
+    // The department totals are rebuilt from zero, so nothing the patching got wrong survives.
+    public synchronized int recalculateAll() {
+        Arrays.fill(departmentGrossCents, 0);
+        Arrays.fill(departmentNetCents, 0);
+        Arrays.fill(departmentOf, 0, size, -1);
+        for (int slot = 0; slot < size; slot++) {
+            recalculate(slot);
+        }
+        dirty.clear();
+        dirtyCount = 0;
+        return size;
+    }
+
+    private void recalculate(int slot) {
+        Employee employee = employees[slot];
+        plan.evaluate(employee, payslip);
+        long gross = Math.round(payslip.getGrossPay() * 100);
+        long net = Math.round(payslip.getNetPay() * 100);
+        int oldDepartment = departmentOf[slot];
+        if (oldDepartment >= 0) {
+            departmentGrossCents[oldDepartment] -= grossCents[slot];
+            departmentNetCents[oldDepartment] -= netCents[slot];
+        }
+        int department = departmentIndex(employee.getDepartment());
+        departmentGrossCents[department] += gross;
+        departmentNetCents[department] += net;
+        grossCents[slot] = gross;
+        netCents[slot] = net;
+        departmentOf[slot] = department;
+    }
+
+    private int departmentIndex(String department) {
+        Integer index = departmentIndex.get(department);
+        if (index != null) {
+            return index;
+        }
+        int added = departmentNames.size();
+        departmentIndex.put(department, added);
+        departmentNames.add(department);
+        if (added == departmentGrossCents.length) {
+            departmentGrossCents = Arrays.copyOf(departmentGrossCents, added * 2);
+            departmentNetCents = Arrays.copyOf(departmentNetCents, added * 2);
+        }
+        return added;
+    }
+
+    // Totals as of the last run
+    public synchronized long getDepartmentGrossCents(String department) {
+        Integer index = departmentIndex.get(department);
+        return index == null ? 0 : departmentGrossCents[index];
+    }
+
+    public synchronized long getDepartmentNetCents(String department) {
+        Integer index = departmentIndex.get(department);
+        return index == null ? 0 : departmentNetCents[index];
+    }
+
+    public synchronized long getTotalNetCents() {
+        long total = 0;
+        for (int i = 0; i < departmentNames.size(); i++) {
+            total += departmentNetCents[i];
+        }
+        return total;
+    }
+
+    // One line per department, in name order
+    public synchronized String departmentReport() {
+        StringBuilder out = new StringBuilder();
+        for (String department : new TreeMap<>(departmentIndex).keySet()) {
+            int index = departmentIndex.get(department);
+            out.append(String.format("%-12s gross $%,.2f net $%,.2f%n", department,
+                                     departmentGrossCents[index] / 100.0, departmentNetCents[index] / 100.0));
+        }
+        return out.toString();
+    }
+}
+
+// Directory of employees with lookup by ID, by name prefix, and paged queries by type and salary band.
+// Sized for millions of employees: besides the employees themselves it keeps only primitive arrays
+// and references, 20 to 41 bytes per employee depending on how full its doubling arrays are (see
+// BYTES_PER_EMPLOYEE_BUDGET). IDs are found in an open-addressing table of int keys, so lookups box
+// nothing. Names are indexed as given when added or renamed through the directory; a rename only marks
+// the employee's old index entry stale, and the next name query drops it while merging in new names,
+// so renames cost the same as additions. Reads share a read lock and run in parallel with each other,
+// for example while a payroll run walks the same employees; only adding or renaming takes the write lock.
+class EmployeeDirectory {
+    // Heap the directory itself may use per employee, on a 64-bit JVM with compressed references
+    static final int BYTES_PER_EMPLOYEE_BUDGET = 48;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Employees by position, in the order they were added, with the name each was indexed under
+    private Employee[] employees = new Employee[1024];
+    private String[] names = new String[1024];
+    private int size;
+
+    // Employee ID -> position, linear probing; a position of -1 marks an empty slot
+    private int[] idKeys = new int[2048];
+    private int[] idPositions = newEmptyPositions(2048);
+
+    // Positions sorted by name, plus positions added or renamed since it was last brought up to date
+    private int[] byName = new int[0];
+    private int[] unsortedNames = new int[64];
+    private volatile int unsortedCount;
+    private final BitSet unsorted = new BitSet(); // Positions listed in unsortedNames
+    private final BitSet stale = new BitSet();    // Positions still in byName under the name they had before a rename
+
+    public void add(Employee employee) {
+        lock.writeLock().lock();
+        try {
+            if (find(employee.getEmployeeId()) >= 0) {
+                throw new IllegalArgumentException("Employee " + employee.getEmployeeId() + " is already in the directory.");
+            }
+            if (size == employees.length) {
+                employees = Arrays.copyOf(employees, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            if ((size + 1) * 4L > idKeys.length * 3L) { // Keep the table at most 3/4 full
+                resizeIdTable(idKeys.length * 2);
+            }
+            employees[size] = employee;
+            names[size] = employee.getName();
+            insertId(employee.getEmployeeId(), size);
+            markNameUnsorted(size);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Returns the employee with the given ID, or null if there is none
+    public Employee findById(int employeeId) {
+        lock.readLock().lock();
+        try {
+            int position = find(employeeId);
+            return position < 0 ? null : employees[position];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Renames an employee and moves them in the name index
+    public void rename(int employeeId, String name) {
+        lock.writeLock().lock();
+        try {
+            int position = find(employeeId);
+            if (position < 0) {
+                throw new IllegalArgumentException("No employee " + employeeId + " in the directory.");
+            }
+            employees[position].setName(name);
+            if (unsorted.get(position)) { // Not in the sorted index yet: its key can change in place
+                names[position] = name;
+                return;
+            }
+            // The sorted entry keeps its old name until the next merge drops it, so the index stays in order
+            stale.set(position);
+            markNameUnsorted(position);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns one page of the employees whose name starts with the prefix, ignoring case, in name order.
+     * A page resumes after the name and position the previous page ended on, not at an index slot, so
+     * additions and renames between pages neither skip nor repeat the employees that kept their names.
+     * @param prefix The start of the name.
+     * @param previous null for the first page, then the page before.
+     * @param pageSize The most employees to return.
+     */
+    public EmployeePage findByNamePrefix(String prefix, EmployeePage previous, int pageSize) {
+        if (pageSize < 1 || (previous != null && (!previous.hasMore() || previous.getLastName() == null))) {
+            throw new IllegalArgumentException("Pages need a size of at least 1 and a previous name page with more to come.");
+        }
+        sortPendingNames();
+        lock.readLock().lock();
+        try {
+            int i = previous == null ? lowerBound(prefix) : indexAfter(previous.getLastName(), previous.getNextCursor());
+            List<Employee> page = new ArrayList<>(Math.min(pageSize, 64));
+            int last = -1;
+            for (; i < byName.length && page.size() < pageSize; i++) {
+                int position = byName[i];
+                if (!names[position].regionMatches(true, 0, prefix, 0, prefix.length())) {
+                    return new EmployeePage(page, -1);
+                }
+                if (!stale.get(position)) { // Renamed after this query merged the index
+                    page.add(employees[position]);
+                    last = position;
+                }
+            }
+            boolean more = i < byName.length && names[byName[i]].regionMatches(true, 0, prefix, 0, prefix.length());
+            return more ? new EmployeePage(page, last, names[last]) : new EmployeePage(page, -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns one page of the employees of a type whose salary lies in a band, in the order they were added.
+     * Each page scans on from where the last one stopped, so paging through costs one pass in total.
+     * @param type The kind of employee, for example FullTimeEmployee.class, or Employee.class for all.
+     * @param minSalary The lowest salary in the band.
+     * @param maxSalary The highest salary in the band.
+     * @param cursor 0 for the first page, then the previous page's next cursor.
+     * @param pageSize The most employees to return.
+     */
+    public EmployeePage findBySalaryBand(Class<? extends Employee> type, double minSalary, double maxSalary,
+                                         int cursor, int pageSize) {
+        checkPage(cursor, pageSize);
+        lock.readLock().lock();
+        try {
+            List<Employee> page = new ArrayList<>(Math.min(pageSize, 64));
+            int position = cursor;
+            for (; position < size && page.size() < pageSize; position++) {
+                Employee employee = employees[position];
+                if (type.isInstance(employee)) {
+                    double salary = employee.calculateSalary();
+                    if (salary >= minSalary && salary <= maxSalary) {
+                        page.add(employee);
+                    }
+                }
+            }
+            return new EmployeePage(page, position < size ? position : -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void checkPage(int cursor, int pageSize) {
+        if (cursor < 0 || pageSize < 1) {
+            throw new IllegalArgumentException("Pages need a cursor of 0 or more and a size of at least 1.");
+        }
+    }
+
+    private int find(int employeeId) {
+        int mask = idKeys.length - 1;
+        for (int slot = mix(employeeId) & mask; ; slot = (slot + 1) & mask) {
+            int position = idPositions[slot];
+            if (position < 0) {
+                return -1;
+            }
+            if (idKeys[slot] == employeeId) {
+                return position;
+            }
+        }
+    }
+
+    private void insertId(int employeeId, int position) {
+        int mask = idKeys.length - 1;
+        int slot = mix(employeeId) & mask;
+        while (idPositions[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        idKeys[slot] = employeeId;
+        idPositions[slot] = position;
+    }
+
+    private void resizeIdTable(int capacity) {
+        int[] oldKeys = idKeys;
+        int[] oldPositions = idPositions;
+        idKeys = new int[capacity];
+        idPositions = newEmptyPositions(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldPositions[slot] >= 0) {
+                insertId(oldKeys[slot], oldPositions[slot]);
+            }
+        }
+    }
+
+    private static int[] newEmptyPositions(int capacity) {
+        int[] positions = new int[capacity];
+        Arrays.fill(positions, -1);
+        return positions;
+    }
+
+    // Spreads sequential IDs over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void markNameUnsorted(int position) {
+        unsorted.set(position);
+        if (unsortedCount == unsortedNames.length) {
+            unsortedNames = Arrays.copyOf(unsortedNames, unsortedCount * 2);
+        }
+        unsortedNames[unsortedCount] = position;
+        unsortedCount++;
+    }
+
+    // Sorts names added or renamed since the last prefix query and merges them into the index, dropping stale entries
+    private void sortPendingNames() {
+        if (unsortedCount == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int count = unsortedCount;
+            if (count == 0) {
+                return;
+            }
+            int[] added = Arrays.copyOf(unsortedNames, count);
+            for (int position : added) {
+                if (stale.get(position)) {
+                    names[position] = employees[position].getName(); // The name given to rename
+                }
+            }
+            sortByName(added, new int[count], 0, count);
+            int[] merged = new int[byName.length - stale.cardinality() + count];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < merged.length; k++) {
+                while (i < byName.length && stale.get(byName[i])) {
+                    i++;
+                }
+                merged[k] = j == count || (i < byName.length && compareNames(byName[i], added[j]) <= 0)
+                            ? byName[i++] : added[j++];
+            }
+            byName = merged;
+            unsortedNames = new int[64];
+            unsortedCount = 0;
+            unsorted.clear();
+            stale.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Merge sort of positions by name; sorting the ints directly avoids boxing millions of Integers
+    private void sortByName(int[] positions, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByName(positions, scratch, from, middle);
+        sortByName(positions, scratch, middle, to);
+        if (compareNames(positions[middle - 1], positions[middle]) <= 0) {
+            return; // Already in order
+        }
+        System.arraycopy(positions, from, scratch, from, to - from);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            positions[k] = j == to || (i < middle && compareNames(scratch[i], scratch[j]) <= 0) ? scratch[i++] : scratch[j++];
+        }
+    }
+
+    // Name order, then position, so every entry has its own place for a page to resume after
+    private int compareNames(int a, int b) {
+        int order = String.CASE_INSENSITIVE_ORDER.compare(names[a], names[b]);
+        return order != 0 ? order : Integer.compare(a, b);
+    }
+
+    // First position in the name index whose name is not before the prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = byName.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(names[byName[middle]], prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // First position in the name index after the given name and position
+    private int indexAfter(String name, int position) {
+        int low = 0;
+        int high = byName.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int order = String.CASE_INSENSITIVE_ORDER.compare(names[byName[middle]], name);
+            if (order < 0 || (order == 0 && byName[middle] <= position)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
+
+// One page of a directory query
+class EmployeePage {
+    private final List<Employee> employees;
+    private final int nextCursor;
+    private final String lastName; // Name the last employee was listed under, for name queries
+
+    EmployeePage(List<Employee> employees, int nextCursor) {
+        this(employees, nextCursor, null);
+    }
+
+    EmployeePage(List<Employee> employees, int nextCursor, String lastName) {
+        this.employees = Collections.unmodifiableList(employees);
+        this.nextCursor = nextCursor;
+        this.lastName = lastName;
+    }
+
+    public List<Employee> getEmployees() {
+        return employees;
+    }
+
+    // Pass this to the same query for the next page; -1 when there are no more.
+    // For a name query it is the position of the last employee listed, and the page itself is passed on.
+    public int getNextCursor() {
+        return nextCursor;
+    }
+
+    String getLastName() {
+        return lastName;
+    }
+
+    public boolean hasMore() {
+        return nextCursor >= 0;
+    }
+}
+
+// Output formats for payslip export
+enum PayslipFormat {
+    CSV("csv"),      // One text line per employee, with a header line per file
+    BINARY("bin");   // Fixed 44-byte records of employee ID and amounts in cents, after an 8-byte file header
+
+    private final String extension;
+
+    PayslipFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
+
+// Streams payslips for a whole workforce to disk, then writes a general-ledger summary.
+// Employees are formatted in blocks by a pool of workers, each block into a pooled byte array,
+// while this thread writes the finished blocks in order through a FileChannel. A bounded number of
+// blocks is in flight, so memory stays fixed and the writer is kept busy: the run goes as fast as
+// the disk takes the data. Output is split into chunk files; each is forced to disk before a line
+// recording it is added to manifest.txt, so after a crash the next run keeps every chunk in the
+// manifest and starts again from the first one missing.
+class PayrollExport {
+    private static final int BINARY_MAGIC = 0x50415953; // "PAYS"
+    private static final int BINARY_RECORD_BYTES = 44;
+    private static final byte[] CSV_HEADER =
+        "employee_id,name,department,gross,pretax_deductions,tax,post_tax_deductions,net\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String MANIFEST = "manifest.txt";
+    private static final String LEDGER = "general-ledger.csv";
+
+    // Indexes into the amount totals kept per block and per chunk, all in cents
+    static final int GROSS = 0;
+    static final int PRETAX = 1;
+    static final int TAX = 2;
+    static final int POST_TAX = 3;
+    static final int NET = 4;
+
+    private final Path directory;
+    private final PayslipFormat format;
+    private final PayrollPlan plan;
+    private final int blockSize;
+    private final int blocksPerChunk;
+    private final int workers;
+    private final Queue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+
+    public PayrollExport(Path directory, PayslipFormat format, PayrollPlan plan, int blockSize, int blocksPerChunk, int workers) {
+        if (blockSize < 1 || blocksPerChunk < 1 || workers < 1) {
+            throw new IllegalArgumentException("Block size, blocks per chunk and workers must be at least 1.");
+        }
+        this.directory = directory;
+        this.format = format;
+        this.plan = plan;
+        this.blockSize = blockSize;
+        this.blocksPerChunk = blocksPerChunk;
+        this.workers = workers;
+    }
+
+    /**
+     * Exports payslips for the employees, resuming an earlier run in the same directory if there is one.
+     * @param employees Everyone being paid, in the same order on every run.
+     * @param maxChunks The most chunks to write in this call, to split a run up; Integer.MAX_VALUE for all.
+     * @return What was written; the ledger is written once the last chunk is.
+     */
+    public PayrollExportReport export(Employee[] employees, int maxChunks) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        int chunkEmployees = blockSize * blocksPerChunk;
+        int chunkCount = (employees.length + chunkEmployees - 1) / chunkEmployees;
+        int blockCount = (employees.length + blockSize - 1) / blockSize;
+        String header = "# payroll export format=" + format + " employees=" + employees.length
+                        + " block=" + blockSize + " chunk=" + chunkEmployees;
+        long[] totals = new long[5];
+        int chunksDone = loadManifest(header, totals);
+        int endChunk = (int) Math.min(chunkCount, (long) chunksDone + maxChunks);
+        int endBlock = Math.min(blockCount, endChunk * blocksPerChunk);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Deque<Future<FormattedBlock>> ahead = new ArrayDeque<>();
+        long bytesWritten = 0;
+        int nextBlock = chunksDone * blocksPerChunk;
+        try (FileChannel manifest = FileChannel.open(directory.resolve(MANIFEST), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            FileChannel out = null;
+            CRC32 crc = new CRC32();
+            long[] chunkTotals = new long[5];
+            long chunkBytes = 0;
+            for (int block = chunksDone * blocksPerChunk; block < endBlock; block++) {
+                while (nextBlock < endBlock && ahead.size() < workers * 2) { // Keep the workers ahead of the writer
+                    int toFormat = nextBlock++;
+                    ahead.add(pool.submit(() -> format(employees, toFormat)));
+                }
+                FormattedBlock formatted = await(ahead.poll());
+
+                int chunk = block / blocksPerChunk;
+                if (out == null) {
+                    out = FileChannel.open(chunkPath(chunk), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING);
+                    ByteBuffer fileHeader = fileHeader(Math.min(chunkEmployees, employees.length - chunk * chunkEmployees));
+                    crc.reset();
+                    crc.update(fileHeader.duplicate());
+                    chunkBytes = writeFully(out, fileHeader);
+                    Arrays.fill(chunkTotals, 0);
+                }
+                crc.update(formatted.bytes, 0, formatted.length);
+                chunkBytes += writeFully(out, ByteBuffer.wrap(formatted.bytes, 0, formatted.length));
+                for (int i = 0; i < chunkTotals.length; i++) {
+                    chunkTotals[i] += formatted.totals[i];
+                }
+                bufferPool.add(formatted.bytes);
+
+                if (block + 1 == endBlock || (block + 1) % blocksPerChunk == 0) {
+                    out.force(true); // The chunk is on disk before the manifest says so
+                    out.close();
+                    out = null;
+                    String line = String.format("%d %s %d %d %d %d %d %d %d%n", chunk, chunkPath(chunk).getFileName(),
+                                                chunkBytes, crc.getValue(), chunkTotals[GROSS], chunkTotals[PRETAX],
+                                                chunkTotals[TAX], chunkTotals[POST_TAX], chunkTotals[NET]);
+                    writeFully(manifest, ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII)));
+                    manifest.force(true);
+                    for (int i = 0; i < totals.length; i++) {
+                        totals[i] += chunkTotals[i];
+                    }
+                    bytesWritten += chunkBytes;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        boolean complete = endChunk == chunkCount;
+        if (complete) {
+            writeLedger(totals);
+        }
+        return new PayrollExportReport(chunksDone, endChunk - chunksDone, chunkCount, bytesWritten, totals, complete,
+                                       System.nanoTime() - start);
+    }
+
+    // Formats one block of employees into a pooled array; runs on a worker thread
+    private FormattedBlock format(Employee[] employees, int block) {
+        int from = block * blockSize;
+        int to = Math.min(employees.length, from + blockSize);
+        byte[] out = bufferPool.poll();
+        if (out == null) {
+            out = new byte[blockSize * (format == PayslipFormat.BINARY ? BINARY_RECORD_BYTES : 96)];
+        }
+        ByteBuffer binary = format == PayslipFormat.BINARY ? ByteBuffer.wrap(out) : null;
+        int position = 0;
+        Payslip payslip = new Payslip();
+        long[] totals = new long[5];
+        for (int i = from; i < to; i++) {
+            Employee employee = employees[i];
+            plan.evaluate(employee, payslip);
+            long gross = Math.round(payslip.getGrossPay() * 100);
+            long pretax = Math.round(payslip.getPretaxDeductions() * 100);
+            long tax = Math.round(payslip.getTax() * 100);
+            long postTax = Math.round(payslip.getPostTaxDeductions() * 100);
+            long net = gross - pretax - tax - postTax; // So every payslip, and the ledger, balances to the cent
+            totals[GROSS] += gross;
+            totals[PRETAX] += pretax;
+            totals[TAX] += tax;
+            totals[POST_TAX] += postTax;
+            totals[NET] += net;
+            if (binary != null) {
+                binary.putInt(employee.getEmployeeId()).putLong(gross).putLong(pretax).putLong(tax).putLong(postTax).putLong(net);
+                continue;
+            }
+            String name = employee.getName();
+            String department = employee.getDepartment();
+            int longest = 6 * (name.length() + department.length()) + 120; // Quoted UTF-8 text and six numbers
+            if (out.length - position < longest) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, position + longest));
+            }
+            position = appendLong(out, position, employee.getEmployeeId());
+            out[position++] = ',';
+            position = appendText(out, position, name);
+            out[position++] = ',';
+            position = appendText(out, position, department);
+            position = appendAmount(out, position, gross);
+            position = appendAmount(out, position, pretax);
+            position = appendAmount(out, position, tax);
+            position = appendAmount(out, position, postTax);
+            position = appendAmount(out, position, net);
+            out[position++] = '\n';
+        }
+        return new FormattedBlock(out, binary != null ? binary.position() : position, totals);
+    }
+
+    // The helpers below write into an array at a position and return the position after what they wrote
+
+    private static int appendLong(byte[] out, int position, long value) {
+        if (value < 0) {
+            out[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    // A comma, then cents as a decimal amount, for example 123456 as 1234.56
+    private static int appendAmount(byte[] out, int position, long cents) {
+        out[position++] = ',';
+        if (cents < 0) {
+            out[position++] = '-';
+            cents = -cents;
+        }
+        position = appendLong(out, position, cents / 100);
+        out[position++] = '.';
+        out[position++] = (byte) ('0' + cents / 10 % 10);
+        out[position++] = (byte) ('0' + cents % 10);
+        return position;
+    }
+
+    // Writes text as UTF-8, quoted if it holds a comma, quote or line break
+    private static int appendText(byte[] out, int position, String text) {
+        boolean quote = false;
+        boolean ascii = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            quote |= c == ',' || c == '"' || c == '\n' || c == '\r';
+            ascii &= c < 0x80;
+        }
+        if (!quote && ascii) {
+            for (int i = 0; i < text.length(); i++) {
+                out[position++] = (byte) text.charAt(i);
+            }
+            return position;
+        }
+        byte[] encoded = (quote ? "\"" + text.replace("\"", "\"\"") + "\"" : text).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(encoded, 0, out, position, encoded.length);
+        return position + encoded.length;
+    }
+
+    private ByteBuffer fileHeader(int records) {
+        if (format == PayslipFormat.BINARY) {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(BINARY_MAGIC).putInt(records);
+            header.flip();
+            return header;
+        }
+        return ByteBuffer.wrap(CSV_HEADER);
+    }
+
+    private Path chunkPath(int chunk) {
+        return directory.resolve(String.format("payslips-%05d.%s", chunk, format.getExtension()));
+    }
+
+    // Reads the chunks recorded by earlier runs into the totals and returns how many there are.
+    // Stops at the first line that is torn or whose file is missing or the wrong size, then rewrites
+    // the manifest with only the lines before it, so this run appends after good lines only. The last
+    // chunk kept is also checked against its CRC32: each chunk is forced to disk before the next is
+    // started, so a crash can only have damaged the last one, and rereading all of them would cost as
+    // much as the export itself.
+    private int loadManifest(String header, long[] totals) throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST);
+        List<String> kept = new ArrayList<>();
+        kept.add(header);
+        List<String[]> recorded = new ArrayList<>();
+        if (Files.exists(manifestPath)) {
+            String content = new String(Files.readAllBytes(manifestPath), StandardCharsets.US_ASCII);
+            String[] lines = content.split("\n", -1); // The last element is whatever followed the final newline
+            if (!lines[0].equals(header)) {
+                throw new IllegalArgumentException("The export in " + directory + " was started with different settings.");
+            }
+            for (int i = 1; i < lines.length - 1; i++) {
+                String[] fields = lines[i].trim().split(" ");
+                if (fields.length != 9 || Integer.parseInt(fields[0]) != kept.size() - 1) {
+                    break;
+                }
+                Path chunkFile = directory.resolve(fields[1]);
+                if (!Files.exists(chunkFile) || Files.size(chunkFile) != Long.parseLong(fields[2])) {
+                    break;
+                }
+                recorded.add(fields);
+                kept.add(lines[i].trim());
+            }
+        }
+        if (!recorded.isEmpty()) {
+            String[] last = recorded.get(recorded.size() - 1);
+            if (crcOf(directory.resolve(last[1])) != Long.parseLong(last[3])) { // Right size, damaged contents
+                recorded.remove(recorded.size() - 1);
+                kept.remove(kept.size() - 1);
+            }
+        }
+        for (String[] fields : recorded) {
+            for (int j = 0; j < totals.length; j++) {
+                totals[j] += Long.parseLong(fields[4 + j]);
+            }
+        }
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        Files.write(temp, (String.join("\n", kept) + "\n").getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return kept.size() - 1;
+    }
+
+    private static long crcOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Debits the gross pay and credits what it is owed to, so the two columns balance
+    private void writeLedger(long[] totals) throws IOException {
+        StringBuilder out = new StringBuilder("account,debit,credit\n");
+        out.append(String.format("Salary expense,%.2f,%n", totals[GROSS] / 100.0));
+        out.append(String.format("Pre-tax deductions payable,,%.2f%n", totals[PRETAX] / 100.0));
+        out.append(String.format("Income tax payable,,%.2f%n", totals[TAX] / 100.0));
+        out.append(String.format("Post-tax deductions payable,,%.2f%n", totals[POST_TAX] / 100.0));
+        out.append(String.format("Net pay payable,,%.2f%n", totals[NET] / 100.0));
+        Files.write(directory.resolve(LEDGER), out.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    private static FormattedBlock await(Future<FormattedBlock> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Formatting payslips failed.", e.getCause());
+        }
+    }
+
+    // One block of formatted payslips and what they add up to
+    private static final class FormattedBlock {
+        final byte[] bytes;
+        final int length;
+        final long[] totals;
+
+        FormattedBlock(byte[] bytes, int length, long[] totals) {
+            this.bytes = bytes;
+            this.length = length;
+            this.totals = totals;
+        }
+    }
+}
+
+// What one export call did
+class PayrollExportReport {
+    private final int chunksSkipped;
+    private final int chunksWritten;
+    private final int chunkCount;
+    private final long bytesWritten;
+    private final long[] totals;
+    private final boolean complete;
+    private final long elapsedNanos;
+
+    PayrollExportReport(int chunksSkipped, int chunksWritten, int chunkCount, long bytesWritten, long[] totals,
+                        boolean complete, long elapsedNanos) {
+        this.chunksSkipped = chunksSkipped;
+        this.chunksWritten = chunksWritten;
+        this.chunkCount = chunkCount;
+        this.bytesWritten = bytesWritten;
+        this.totals = totals.clone();
+        this.complete = complete;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // Total net pay of all chunks written so far, in cents
+    public long getNetCents() {
+        return totals[PayrollExport.NET];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunks %d skipped + %d written of %d, %,.1f MB in %.2f s (%.0f MB/s)%s",
+                             chunksSkipped, chunksWritten, chunkCount, bytesWritten / 1e6, elapsedNanos / 1e9,
+                             bytesWritten / 1e6 / (elapsedNanos / 1e9), complete ? ", ledger written" : "");
+    }
+}
+
+// Collects clock-in and clock-out punches for part-time employees and turns them into hours per pay period.
+// Punches arrive from any number of threads without locking: each employee has a slot holding the
+// time of an open clock-in, and the current period keeps milliseconds worked per slot in an
+// AtomicLongArray. A shift counts towards the period in which it is clocked out. Closing a period
+// swaps in a fresh one, waits for punches already adding to the old one, and publishes its totals
+// through setHoursWorked, which in turn tells any payroll tracking those employees what changed.
+class TimesheetIngestor {
+    private static final long MAX_SHIFT_MILLIS = 24 * 3_600_000L; // Longer shifts are taken as missed punches
+
+    private final int capacity;
+    private final int[] idKeys;
+    private final AtomicIntegerArray idSlots; // Employee ID -> slot, -1 if empty; set after the key, so readers see both
+    private final PartTimeEmployee[] employees;
+    private final AtomicLongArray clockedInAt; // Per slot: time of the open clock-in, or 0
+    private final LongAdder rejectedPunches = new LongAdder();
+    private volatile Period current;
+    private int size;
+
+    public TimesheetIngestor(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1; // At most half full
+        this.capacity = capacity;
+        this.idKeys = new int[tableSize];
+        this.idSlots = new AtomicIntegerArray(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            idSlots.set(i, -1);
+        }
+        this.employees = new PartTimeEmployee[capacity];
+        this.clockedInAt = new AtomicLongArray(capacity);
+        this.current = new Period(capacity);
+    }
+
+    // Adds an employee whose punches will be accepted; may be called while punches arrive
+    public synchronized void register(PartTimeEmployee employee) {
+        if (size == capacity) {
+            throw new IllegalArgumentException("Timesheets are full at " + capacity + " employees.");
+        }
+        if (slotOf(employee.getEmployeeId()) >= 0) {
+            throw new IllegalArgumentException("Employee " + employee.getEmployeeId() + " is already registered.");
+        }
+        int mask = idKeys.length - 1;
+        int index = mix(employee.getEmployeeId()) & mask;
+        while (idSlots.get(index) >= 0) {
+            index = (index + 1) & mask;
+        }
+        employees[size] = employee;
+        idKeys[index] = employee.getEmployeeId();
+        idSlots.set(index, size); // Publishes the key and the employee
+        size++;
+    }
+
+    /**
+     * Records a clock-in. Refused (and counted as rejected) if the employee is unknown or already clocked in.
+     * @return True if the punch was accepted.
+     */
+    public boolean clockIn(int employeeId, long epochMillis) {
+        int slot = slotOf(employeeId);
+        if (slot < 0 || epochMillis <= 0 || !clockedInAt.compareAndSet(slot, 0, epochMillis)) {
+            rejectedPunches.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a clock-out and adds the shift to the current period. Refused if the employee is not
+     * clocked in, or the shift is negative or longer than a day; the open clock-in is cleared either way.
+     * @return True if the punch was accepted.
+     */
+    public boolean clockOut(int employeeId, long epochMillis) {
+        int slot = slotOf(employeeId);
+        long since = slot < 0 ? 0 : clockedInAt.getAndSet(slot, 0);
+        long shift = epochMillis - since;
+        if (since == 0 || shift < 0 || shift > MAX_SHIFT_MILLIS) {
+            rejectedPunches.increment();
+            return false;
+        }
+        while (true) {
+            Period period = current;
+            period.active.incrementAndGet();
+            try {
+                if (period == current) { // Not closed since we looked; the closer waits for us
+                    period.millisWorked.addAndGet(slot, shift);
+                    period.shifts.increment();
+                    return true;
+                }
+            } finally {
+                period.active.decrementAndGet();
+            }
+        }
+    }
+
+    public long getRejectedPunches() {
+        return rejectedPunches.sum();
+    }
+
+    /**
+     * Ends the current pay period and starts the next. Every registered employee's hours are set to
+     * their total for the period, rounded to the nearest hour; employees still clocked in carry their
+     * open shift into the next period.
+     * @return The number of shifts and the total hours published.
+     */
+    public synchronized TimesheetSummary closePeriod() {
+        Period closed = current;
+        current = new Period(capacity);
+        while (closed.active.get() != 0) { // Clock-outs that found the old period just before the swap
+            Thread.onSpinWait();
+        }
+        long totalMillis = 0;
+        int changed = 0;
+        for (int slot = 0; slot < size; slot++) {
+            long millis = closed.millisWorked.get(slot);
+            totalMillis += millis;
+            int hours = (int) ((millis + 1_800_000) / 3_600_000);
+            if (employees[slot].getHoursWorked() != hours) {
+                employees[slot].setHoursWorked(hours);
+                changed++;
+            }
+        }
+        return new TimesheetSummary(closed.shifts.sum(), totalMillis, changed);
+    }
+
+    private int slotOf(int employeeId) {
+        int mask = idKeys.length - 1;
+        for (int index = mix(employeeId) & mask; ; index = (index + 1) & mask) {
+            int slot = idSlots.get(index);
+            if (slot < 0) {
+                return -1;
+            }
+            if (idKeys[index] == employeeId) {
+                return slot;
+            }
+        }
+    }
+
+    // Spreads sequential IDs over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Hours worked per slot in one pay period, and the clock-outs still adding to it
+    private static final class Period {
+        final AtomicLongArray millisWorked;
+        final LongAdder shifts = new LongAdder();
+        final AtomicInteger active = new AtomicInteger();
+
+        Period(int capacity) {
+            millisWorked = new AtomicLongArray(capacity);
+        }
+    }
+}
+
+// What closing one pay period published
+class TimesheetSummary {
+    private final long shifts;
+    private final long millisWorked;
+    private final int employeesChanged;
+
+    TimesheetSummary(long shifts, long millisWorked, int employeesChanged) {
+        this.shifts = shifts;
+        this.millisWorked = millisWorked;
+        this.employeesChanged = employeesChanged;
+    }
+
+    public long getShifts() {
+        return shifts;
+    }
+
+    public long getMillisWorked() {
+        return millisWorked;
+    }
+
+    public double getHours() {
+        return millisWorked / 3_600_000.0;
+    }
+
+    public int getEmployeesChanged() {
+        return employeesChanged;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d shifts, %,.1f hours, %,d employees' hours changed", shifts, getHours(), employeesChanged);
+    }
 }
 
 // Main class to demonstrate the payroll system
 public class EmployeePayRoll {
-    public static void main(String[] args) {
+    private static final LatencyHistogram PAYROLL_RUN = Metrics.histogram("payroll.run");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        // The payroll rules are read once, at startup
+        PayrollPlan plan = loadRules().compile();
+
+        // Net-pay benchmark mode: "java EmployeePayRoll netpay [employees]"
+        if (args.length >= 1 && args[0].equals("netpay")) {
+            runNetPayBenchmark(plan, args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        // Export benchmark mode: "java EmployeePayRoll export [employees] [csv|binary] [directory]"
+        if (args.length >= 1 && args[0].equals("export")) {
+            runExportBenchmark(plan, args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000,
+                               args.length > 2 ? PayslipFormat.valueOf(args[2].toUpperCase()) : PayslipFormat.CSV,
+                               args.length > 3 ? Paths.get(args[3]) : Files.createTempDirectory("payroll-export"));
+            return;
+        }
+        // Timesheet ingestion benchmark mode: "java EmployeePayRoll timesheets [employees] [threads] [seconds]"
+        if (args.length >= 1 && args[0].equals("timesheets")) {
+            runTimesheetBenchmark(plan, args.length > 1 ? Integer.parseInt(args[1]) : 200_000,
+                                  args.length > 2 ? Integer.parseInt(args[2]) : 4,
+                                  args.length > 3 ? Integer.parseInt(args[3]) : 5);
+            return;
+        }
+        // Directory benchmark mode: "java EmployeePayRoll directory [employees]"
+        if (args.length >= 1 && args[0].equals("directory")) {
+            runDirectoryBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+            return;
+        }
+        // Incremental payroll benchmark mode: "java EmployeePayRoll incremental [employees] [changes]"
+        if (args.length >= 1 && args[0].equals("incremental")) {
+            runIncrementalBenchmark(plan, args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000,
+                                    args.length > 2 ? Integer.parseInt(args[2]) : 50_000);
+            return;
+        }
+
         // Create an array of Employee references (demonstrates polymorphism)
         Employee[] employees = new Employee[3];
         employees[0] = new FullTimeEmployee("Oladipupo", 101, 5000.0);
@@ -116,10 +1577,361 @@ public class EmployeePayRoll {
         employees[2] = new FullTimeEmployee("Charlie", 103, 7000.0);
 
         // Calculate and display salaries for all employees
+        long start = Metrics.startTimer();
         for (Employee emp : employees) {
             System.out.println("Employee: " + emp.getName() +
                                " (ID: " + emp.getEmployeeId() + ")" +
                                " - Salary: $" + emp.calculateSalary());
         }
+        PAYROLL_RUN.recordSince(start);
+
+        // Net pay after tax and deductions
+        System.out.println();
+        Payslip payslip = new Payslip();
+        for (Employee emp : employees) {
+            plan.evaluate(emp, payslip);
+            System.out.println("Employee: " + emp.getName() + " - " + payslip);
+        }
+
+        // Look employees up in a directory
+        EmployeeDirectory directory = new EmployeeDirectory();
+        for (Employee emp : employees) {
+            directory.add(emp);
+        }
+        System.out.println();
+        System.out.println("Employee 102: " + directory.findById(102).getName());
+        for (Employee emp : directory.findBySalaryBand(FullTimeEmployee.class, 4000, 8000, 0, 10).getEmployees()) {
+            System.out.println("Full-time, $4000-$8000: " + emp.getName());
+        }
+
+        // Show the payroll metrics
+        System.out.println();
+        System.out.print(Metrics.report());
+    }
+
+    // Loads payroll-rules.properties, or the file named by -Dpayroll.rules; without one, pay is untaxed
+    private static PayrollRules loadRules() throws IOException {
+        Path path = Paths.get(System.getProperty("payroll.rules", "payroll-rules.properties"));
+        if (!Files.exists(path)) {
+            System.out.println("No payroll rules at " + path + "; net pay will equal gross pay.");
+            return PayrollRules.none();
+        }
+        return PayrollRules.load(path);
+    }
+
+    /**
+     * Streams punches from several threads while pay periods are closed underneath them, then checks
+     * that every accepted shift was counted in exactly one period and lets the payroll recalculate
+     * the employees whose hours changed.
+     */
+    private static void runTimesheetBenchmark(PayrollPlan plan, int employeeCount, int threads, int seconds)
+            throws InterruptedException {
+        TimesheetIngestor timesheets = new TimesheetIngestor(employeeCount);
+        IncrementalPayroll payroll = new IncrementalPayroll(plan);
+        for (int i = 0; i < employeeCount; i++) {
+            PartTimeEmployee employee = new PartTimeEmployee("Employee " + i, i, 0, 12 + i % 30);
+            timesheets.register(employee);
+            payroll.add(employee);
+        }
+        payroll.finalizeRun();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] shiftsByThread = new long[threads];
+        long[] millisByThread = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                // Each thread is the time clock for its own share of employees
+                Random random = new Random(thread);
+                long now = 1_700_000_000_000L;
+                long shifts = 0;
+                long millis = 0;
+                for (int id = thread; running.get(); id += threads) {
+                    if (id >= employeeCount) {
+                        id = thread;
+                        now += 86_400_000L; // Next day
+                    }
+                    long shift = 3_600_000L + random.nextInt(8 * 3_600_000);
+                    if (timesheets.clockIn(id, now) && timesheets.clockOut(id, now + shift)) {
+                        shifts++;
+                        millis += shift;
+                    }
+                }
+                shiftsByThread[thread] = shifts;
+                millisByThread[thread] = millis;
+            });
+            workers[t].start();
+        }
+
+        long start = System.nanoTime();
+        long periodShifts = 0;
+        long periodMillis = 0;
+        int periods = 0;
+        TimesheetSummary summary = null;
+        while (System.nanoTime() - start < seconds * 1_000_000_000L) {
+            Thread.sleep(500);
+            summary = timesheets.closePeriod(); // Closed while punches keep arriving
+            periodShifts += summary.getShifts();
+            periodMillis += summary.getMillisWorked();
+            periods++;
+        }
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        summary = timesheets.closePeriod();
+        periodShifts += summary.getShifts();
+        periodMillis += summary.getMillisWorked();
+
+        long shifts = 0;
+        long millis = 0;
+        for (int t = 0; t < threads; t++) {
+            shifts += shiftsByThread[t];
+            millis += millisByThread[t];
+        }
+        System.out.printf("%,d punches on %d threads in %.1f s (%,.0f punches/s), %d periods closed meanwhile, %,d rejected%n",
+                          shifts * 2, threads, elapsed, shifts * 2 / elapsed, periods, timesheets.getRejectedPunches());
+        if (periodShifts != shifts || periodMillis != millis) {
+            throw new IllegalStateException("Periods counted " + periodShifts + " shifts, threads recorded " + shifts + ".");
+        }
+        System.out.println("Every shift was counted in exactly one period. Last period: " + summary);
+        start = System.nanoTime();
+        int recalculated = payroll.finalizeRun();
+        System.out.printf("Payroll recalculated %,d employees in %.1f ms; net pay $%,.2f%n",
+                          recalculated, (System.nanoTime() - start) / 1e6, payroll.getTotalNetCents() / 100.0);
+    }
+
+    /**
+     * Exports payslips in two calls, as if the first run had crashed halfway, then compares the
+     * export's throughput with writing the same number of bytes straight to the same disk.
+     */
+    private static void runExportBenchmark(PayrollPlan plan, int employeeCount, PayslipFormat format, Path directory)
+            throws IOException, InterruptedException {
+        String[] departments = {"Engineering", "Finance", "Operations", "Sales", "Support"};
+        Employee[] employees = new Employee[employeeCount];
+        for (int i = 0; i < employeeCount; i++) {
+            employees[i] = i % 3 == 0
+                ? new PartTimeEmployee("Employee " + i, i, 20 + i % 80, 12 + i % 30)
+                : new FullTimeEmployee("Employee " + i, i, 800 + (i * 37L) % 20_000);
+            employees[i].setDepartment(departments[i % departments.length]);
+        }
+        PayrollExport export = new PayrollExport(directory, format, plan, 8192, 32, Runtime.getRuntime().availableProcessors());
+        int chunkCount = (employeeCount + 8192 * 32 - 1) / (8192 * 32);
+        PayrollExportReport first = export.export(employees, chunkCount / 2);
+        System.out.println("First run (stopped halfway): " + first);
+        PayrollExportReport resumed = export.export(employees, Integer.MAX_VALUE);
+        System.out.println("Resumed run:                 " + resumed);
+
+        long bytes = first.getBytesWritten() + resumed.getBytesWritten();
+        double exportSeconds = (first.getElapsedNanos() + resumed.getElapsedNanos()) / 1e9;
+        Path raw = directory.resolve("bandwidth.tmp");
+        ByteBuffer block = ByteBuffer.allocateDirect(8192 * 96);
+        long start = System.nanoTime();
+        try (FileChannel out = FileChannel.open(raw, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (long written = 0; written < bytes; ) {
+                block.clear();
+                block.limit((int) Math.min(block.capacity(), bytes - written));
+                written += out.write(block);
+            }
+            out.force(true);
+        } finally {
+            Files.deleteIfExists(raw);
+        }
+        double rawSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%,d payslips (%s): export %.0f MB/s, raw disk writes %.0f MB/s, net pay $%,.2f%n",
+                          employeeCount, format, bytes / 1e6 / exportSeconds, bytes / 1e6 / rawSeconds,
+                          resumed.getNetCents() / 100.0);
+        System.out.println("Output in " + directory);
+    }
+
+    /**
+     * Fills a directory, checks its memory against the budget, then times ID lookups and paged queries,
+     * first alone and then while reader threads query it as a payroll run would and new hires are added.
+     */
+    private static void runDirectoryBenchmark(int employeeCount) {
+        String[] surnames = {"Adeyemi", "Bello", "Chukwu", "Danjuma", "Eze", "Fashola", "Garba", "Hassan", "Ibrahim", "Jimoh"};
+        Employee[] employees = new Employee[employeeCount];
+        for (int i = 0; i < employeeCount; i++) {
+            String name = surnames[i % surnames.length] + " " + i;
+            employees[i] = i % 3 == 0
+                ? new PartTimeEmployee(name, 1_000_000 + i, 20 + i % 80, 12 + i % 30)
+                : new FullTimeEmployee(name, 1_000_000 + i, 800 + (i * 37L) % 20_000);
+        }
+        long heapBefore = usedHeap();
+        EmployeeDirectory directory = new EmployeeDirectory();
+        long start = System.nanoTime();
+        for (Employee employee : employees) {
+            directory.add(employee);
+        }
+        directory.findByNamePrefix("A", null, 1); // Builds the name index
+        long buildNanos = System.nanoTime() - start;
+        double bytesPerEmployee = (double) (usedHeap() - heapBefore) / employeeCount;
+        System.out.printf("Directory of %,d employees built in %.1f s, %.1f bytes per employee (budget %d)%n",
+                          employeeCount, buildNanos / 1e9, bytesPerEmployee, EmployeeDirectory.BYTES_PER_EMPLOYEE_BUDGET);
+        if (bytesPerEmployee > EmployeeDirectory.BYTES_PER_EMPLOYEE_BUDGET) {
+            throw new IllegalStateException("Directory is over its memory budget.");
+        }
+
+        Random random = new Random(7);
+        for (int round = 1; round <= 3; round++) {
+            int lookups = 2_000_000;
+            start = System.nanoTime();
+            long found = 0;
+            for (int i = 0; i < lookups; i++) {
+                found += directory.findById(1_000_000 + random.nextInt(employeeCount)) != null ? 1 : 0;
+            }
+            long lookupNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            EmployeePage page = directory.findByNamePrefix("Garba 12", null, 50);
+            int pages = 1;
+            while (page.hasMore()) {
+                page = directory.findByNamePrefix("Garba 12", page, 50);
+                pages++;
+            }
+            long prefixNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            page = directory.findBySalaryBand(PartTimeEmployee.class, 3000, 3100, 0, 100);
+            long bandNanos = System.nanoTime() - start;
+            System.out.printf("Round %d: %.0f ns per ID lookup (%,d found), %d pages of \"Garba 12...\" in %.2f ms, "
+                              + "first page of part-timers earning $3000-$3100 in %.3f ms%n",
+                              round, (double) lookupNanos / lookups, found, pages, prefixNanos / 1e6, bandNanos / 1e6);
+        }
+
+        // Readers keep querying while a payroll run and new hires proceed
+        PayrollPlan plan = PayrollRules.none().compile();
+        LongAdder reads = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            int seed = r;
+            readers[r] = new Thread(() -> {
+                Random readerRandom = new Random(seed);
+                while (running.get()) {
+                    if (directory.findById(1_000_000 + readerRandom.nextInt(employeeCount)) == null) {
+                        throw new IllegalStateException("Lookup of an existing employee failed.");
+                    }
+                    reads.increment();
+                }
+            });
+            readers[r].start();
+        }
+        start = System.nanoTime();
+        Payslip payslip = new Payslip();
+        double totalNet = 0;
+        for (int i = 0; i < employeeCount; i++) {
+            totalNet += plan.evaluate(employees[i], payslip);
+            if (i % 1000 == 0) {
+                directory.add(new FullTimeEmployee("New hire " + i, 100_000_000 + i, 1500));
+            }
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        System.out.printf("During a %.1f s payroll run (net $%,.0f) with %,d new hires: %,d concurrent ID lookups%n",
+                          (System.nanoTime() - start) / 1e9, totalNet, employeeCount / 1000 + 1, reads.sum());
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    /**
+     * Finalizes payroll for a large workforce after a small number of changes, and compares it with
+     * recalculating everyone. Fails if the patched department totals differ from a full recalculation.
+     */
+    private static void runIncrementalBenchmark(PayrollPlan plan, int employeeCount, int changes) {
+        String[] departments = {"Engineering", "Finance", "Operations", "Sales", "Support"};
+        IncrementalPayroll payroll = new IncrementalPayroll(plan);
+        List<Employee> employees = new ArrayList<>(employeeCount);
+        for (int i = 0; i < employeeCount; i++) {
+            Employee employee = i % 3 == 0
+                ? new PartTimeEmployee("E" + i, i, 20 + i % 80, 12 + i % 30)
+                : new FullTimeEmployee("E" + i, i, 800 + (i * 37L) % 20_000);
+            employee.setDepartment(departments[i % departments.length]);
+            employees.add(employee);
+            payroll.add(employee);
+        }
+        long start = System.nanoTime();
+        payroll.finalizeRun();
+        System.out.printf("First run: %,d employees in %.1f ms%n", employeeCount, (System.nanoTime() - start) / 1e6);
+
+        Random random = new Random(42);
+        for (int round = 1; round <= 3; round++) {
+            for (int i = 0; i < changes; i++) { // Raises, timesheets and transfers since the last run
+                Employee employee = employees.get(random.nextInt(employeeCount));
+                if (i % 10 == 0) {
+                    employee.setDepartment(departments[random.nextInt(departments.length)]);
+                } else if (employee instanceof FullTimeEmployee) {
+                    FullTimeEmployee fullTime = (FullTimeEmployee) employee;
+                    fullTime.setMonthlySalary(fullTime.getMonthlySalary() + 1 + random.nextInt(100));
+                } else {
+                    ((PartTimeEmployee) employee).setHoursWorked(random.nextInt(120));
+                }
+            }
+            start = System.nanoTime();
+            int recalculated = payroll.finalizeRun();
+            long incrementalNanos = System.nanoTime() - start;
+            long[] patchedGross = new long[departments.length];
+            long[] patchedNet = new long[departments.length];
+            for (int d = 0; d < departments.length; d++) {
+                patchedGross[d] = payroll.getDepartmentGrossCents(departments[d]);
+                patchedNet[d] = payroll.getDepartmentNetCents(departments[d]);
+            }
+
+            start = System.nanoTime();
+            payroll.recalculateAll();
+            long fullNanos = System.nanoTime() - start;
+            for (int d = 0; d < departments.length; d++) { // Per department, so pay counted in the wrong one is caught
+                if (payroll.getDepartmentGrossCents(departments[d]) != patchedGross[d]
+                    || payroll.getDepartmentNetCents(departments[d]) != patchedNet[d]) {
+                    throw new IllegalStateException(String.format("Patched %s totals (gross %d, net %d) differ from full recalculation (gross %d, net %d).",
+                                                                  departments[d], patchedGross[d], patchedNet[d],
+                                                                  payroll.getDepartmentGrossCents(departments[d]),
+                                                                  payroll.getDepartmentNetCents(departments[d])));
+                }
+            }
+            System.out.printf("Round %d: %,d changes, %,d employees recalculated in %.2f ms; recalculating all took %.1f ms (%.0fx)%n",
+                              round, changes, recalculated, incrementalNanos / 1e6, fullNanos / 1e6,
+                              (double) fullNanos / incrementalNanos);
+        }
+        System.out.print(payroll.departmentReport());
+    }
+
+    // Times net-pay calculation over a mixed workforce and measures what it allocates
+    private static void runNetPayBenchmark(PayrollPlan plan, int employeeCount) {
+        Employee[] employees = new Employee[employeeCount];
+        for (int i = 0; i < employeeCount; i++) {
+            employees[i] = i % 3 == 0
+                ? new PartTimeEmployee("Employee " + i, i, 20 + i % 80, 12 + i % 30)
+                : new FullTimeEmployee("Employee " + i, i, 800 + (i * 37L) % 20_000);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Payslip payslip = new Payslip();
+        for (int round = 1; round <= 5; round++) { // Later rounds run with compiled code
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            double totalNet = 0;
+            for (Employee employee : employees) {
+                totalNet += plan.evaluate(employee, payslip);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            System.out.printf("Round %d: %,d employees in %.1f ms (%,.0f employees/s), %.2f bytes allocated per employee, net $%,.2f%n",
+                              round, employeeCount, elapsed / 1e6, employeeCount / (elapsed / 1e9),
+                              (double) allocated / employeeCount, totalNet);
+        }
     }
 }
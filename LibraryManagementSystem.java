@@ -1,6 +1,52 @@
+import com.metrics.Counter;
+import com.metrics.LatencyHistogram;
+import com.metrics.Metrics;
+import com.snapshot.SnapshotReader;
+import com.snapshot.SnapshotWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
 
 // Custom exception for when a book is not available for borrowing.
 
@@ -11,14 +57,16 @@ class BookNotAvailableException extends Exception {
 }
 
 /**
- * Represents a single book in the library.
+ * Represents a single physical copy of a book in the library.
  * Encapsulates book data and its availability status.
+ * Equality is identity on purpose: two copies of the same title are different books,
+ * which lets hash-based collections index individual copies.
  */
 class Book {
     // --- Encapsulated Fields ---
     private String title;
     private String author;
-    private boolean isAvailable;
+    private volatile boolean isAvailable; // Written by the borrowing thread, read by any thread.
 
     // --- Constructor ---
     public Book(String title, String author) {
@@ -67,19 +115,21 @@ class Book {
 
 /**
  * Represents a library member.
- * Manages the list of books borrowed by this member.
+ * Manages the set of books borrowed by this member.
  */
 class Member {
     // --- Encapsulated Fields ---
     private String name;
     private String memberId;
-    private List<Book> borrowedBooks; // Association: A Member has a list of borrowed Books.
+    private Set<Book> borrowedBooks; // Association: A Member has a set of borrowed Books, indexed by copy.
 
     // --- Constructor ---
     public Member(String name, String memberId) {
         this.name = name;
         this.memberId = memberId;
-        this.borrowedBooks = new ArrayList<>(); // Initialize the collection.
+        // Insertion-ordered for display; synchronized because a reserved copy can be handed over
+        // by whichever thread returns it.
+        this.borrowedBooks = Collections.synchronizedSet(new LinkedHashSet<>());
     }
 
     // --- Getters ---
@@ -94,7 +144,7 @@ class Member {
     // --- Core Logic ---
 
     /**
-     * Adds a book to the member's list of borrowed books.
+     * Adds a book to the member's set of borrowed books.
      * @param book The book to be borrowed.
      */
     public void borrowBook(Book book) {
@@ -102,11 +152,38 @@ class Member {
     }
 
     /**
-     * Removes a book from the member's list of borrowed books.
+     * Removes a book from the member's set of borrowed books in constant time.
      * @param book The book to be returned.
+     * @return true if the member had borrowed this copy.
      */
-    public void returnBook(Book book) {
-        borrowedBooks.remove(book);
+    public boolean returnBook(Book book) {
+        return borrowedBooks.remove(book);
+    }
+
+    /**
+     * Checks whether this member currently holds the given copy.
+     * @param book The copy to check.
+     * @return true if the copy is borrowed by this member.
+     */
+    public boolean hasBorrowed(Book book) {
+        return borrowedBooks.contains(book);
+    }
+
+    public int getBorrowedCount() {
+        return borrowedBooks.size();
+    }
+
+    /**
+     * Finds the copy of a title this member currently holds.
+     * @param title The title of the borrowed book.
+     * @return An Optional containing the borrowed copy, otherwise an empty Optional.
+     */
+    public Optional<Book> findBorrowedBook(String title) {
+        synchronized (borrowedBooks) {
+            return borrowedBooks.stream()
+                                .filter(book -> book.getTitle().equalsIgnoreCase(title))
+                                .findFirst();
+        }
     }
 
     /**
@@ -117,9 +194,11 @@ class Member {
         if (borrowedBooks.isEmpty()) {
             System.out.println("  None.");
         } else {
-            for (Book book : borrowedBooks) {
-                // We only need the title and author here, not the availability status.
-                System.out.println("  - '" + book.getTitle() + "' by " + book.getAuthor());
+            synchronized (borrowedBooks) {
+                for (Book book : borrowedBooks) {
+                    // We only need the title and author here, not the availability status.
+                    System.out.println("  - '" + book.getTitle() + "' by " + book.getAuthor());
+                }
             }
         }
         System.out.println("--------------------------------------");
@@ -132,127 +211,2158 @@ class Member {
 }
 
 /**
- * Manages the entire library's collection of books and members.
- * Handles the main logic for borrowing and returning books.
+ * All copies of one title held by the library.
+ * Tracks how many copies are on the shelf with an atomic counter and keeps a FIFO queue of
+ * members waiting for the title, so a returned copy goes straight to the next member in line.
  */
-class Library {
+class Holding {
     // --- Encapsulated Fields ---
-    private List<Book> books; // Association: A Library has a list of Books.
-    private List<Member> members;
+    private final String title;
+    private final String author;
+    private final List<Book> copies; // Every copy owned, borrowed or not.
+    private final Queue<Book> shelf; // Copies currently available to borrow.
+    private final AtomicInteger availableCopies; // Always equal to the number of copies on the shelf.
+    private final Queue<Member> reservations; // Members waiting for a copy, oldest first.
+    private volatile long catalogOffset = -1; // Record position in the persistent catalog, or -1 if not persisted.
 
     // --- Constructor ---
-    public Library() {
-        this.books = new ArrayList<>();
-        this.members = new ArrayList<>();
+    public Holding(String title, String author) {
+        this.title = title;
+        this.author = author;
+        this.copies = new ArrayList<>();
+        this.shelf = new ConcurrentLinkedQueue<>();
+        this.availableCopies = new AtomicInteger();
+        this.reservations = new ConcurrentLinkedQueue<>();
     }
 
-    // --- Management Methods ---
-    public void addBook(Book book) {
-        this.books.add(book);
+    // --- Getters ---
+    public String getTitle() {
+        return title;
     }
 
-    public void addMember(Member member) {
-        this.members.add(member);
+    public String getAuthor() {
+        return author;
+    }
+
+    public synchronized int getTotalCopies() {
+        return copies.size();
+    }
+
+    public int getAvailableCopies() {
+        return availableCopies.get();
+    }
+
+    public int getReservationCount() {
+        return reservations.size();
     }
 
     /**
-     * Finds a book in the library's collection by its title.
-     * @param title The title of the book to find.
-     * @return An Optional containing the Book if found, otherwise an empty Optional.
+     * Returns every copy owned, in the order they were added.
+     * @return A copy of the list of copies.
      */
-    private Optional<Book> findBookByTitle(String title) {
-        return books.stream()
-                    .filter(book -> book.getTitle().equalsIgnoreCase(title))
-                    .findFirst();
+    public synchronized List<Book> getCopies() {
+        return new ArrayList<>(copies);
     }
 
     /**
-     * Orchestrates the process of a member borrowing a book.
-     * @param member The member borrowing the book.
-     * @param title The title of the book to borrow.
-     * @throws BookNotAvailableException if the book is already borrowed or does not exist.
+     * Returns the members waiting for this title.
+     * @return The queue, oldest first.
      */
-    public void borrowBook(Member member, String title) throws BookNotAvailableException {
-        // Find the book in the library's master list.
-        Book bookToBorrow = findBookByTitle(title)
-            .orElseThrow(() -> new BookNotAvailableException("Error: Book with title '" + title + "' not found in the library."));
+    public List<Member> getReservations() {
+        return new ArrayList<>(reservations);
+    }
 
-        // Check for availability (Requirement #2: Exception Handling).
-        if (!bookToBorrow.isAvailable()) {
-            throw new BookNotAvailableException("Error: '" + title + "' is currently unavailable.");
+    public long getCatalogOffset() {
+        return catalogOffset;
+    }
+
+    public void setCatalogOffset(long catalogOffset) {
+        this.catalogOffset = catalogOffset;
+    }
+
+    // --- Core Logic ---
+
+    /**
+     * Adds a new copy of this title. If members are waiting, the copy goes to the first of them.
+     * @param copy The new copy.
+     * @return The member who received the copy, or null if it was shelved.
+     */
+    public synchronized Member addCopy(Book copy) {
+        copies.add(copy);
+        return release(copy);
+    }
+
+    /**
+     * Takes a copy off the shelf without locking.
+     * Fails while members are queued, because every returned copy is handed to them instead of shelved.
+     * @return The borrowed copy, or null if no copy is available.
+     */
+    public Book tryBorrow() {
+        while (true) {
+            int available = availableCopies.get();
+            if (available == 0) {
+                return null;
+            }
+            if (availableCopies.compareAndSet(available, available - 1)) {
+                // The counter is only raised after a copy is shelved, so a copy is guaranteed to be there.
+                Book copy = shelf.poll();
+                copy.borrowBook();
+                return copy;
+            }
         }
+    }
 
-        // Update the state of both the Book and the Member.
-        bookToBorrow.borrowBook(); // Mark book as unavailable.
-        member.borrowBook(bookToBorrow); // Add book to member's list.
-        System.out.println("Success: " + member.getName() + " has borrowed '" + title + "'.");
+    /**
+     * Borrows a copy if one is available, otherwise places the member at the back of the reservation queue.
+     * @param member The member asking for the title.
+     * @return The borrowed copy, or null if the member was queued.
+     */
+    public synchronized Book borrowOrReserve(Member member) {
+        // Returns also lock the holding, so no copy can be shelved between this check and the enqueue.
+        Book copy = tryBorrow();
+        if (copy == null) {
+            reservations.offer(member);
+        }
+        return copy;
     }
 
     /**
-     * Orchestrates the process of a member returning a book.
-     * @param member The member returning the book.
-     * @param title The title of the book to return.
+     * Takes back a borrowed copy and passes it to the next member in the reservation queue, if any.
+     * @param copy The returned copy.
+     * @return The member who received the copy, or null if it went back on the shelf.
      */
-    public void returnBook(Member member, String title) {
-        Optional<Book> bookToReturnOpt = findBookByTitle(title);
+    public synchronized Member returnCopy(Book copy) {
+        copy.returnBook();
+        return release(copy);
+    }
 
-        if (bookToReturnOpt.isPresent()) {
-            Book bookToReturn = bookToReturnOpt.get();
-            bookToReturn.returnBook(); // Mark book as available.
-            member.returnBook(bookToReturn); // Remove book from member's list.
-            System.out.println("Success: " + member.getName() + " has returned '" + title + "'.");
-        } else {
-            System.out.println("Warning: Could not process return for a book titled '" + title + "' as it does not belong to this library.");
+    /**
+     * Puts back a copy of a restored holding as it was: on the shelf if available, otherwise out on loan.
+     * @param copy The restored copy.
+     */
+    synchronized void restoreCopy(Book copy) {
+        copies.add(copy);
+        if (copy.isAvailable()) {
+            shelf.offer(copy);
+            availableCopies.incrementAndGet();
+        }
+    }
+
+    /**
+     * Puts a member back in the reservation queue of a restored holding, behind those already restored.
+     * @param member The waiting member.
+     */
+    void restoreReservation(Member member) {
+        reservations.offer(member);
+    }
+
+    private Member release(Book copy) {
+        Member next = reservations.poll();
+        if (next != null) {
+            copy.borrowBook();
+            next.borrowBook(copy);
+            return next;
         }
+        shelf.offer(copy);
+        availableCopies.incrementAndGet(); // Publish only after the copy is on the shelf.
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "'" + title + "' by " + author + " (" + getAvailableCopies() + "/" + getTotalCopies()
+               + " available, " + getReservationCount() + " on hold)";
     }
 }
 
 /**
- * Main class to demonstrate the Library Management System.
+ * One borrowing of one copy by one member, with the dates needed for due-date and fine handling.
  */
-public class LibraryManagementSystem {
-    public static void main(String[] args) {
-        // 1. Setup the Library
-        Library myLibrary = new Library();
-        myLibrary.addBook(new Book("The Hobbit", "J.R.R. Tolkien"));
-        myLibrary.addBook(new Book("1984", "George Orwell"));
-        myLibrary.addBook(new Book("To Kill a Mockingbird", "Harper Lee"));
+class Loan {
+    // --- Encapsulated Fields ---
+    private final Book book;
+    private final Member member;
+    private final LocalDate borrowedOn;
+    private final LocalDate dueDate;
+    private volatile LocalDate returnedOn; // null while the copy is still out.
 
-        Member member1 = new Member("Alice", "M001");
-        Member member2 = new Member("Bob", "M002");
-        myLibrary.addMember(member1);
-        myLibrary.addMember(member2);
+    // --- Constructor ---
+    public Loan(Book book, Member member, LocalDate borrowedOn, LocalDate dueDate) {
+        this.book = book;
+        this.member = member;
+        this.borrowedOn = borrowedOn;
+        this.dueDate = dueDate;
+    }
 
-        System.out.println("--- Library Initialized ---\n");
+    // --- Getters ---
+    public Book getBook() {
+        return book;
+    }
 
-        // 2. Demonstrate successful borrowing and bonus feature
+    public Member getMember() {
+        return member;
+    }
+
+    public LocalDate getBorrowedOn() {
+        return borrowedOn;
+    }
+
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+
+    public LocalDate getReturnedOn() {
+        return returnedOn;
+    }
+
+    public boolean isActive() {
+        return returnedOn == null;
+    }
+
+    /**
+     * Number of days past the due date as of the given day, or as of the return day if returned earlier.
+     * @param asOf The day to measure against.
+     * @return Days overdue, or 0 if not overdue.
+     */
+    public long daysOverdue(LocalDate asOf) {
+        LocalDate end = returnedOn != null && returnedOn.isBefore(asOf) ? returnedOn : asOf;
+        return Math.max(0, ChronoUnit.DAYS.between(dueDate, end));
+    }
+
+    // --- State-changing Methods ---
+    void markReturned(LocalDate day) {
+        this.returnedOn = day;
+    }
+
+    @Override
+    public String toString() {
+        return "'" + book.getTitle() + "' borrowed by " + member.getName() + " (due " + dueDate + ")";
+    }
+}
+
+/**
+ * Index of active loans ordered by due date.
+ * A sweep pops only the loans that have fallen due, so its cost depends on how many loans are due,
+ * not on how many are out. Returned loans are dropped lazily when they reach the head.
+ */
+class DueDateIndex {
+    private final PriorityQueue<Loan> queue = new PriorityQueue<>(Comparator.comparing(Loan::getDueDate));
+
+    public synchronized void add(Loan loan) {
+        queue.add(loan);
+    }
+
+    /**
+     * Removes and returns every active loan due before the given day.
+     * @param today The day of the sweep; loans due on an earlier day are overdue.
+     * @return The newly overdue loans, oldest due date first.
+     */
+    public synchronized List<Loan> pollOverdue(LocalDate today) {
+        List<Loan> overdue = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().getDueDate().isBefore(today)) {
+            Loan loan = queue.poll();
+            if (loan.isActive()) {
+                overdue.add(loan);
+            }
+        }
+        return overdue;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+}
+
+/**
+ * Daily late fee rules. Amounts are in cents to keep batch totals exact.
+ */
+class FinePolicy {
+    // --- Encapsulated Fields ---
+    private final long centsPerDay;
+    private final int graceDays;
+    private final long maxCentsPerLoan;
+
+    // --- Constructor ---
+    public FinePolicy(long centsPerDay, int graceDays, long maxCentsPerLoan) {
+        if (centsPerDay < 0 || graceDays < 0 || maxCentsPerLoan < 0) {
+            throw new IllegalArgumentException("Fine policy values cannot be negative.");
+        }
+        this.centsPerDay = centsPerDay;
+        this.graceDays = graceDays;
+        this.maxCentsPerLoan = maxCentsPerLoan;
+    }
+
+    /**
+     * Calculates the fine for one loan.
+     * @param loan The loan to assess.
+     * @param asOf The day to assess it on.
+     * @return The fine in cents.
+     */
+    public long fineCents(Loan loan, LocalDate asOf) {
+        long chargeableDays = loan.daysOverdue(asOf) - graceDays;
+        return chargeableDays <= 0 ? 0 : Math.min(chargeableDays * centsPerDay, maxCentsPerLoan);
+    }
+
+    /**
+     * Calculates fines for a batch of loans in parallel and totals them per member.
+     * @param loans The loans to assess; any concurrent-safe or unmodified collection.
+     * @param asOf The day to assess them on.
+     * @return The fines owed, by member ID, in cents. Members with no fine are omitted.
+     */
+    public Map<String, Long> assess(Collection<Loan> loans, LocalDate asOf) {
+        return loans.parallelStream()
+                    .filter(loan -> fineCents(loan, asOf) > 0)
+                    .collect(Collectors.toConcurrentMap(loan -> loan.getMember().getMemberId(),
+                                                        loan -> fineCents(loan, asOf),
+                                                        Long::sum));
+    }
+}
+
+/**
+ * Persistent, memory-mapped catalog of titles with copy counts.
+ * Opening a catalog maps its files without reading them, so startup time does not grow with
+ * the number of titles; records are only touched when looked up.
+ *
+ * The data file is a header followed by appended records, each
+ * [int keyHash][int totalCopies][int availableCopies][short titleBytes][short authorBytes][title][author],
+ * mapped in fixed-size segments that no record crosses.
+ * The index file is an open-addressing hash table of 8-byte slots holding the top 24 bits of the
+ * key hash and the record offset, which keeps lookups to one probe sequence and one record read.
+ */
+class CatalogFile implements Closeable {
+    private static final int DATA_MAGIC = 0x4C494244; // "LIBD"
+    private static final int INDEX_MAGIC = 0x4C494249; // "LIBI"
+    private static final int VERSION = 1;
+    private static final int DATA_HEADER_BYTES = 16; // magic, version, end offset
+    private static final int INDEX_HEADER_BYTES = 24; // magic, version, capacity, size
+    private static final int RECORD_HEADER_BYTES = 16;
+    private static final int SEGMENT_BYTES = 1 << 24; // 16 MB per data mapping
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    private static final int MAX_INDEX_CAPACITY = 1 << 27; // Keeps the index inside one mapping.
+    private static final long OFFSET_MASK = (1L << 40) - 1;
+    private static final int RECORD_LOCKS = 64; // Stripes ordering the available-count writes of each record
+
+    // --- Encapsulated Fields ---
+    private final Path dataPath;
+    private final Path indexPath;
+    private final FileChannel dataChannel;
+    private final List<MappedByteBuffer> segments;
+    private final ReadWriteLock lock;
+    private final Object[] recordLocks;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int indexCapacity;
+    private int indexSize;
+    private long end; // Offset where the next record will be written.
+
+    private CatalogFile(Path base) throws IOException {
+        this.dataPath = Paths.get(base + ".dat");
+        this.indexPath = Paths.get(base + ".idx");
+        this.dataChannel = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segments = new ArrayList<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.recordLocks = new Object[RECORD_LOCKS];
+        for (int i = 0; i < RECORD_LOCKS; i++) {
+            recordLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens a catalog, creating its files if they do not exist.
+     * If the index is missing or belongs to another version, it is rebuilt from the data file.
+     * @param base Path prefix; the catalog uses base.dat and base.idx.
+     * @return The open catalog.
+     * @throws IOException if the files cannot be opened or the data file is not a catalog.
+     */
+    public static CatalogFile open(Path base) throws IOException {
+        CatalogFile catalog = new CatalogFile(base);
         try {
-            myLibrary.borrowBook(member1, "The Hobbit");
-        } catch (BookNotAvailableException e) {
-            System.out.println(e.getMessage());
+            catalog.openData();
+            catalog.openIndex();
+        } catch (IOException | RuntimeException e) {
+            catalog.close();
+            throw e;
         }
-        member1.displayBorrowedBooks(); // Bonus feature
+        return catalog;
+    }
 
-        // 3. Demonstrate exception handling for an unavailable book
-        System.out.println("\n--- Attempting to borrow an already borrowed book ---");
+    private void openData() throws IOException {
+        mapThrough(0);
+        ByteBuffer header = segment(0);
+        if (dataChannel.size() <= SEGMENT_BYTES && header.getInt(0) == 0) { // Fresh file
+            header.putInt(0, DATA_MAGIC).putInt(4, VERSION).putLong(8, DATA_HEADER_BYTES);
+        } else if (header.getInt(0) != DATA_MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(dataPath + " is not a version " + VERSION + " library catalog.");
+        }
+        this.end = header.getLong(8);
+        mapThrough(end - 1);
+    }
+
+    private void openIndex() throws IOException {
+        if (Files.exists(indexPath)) {
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (indexChannel.size() >= INDEX_HEADER_BYTES) {
+                MappedByteBuffer mapped = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+                if (mapped.getInt(0) == INDEX_MAGIC && mapped.getInt(4) == VERSION) {
+                    index = mapped;
+                    indexCapacity = (int) mapped.getLong(8);
+                    indexSize = (int) mapped.getLong(16);
+                    return;
+                }
+            }
+            indexChannel.close();
+        }
+        rebuildIndex(INITIAL_INDEX_CAPACITY, true);
+    }
+
+    // --- Lookups ---
+
+    /**
+     * Finds the record of a title.
+     * @param title The title to look up, ignoring case.
+     * @return The record offset, or -1 if the title is not in the catalog.
+     */
+    public long find(String title) {
+        lock.readLock().lock();
         try {
-            myLibrary.borrowBook(member2, "The Hobbit");
-        } catch (BookNotAvailableException e) {
-            System.out.println(e.getMessage()); // Expected output
+            return findLocked(key(title));
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        // 4. Demonstrate returning a book
-        System.out.println("\n--- Returning a book ---");
-        myLibrary.returnBook(member1, "The Hobbit");
-        member1.displayBorrowedBooks();
+    public String getTitle(long offset) {
+        lock.readLock().lock();
+        try {
+            ByteBuffer segment = segment(offset);
+            int at = within(offset);
+            return readString(segment, at + RECORD_HEADER_BYTES, segment.getShort(at + 12) & 0xFFFF);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-        // 5. Demonstrate that the book is now available again
-        System.out.println("\n--- Borrowing the newly returned book ---");
+    public String getAuthor(long offset) {
+        lock.readLock().lock();
         try {
-            myLibrary.borrowBook(member2, "The Hobbit");
-        } catch (BookNotAvailableException e) {
-            System.out.println(e.getMessage());
+            ByteBuffer segment = segment(offset);
+            int at = within(offset);
+            int titleBytes = segment.getShort(at + 12) & 0xFFFF;
+            return readString(segment, at + RECORD_HEADER_BYTES + titleBytes, segment.getShort(at + 14) & 0xFFFF);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTotalCopies(long offset) {
+        lock.readLock().lock();
+        try {
+            return segment(offset).getInt(within(offset) + 4);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The shelf count last written, possibly by an earlier run
+    public int getAvailableCopies(long offset) {
+        lock.readLock().lock();
+        try {
+            synchronized (recordLock(offset)) {
+                return segment(offset).getInt(within(offset) + 8);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits every title in the catalog in the order it was added.
+     * @param action Receives the title and author of each record.
+     */
+    public void forEachTitle(BiConsumer<String, String> action) {
+        lock.readLock().lock();
+        try {
+            forEachRecord(offset -> {
+                ByteBuffer segment = segment(offset);
+                int at = within(offset);
+                int titleBytes = segment.getShort(at + 12) & 0xFFFF;
+                action.accept(readString(segment, at + RECORD_HEADER_BYTES, titleBytes),
+                              readString(segment, at + RECORD_HEADER_BYTES + titleBytes, segment.getShort(at + 14) & 0xFFFF));
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Updates ---
+
+    /**
+     * Adds one copy of a title, appending a record if the title is new.
+     * @param title The title of the copy.
+     * @param author The author of the copy.
+     * @return The offset of the title's record.
+     */
+    public long addCopy(String title, String author) {
+        lock.writeLock().lock();
+        try {
+            String key = key(title);
+            long offset = findLocked(key);
+            if (offset >= 0) {
+                ByteBuffer segment = segment(offset);
+                int at = within(offset);
+                segment.putInt(at + 4, segment.getInt(at + 4) + 1);
+                segment.putInt(at + 8, segment.getInt(at + 8) + 1);
+                return offset;
+            }
+            offset = append(hash(key), title, author);
+            if (indexSize + 1 > indexCapacity / 4 * 3) {
+                rebuildIndex(indexCapacity * 2, false);
+            }
+            insert(hash(key), offset);
+            index.putLong(16, ++indexSize);
+            return offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
         }
-        member2.displayBorrowedBooks();
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the current available-copy count of a title. The count is read under a lock shared
+     * by few records, so concurrent updates can never leave an older count behind, while updates
+     * of other titles and lookups go on under the catalog's read lock.
+     * @param offset The title's record offset.
+     * @param available Supplies the count to store.
+     */
+    public void updateAvailableCopies(long offset, IntSupplier available) {
+        lock.readLock().lock();
+        try {
+            synchronized (recordLock(offset)) {
+                segment(offset).putInt(within(offset) + 8, available.getAsInt());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes both files to disk.
+     */
+    public void force() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            index.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                force();
+            }
+            dataChannel.close();
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Internals ---
+
+    private long findLocked(String key) {
+        int hash = hash(key);
+        int mask = indexCapacity - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = index.getLong(INDEX_HEADER_BYTES + slot * 8);
+            if (entry == 0) {
+                return -1;
+            }
+            if ((entry >>> 40) == (hash >>> 8)) {
+                long offset = (entry & OFFSET_MASK) - 1;
+                if (getTitleKey(offset).equals(key)) {
+                    return offset;
+                }
+            }
+        }
+    }
+
+    private String getTitleKey(long offset) {
+        ByteBuffer segment = segment(offset);
+        int at = within(offset);
+        return key(readString(segment, at + RECORD_HEADER_BYTES, segment.getShort(at + 12) & 0xFFFF));
+    }
+
+    private long append(int hash, String title, String author) throws IOException {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] authorBytes = author.getBytes(StandardCharsets.UTF_8);
+        if (titleBytes.length > 0xFFFF || authorBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Book title and author must each fit in 65535 bytes.");
+        }
+        int length = RECORD_HEADER_BYTES + titleBytes.length + authorBytes.length;
+        long offset = end;
+        if (within(offset) + length > SEGMENT_BYTES) {
+            offset = (offset / SEGMENT_BYTES + 1) * SEGMENT_BYTES; // Records never straddle two mappings.
+        }
+        mapThrough(offset);
+        ByteBuffer segment = segment(offset);
+        int at = within(offset);
+        segment.putInt(at, hash).putInt(at + 4, 1).putInt(at + 8, 1)
+               .putShort(at + 12, (short) titleBytes.length).putShort(at + 14, (short) authorBytes.length);
+        segment.put(at + RECORD_HEADER_BYTES, titleBytes);
+        segment.put(at + RECORD_HEADER_BYTES + titleBytes.length, authorBytes);
+        end = offset + length;
+        segment(0).putLong(8, end);
+        return offset;
+    }
+
+    private void insert(int hash, long offset) {
+        int mask = indexCapacity - 1;
+        int slot = hash & mask;
+        while (index.getLong(INDEX_HEADER_BYTES + slot * 8) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putLong(INDEX_HEADER_BYTES + slot * 8, ((long) (hash >>> 8) << 40) | (offset + 1));
+    }
+
+    /**
+     * Writes a new index of the given capacity to a temporary file and swaps it in.
+     * @param capacity The new slot count, a power of two.
+     * @param fromData true to scan the data file (recovery), false to re-slot the current index.
+     */
+    private void rebuildIndex(int capacity, boolean fromData) throws IOException {
+        if (fromData) {
+            long records = forEachRecord(offset -> { });
+            while (records + 1 > capacity / 4 * 3 && capacity <= MAX_INDEX_CAPACITY) {
+                capacity *= 2;
+            }
+        }
+        if (capacity > MAX_INDEX_CAPACITY) {
+            throw new IllegalStateException("Catalog index is full at " + indexSize + " titles.");
+        }
+        Path tempPath = Paths.get(indexPath + ".tmp");
+        FileChannel newChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                  StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer newIndex = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_BYTES + capacity * 8L);
+        MappedByteBuffer oldIndex = index;
+        int oldCapacity = indexCapacity;
+        FileChannel oldChannel = indexChannel;
+        index = newIndex;
+        indexCapacity = capacity;
+        indexSize = 0;
+        if (fromData) {
+            indexSize = (int) forEachRecord(offset -> insert(segment(offset).getInt(within(offset)), offset));
+        } else {
+            for (int slot = 0; slot < oldCapacity; slot++) {
+                long entry = oldIndex.getLong(INDEX_HEADER_BYTES + slot * 8);
+                if (entry != 0) {
+                    long offset = (entry & OFFSET_MASK) - 1;
+                    insert(segment(offset).getInt(within(offset)), offset);
+                    indexSize++;
+                }
+            }
+        }
+        newIndex.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putLong(8, capacity).putLong(16, indexSize);
+        newIndex.force();
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexChannel = newChannel;
+        if (oldChannel != null) {
+            oldChannel.close();
+        }
+    }
+
+    // Walks every record in the data file in order and returns how many there were.
+    private long forEachRecord(LongConsumer action) {
+        long count = 0;
+        long offset = DATA_HEADER_BYTES;
+        while (offset < end) {
+            ByteBuffer segment = segment(offset);
+            int at = within(offset);
+            int titleBytes = at + RECORD_HEADER_BYTES <= SEGMENT_BYTES ? segment.getShort(at + 12) & 0xFFFF : 0;
+            if (titleBytes == 0) { // Padding at the end of a segment
+                offset = (offset / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+                continue;
+            }
+            action.accept(offset);
+            count++;
+            offset += RECORD_HEADER_BYTES + titleBytes + (segment.getShort(at + 14) & 0xFFFF);
+        }
+        return count;
+    }
+
+    // Maps every segment up to the one holding offset. Only called on open and under the write lock,
+    // so the segment list never changes while a reader holds the read lock.
+    private void mapThrough(long offset) throws IOException {
+        int number = (int) (offset / SEGMENT_BYTES);
+        while (segments.size() <= number) {
+            segments.add(dataChannel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_BYTES, SEGMENT_BYTES));
+        }
+    }
+
+    private Object recordLock(long offset) {
+        return recordLocks[(int) ((offset >>> 4) & (RECORD_LOCKS - 1))]; // Records are at least 16 bytes apart
+    }
+
+    // The mapping holding a record; every record below end is already mapped
+    private MappedByteBuffer segment(long offset) {
+        return segments.get((int) (offset / SEGMENT_BYTES));
+    }
+
+    private static int within(long offset) {
+        return (int) (offset % SEGMENT_BYTES);
+    }
+
+    private static String readString(ByteBuffer segment, int at, int length) {
+        byte[] bytes = new byte[length];
+        segment.get(at, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String key(String title) {
+        return title.toLowerCase();
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9; // Spread so both low (slot) and high (fragment) bits vary.
+        return h ^ (h >>> 16);
+    }
+}
+
+/**
+ * One ranked hit from a catalog search.
+ */
+class SearchResult {
+    // --- Encapsulated Fields ---
+    private final String title;
+    private final String author;
+    private final double score;
+
+    // --- Constructor ---
+    public SearchResult(String title, String author, double score) {
+        this.title = title;
+        this.author = author;
+        this.score = score;
+    }
+
+    // --- Getters ---
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("'%s' by %s (score %.3f)", title, author, score);
+    }
+}
+
+/**
+ * In-memory inverted index over book titles and authors, ranked with BM25.
+ * Each title is one document. Posting lists are stored as variable-length-encoded
+ * document-number gaps and term frequencies in a growable byte array, and new titles
+ * are appended to them incrementally. Each list also keeps, per block of postings, the
+ * last document and what bounds the block's scores, so queries (block-max MaxScore) skip
+ * whole blocks that cannot beat the current top results, and keep the best in a small heap.
+ */
+class SearchIndex {
+    private static final double K1 = 1.2; // Term-frequency saturation
+    private static final double B = 0.75; // Length normalisation
+
+    // --- Encapsulated Fields ---
+    private final Map<String, PostingList> postings;
+    private final ReadWriteLock lock;
+    private String[] titles; // Indexed by document number
+    private String[] authors;
+    private int[] lengths; // Tokens per document
+    private int documentCount;
+    private long totalLength;
+
+    // --- Constructor ---
+    public SearchIndex() {
+        this.postings = new HashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.titles = new String[1024];
+        this.authors = new String[1024];
+        this.lengths = new int[1024];
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a title to the index. Each title should be added once.
+     * @param title The book title.
+     * @param author The book author.
+     */
+    public void add(String title, String author) {
+        List<String> tokens = tokenize(title + " " + author);
+        lock.writeLock().lock();
+        try {
+            int doc = documentCount;
+            if (doc == titles.length) {
+                int capacity = titles.length * 2;
+                titles = Arrays.copyOf(titles, capacity);
+                authors = Arrays.copyOf(authors, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            titles[doc] = title;
+            authors[doc] = author;
+            lengths[doc] = tokens.size();
+            totalLength += tokens.size();
+            documentCount++;
+
+            // Count repeats so each term gets one posting per document.
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String token : tokens) {
+                frequencies.merge(token, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new PostingList()).append(doc, entry.getValue(), tokens.size());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the titles that best match a free-text query. A title matches if it contains any query word;
+     * titles containing more, and rarer, query words rank higher.
+     * @param query Words to look for in titles and authors, in any case and order.
+     * @param limit The maximum number of results.
+     * @return The matches, best first.
+     */
+    public List<SearchResult> search(String query, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        lock.readLock().lock();
+        try {
+            if (limit <= 0 || documentCount == 0) {
+                return new ArrayList<>();
+            }
+            double averageLength = (double) totalLength / documentCount;
+            List<PostingCursor> cursors = new ArrayList<>();
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list != null) {
+                    double idf = Math.log(1 + (documentCount - list.documentFrequency + 0.5) / (list.documentFrequency + 0.5));
+                    cursors.add(new PostingCursor(list, idf, averageLength));
+                }
+            }
+            if (cursors.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            // Terms in order of the most they can add to a document. Once the results are full, the low terms
+            // that together cannot lift a document past the threshold are only looked up for candidate documents
+            // found in the other, essential, terms.
+            PostingCursor[] order = cursors.toArray(new PostingCursor[0]);
+            Arrays.sort(order, Comparator.comparingDouble(cursor -> cursor.maxScore));
+            double[] upTo = new double[order.length]; // upTo[i]: the most terms 0 to i can add together
+            double sum = 0;
+            for (int i = 0; i < order.length; i++) {
+                sum += order[i].maxScore;
+                upTo[i] = sum;
+            }
+            double[] othersUpTo = new double[order.length]; // Like upTo, over the documents a skip would pass
+            PriorityQueue<double[]> best = new PriorityQueue<>(limit + 1, Comparator.comparingDouble(hit -> hit[0]));
+            double threshold = 0; // Score a document must beat to be kept: 0 until the heap is full, then its lowest score.
+            int essential = 0; // First essential term
+            while (essential < order.length) {
+                int doc = Integer.MAX_VALUE;
+                for (int i = essential; i < order.length; i++) {
+                    doc = Math.min(doc, order[i].doc);
+                }
+                if (doc == Integer.MAX_VALUE) {
+                    break; // Every essential posting list is exhausted.
+                }
+
+                // If the blocks of the essential terms, with the other terms' blocks over the same documents,
+                // cannot beat the threshold, no document up to the end of the shortest essential block can,
+                // so skip past it without decoding it.
+                double bound = 0;
+                int skipTo = Integer.MAX_VALUE;
+                for (int i = essential; i < order.length; i++) {
+                    bound += order[i].blockMaxScore(doc);
+                    skipTo = Math.min(skipTo, order[i].blockEnd() + 1);
+                }
+                double others = 0;
+                for (int i = 0; i < essential; i++) {
+                    others += order[i].maxScoreBetween(doc, skipTo);
+                    othersUpTo[i] = others;
+                }
+                if (bound + others <= threshold) {
+                    for (int i = essential; i < order.length; i++) {
+                        order[i].advance(skipTo);
+                    }
+                    continue;
+                }
+
+                double score = 0;
+                for (int i = essential; i < order.length; i++) {
+                    if (order[i].doc == doc) {
+                        score += order[i].score(lengths[doc]);
+                        order[i].next();
+                    }
+                }
+                for (int i = essential - 1; i >= 0 && score + othersUpTo[i] > threshold; i--) {
+                    order[i].advance(doc);
+                    if (order[i].doc == doc) {
+                        score += order[i].score(lengths[doc]);
+                    }
+                }
+                if (best.size() < limit) {
+                    best.add(new double[] {score, doc});
+                } else if (score > best.peek()[0]) {
+                    best.poll();
+                    best.add(new double[] {score, doc});
+                }
+                if (best.size() == limit) {
+                    threshold = best.peek()[0];
+                    while (essential < order.length && upTo[essential] <= threshold) {
+                        essential++;
+                    }
+                }
+            }
+
+            List<SearchResult> results = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                double[] hit = best.poll();
+                int doc = (int) hit[1];
+                results.add(new SearchResult(titles[doc], authors[doc], hit[0]));
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // BM25 contribution of one term; rises with the frequency and falls with the document length
+    private static double impact(double idf, int frequency, int length, double averageLength) {
+        double norm = K1 * (1 - B + B * length / averageLength);
+        return idf * frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    // The highest BM25 contribution among competitive (frequency, length) pairs in pairs[from, to)
+    private static double maxImpact(double idf, int[] pairs, int from, int to, double averageLength) {
+        double max = 0;
+        for (int i = from; i < to; i += 2) {
+            max = Math.max(max, impact(idf, pairs[i], pairs[i + 1], averageLength));
+        }
+        return max;
+    }
+
+    /**
+     * Returns the title of a document.
+     * @param doc The document number, from 0 in the order titles were added.
+     * @return The title.
+     */
+    String getTitle(int doc) {
+        lock.readLock().lock();
+        try {
+            return titles[doc];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    String getAuthor(int doc) {
+        lock.readLock().lock();
+        try {
+            return authors[doc];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the index to a snapshot: each document's title, author and length, then the posting
+     * lists exactly as encoded, so restoring the index tokenizes nothing.
+     * @param out The snapshot being written.
+     */
+    void writeSnapshot(SnapshotWriter out) throws IOException {
+        lock.readLock().lock();
+        try {
+            out.writeVarInt(documentCount);
+            out.writeVarLong(totalLength);
+            for (int doc = 0; doc < documentCount; doc++) {
+                out.writeString(titles[doc]);
+                out.writeSharedString(authors[doc]); // Most authors have written more than one title
+                out.writeVarInt(lengths[doc]);
+            }
+            out.writeVarInt(postings.size());
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                PostingList list = entry.getValue();
+                out.writeString(entry.getKey());
+                out.writeVarInt(list.documentFrequency);
+                out.writeVarInt(list.lastDoc);
+                out.writeBytes(list.data, 0, list.size);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeSnapshot(SnapshotWriter)}.
+     * @param in The snapshot being restored.
+     * @return The index, ready for queries and further titles.
+     */
+    static SearchIndex readSnapshot(SnapshotReader in) throws IOException {
+        SearchIndex index = new SearchIndex();
+        int documentCount = in.readVarInt();
+        int capacity = Math.max(1024, documentCount);
+        index.titles = new String[capacity];
+        index.authors = new String[capacity];
+        index.lengths = new int[capacity];
+        index.totalLength = in.readVarLong();
+        for (int doc = 0; doc < documentCount; doc++) {
+            index.titles[doc] = in.readString();
+            index.authors[doc] = in.readSharedString();
+            index.lengths[doc] = in.readVarInt();
+        }
+        index.documentCount = documentCount;
+        int terms = in.readVarInt();
+        for (int i = 0; i < terms; i++) {
+            String term = in.readString();
+            PostingList list = new PostingList();
+            list.documentFrequency = in.readVarInt();
+            list.lastDoc = in.readVarInt();
+            list.data = in.readBytes();
+            list.size = list.data.length;
+            list.indexBlocks(index.lengths); // Block bounds are not in the snapshot; one pass over the bytes rebuilds them
+            index.postings.put(term, list);
+        }
+        return index;
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits.
+     * @param text The text to split.
+     * @return The words in order, including repeats.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (c != '\'' && c != '.' && word.length() > 0) { // "J.R.R." and "Tolkien's" stay whole.
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Postings of one term: pairs of (gap from previous document number, term frequency),
+     * each written as a variable-length integer. Every {@link #BLOCK_SIZE} postings form a
+     * block, described in {@code blocks} by its last document, its start in {@code data} and
+     * its start in {@code impacts}, which holds the block's competitive (frequency, document
+     * length) pairs: those no other posting in the block beats on both. The best score in the
+     * block is the best score of those pairs, whatever the average document length.
+     */
+    private static final class PostingList {
+        private static final int BLOCK_SIZE = 128;
+
+        private byte[] data = new byte[8];
+        private int size;
+        private int lastDoc = -1;
+        private int documentFrequency;
+        private int[] blocks = new int[3]; // Three ints per block
+        private int[] impacts = new int[4]; // Competitive pairs of each block, block after block
+        private int impactCount;
+        private int[] listImpacts = new int[2]; // Competitive pairs of the whole list
+        private int listImpactCount;
+
+        void append(int doc, int frequency, int length) {
+            addToBlock(doc, frequency, length, size);
+            writeVarInt(doc - lastDoc);
+            writeVarInt(frequency);
+            lastDoc = doc;
+            documentFrequency++;
+        }
+
+        /**
+         * Rebuilds the block descriptions of a list restored from its encoded postings.
+         * @param lengths Tokens per document of the index the list belongs to.
+         */
+        void indexBlocks(int[] lengths) {
+            int postings = documentFrequency;
+            documentFrequency = 0;
+            int doc = -1;
+            int position = 0;
+            while (position < size) {
+                int start = position;
+                doc += readVarInt(data, position);
+                position = skipVarInt(data, position);
+                int frequency = readVarInt(data, position);
+                position = skipVarInt(data, position);
+                addToBlock(doc, frequency, lengths[doc], start);
+                documentFrequency++;
+            }
+            if (documentFrequency != postings || doc != lastDoc) {
+                throw new IllegalStateException("A posting list does not match its recorded size.");
+            }
+        }
+
+        // Counts a posting into the current block, opening a new block every BLOCK_SIZE postings
+        private void addToBlock(int doc, int frequency, int length, int offset) {
+            int slot = documentFrequency / BLOCK_SIZE * 3;
+            if (documentFrequency % BLOCK_SIZE == 0) {
+                if (slot == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                }
+                blocks[slot + 1] = offset;
+                blocks[slot + 2] = impactCount;
+            }
+            blocks[slot] = doc;
+            if (impactCount + 2 > impacts.length) {
+                impacts = Arrays.copyOf(impacts, impacts.length * 2);
+            }
+            impactCount = addImpact(impacts, blocks[slot + 2], impactCount, frequency, length);
+            if (listImpactCount + 2 > listImpacts.length) {
+                listImpacts = Arrays.copyOf(listImpacts, listImpacts.length * 2);
+            }
+            listImpactCount = addImpact(listImpacts, 0, listImpactCount, frequency, length);
+        }
+
+        // Adds a (frequency, length) pair to the competitive pairs in pairs[from, to), dropping those it beats,
+        // and returns their new end. The array needs room for one more pair.
+        private static int addImpact(int[] pairs, int from, int to, int frequency, int length) {
+            for (int i = from; i < to; i += 2) {
+                if (pairs[i] >= frequency && pairs[i + 1] <= length) {
+                    return to; // Never scores higher than a pair already kept.
+                }
+            }
+            int end = from;
+            for (int i = from; i < to; i += 2) {
+                if (pairs[i] > frequency || pairs[i + 1] < length) {
+                    pairs[end] = pairs[i];
+                    pairs[end + 1] = pairs[i + 1];
+                    end += 2;
+                }
+            }
+            pairs[end] = frequency;
+            pairs[end + 1] = length;
+            return end + 2;
+        }
+
+        private void writeVarInt(int value) {
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        private static int readVarInt(byte[] data, int position) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static int skipVarInt(byte[] data, int position) {
+            while (data[position++] < 0) {
+                // Continuation byte
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Reads a posting list front to back while a query is scored, jumping a block at a time
+     * when asked to move past documents the query no longer needs.
+     */
+    private static final class PostingCursor {
+        private final byte[] data;
+        private final int end;
+        private final int[] blocks;
+        private final int blockCount;
+        private final int[] impacts;
+        private final int impactCount;
+        private final double idf;
+        private final double averageLength;
+        private final double maxScore; // The best this term can add to any document
+        private int position;
+        private int doc = -1;
+        private int frequency;
+        private int block; // Block holding the current posting
+        private int boundBlock; // Block last asked about by blockMaxScore
+        private int scoredBlock = -1; // Block whose best score is in blockScore
+        private double blockScore;
+        private int rangeBlock = -1; // Blocks and bound of the last maxScoreBetween
+        private int rangeEnd;
+        private double rangeScore;
+
+        PostingCursor(PostingList list, double idf, double averageLength) {
+            this.data = list.data;
+            this.end = list.size;
+            this.blocks = list.blocks;
+            this.blockCount = (list.documentFrequency + PostingList.BLOCK_SIZE - 1) / PostingList.BLOCK_SIZE;
+            this.impacts = list.impacts;
+            this.impactCount = list.impactCount;
+            this.idf = idf;
+            this.averageLength = averageLength;
+            this.maxScore = maxImpact(idf, list.listImpacts, 0, list.listImpactCount, averageLength);
+            next();
+        }
+
+        void next() {
+            if (position >= end) {
+                doc = Integer.MAX_VALUE;
+                return;
+            }
+            doc += readVarInt();
+            frequency = readVarInt();
+            if (doc > blocks[block * 3]) {
+                block++;
+            }
+        }
+
+        // Moves to the first posting at or after a document, skipping whole blocks that end before it
+        void advance(int target) {
+            if (doc >= target) {
+                return;
+            }
+            if (blocks[block * 3] < target) {
+                int next = block + 1;
+                while (next < blockCount && blocks[next * 3] < target) {
+                    next++;
+                }
+                if (next == blockCount) {
+                    position = end;
+                    doc = Integer.MAX_VALUE;
+                    return;
+                }
+                block = next;
+                position = blocks[next * 3 + 1];
+                doc = blocks[(next - 1) * 3]; // Gaps in a block count on from the previous block's last document
+            }
+            do {
+                next();
+            } while (doc < target);
+        }
+
+        // The most this term can add to any document from target to the end of the block holding target,
+        // found without decoding that block
+        double blockMaxScore(int target) {
+            if (boundBlock < block || (boundBlock > block && blocks[(boundBlock - 1) * 3] >= target)) {
+                boundBlock = block;
+            }
+            while (boundBlock < blockCount && blocks[boundBlock * 3] < target) {
+                boundBlock++;
+            }
+            if (boundBlock == blockCount) {
+                return 0; // The list ends before target.
+            }
+            if (boundBlock != scoredBlock) {
+                scoredBlock = boundBlock;
+                blockScore = blockImpact(boundBlock);
+            }
+            return blockScore;
+        }
+
+        // The most this term can add to any document from 'from' up to, not including, 'to', judged by the
+        // blocks over those documents; the whole list's best when that spans more than a few blocks
+        double maxScoreBetween(int from, int to) {
+            double max = blockMaxScore(from);
+            if (boundBlock == rangeBlock && to == rangeEnd) {
+                return rangeScore; // Same blocks as the previous candidate
+            }
+            for (int next = boundBlock + 1; next < blockCount && blocks[(next - 1) * 3] < to; next++) {
+                if (next - boundBlock == 8) {
+                    max = maxScore;
+                    break;
+                }
+                max = Math.max(max, blockImpact(next));
+            }
+            rangeBlock = boundBlock;
+            rangeEnd = to;
+            rangeScore = max;
+            return max;
+        }
+
+        private double blockImpact(int block) {
+            int impactEnd = block + 1 < blockCount ? blocks[(block + 1) * 3 + 2] : impactCount;
+            return maxImpact(idf, impacts, blocks[block * 3 + 2], impactEnd, averageLength);
+        }
+
+        // Last document of the block found by the latest blockMaxScore
+        int blockEnd() {
+            return boundBlock == blockCount ? Integer.MAX_VALUE - 1 : blocks[boundBlock * 3];
+        }
+
+        double score(int length) {
+            return impact(idf, frequency, length, averageLength);
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
+
+/**
+ * Manages the entire library's collection of books and members.
+ * Handles the main logic for borrowing, reserving and returning books.
+ */
+class Library {
+    // --- Encapsulated Fields ---
+    private Map<String, Holding> holdings; // Association: A Library has the copies of each title, keyed by lower-case title.
+    private Map<String, Member> members; // Members keyed by member ID.
+    private Map<Book, Loan> loans; // Reverse index: each borrowed copy to its current loan.
+    private Map<Book, Loan> overdueLoans; // Active loans found overdue by a sweep.
+    private Queue<Loan> returnedLate; // Loans returned after their due date, not yet fined.
+    private DueDateIndex dueDates;
+    private Clock clock;
+    private CatalogFile catalog; // Persistent catalog backing the holdings, or null for an in-memory library.
+    private SearchIndex searchIndex; // Full-text index over every title added to this library.
+
+    // Loan length for every borrowing.
+    private static final int LOAN_PERIOD_DAYS = 14;
+
+    // What snapshot files of a library hold, checked on restore. "-v2" added late returns awaiting fines,
+    // so snapshots from before them are refused by name instead of failing partway through.
+    private static final String SNAPSHOT_KIND = "library-v2";
+
+    // Hot-path metrics, shared by every library in the process.
+    private static final LatencyHistogram BORROW_LATENCY = Metrics.histogram("library.borrow");
+    private static final Counter BORROW_REJECTIONS = Metrics.counter("library.borrow.rejected");
+
+    // --- Constructor ---
+    public Library() {
+        this(Clock.systemDefaultZone());
+    }
+
+    public Library(Clock clock) {
+        this(clock, null);
+    }
+
+    /**
+     * Creates a library backed by a persistent catalog. Titles are read from the catalog on first use,
+     * and every added copy is appended to it.
+     * @param clock The clock used for loan dates.
+     * @param catalog The open catalog, or null for an in-memory library.
+     */
+    public Library(Clock clock, CatalogFile catalog) {
+        this.catalog = catalog;
+        this.searchIndex = new SearchIndex();
+        this.holdings = new ConcurrentHashMap<>();
+        this.members = new ConcurrentHashMap<>();
+        this.loans = new ConcurrentHashMap<>();
+        this.overdueLoans = new ConcurrentHashMap<>();
+        this.returnedLate = new ConcurrentLinkedQueue<>();
+        this.dueDates = new DueDateIndex();
+        this.clock = clock;
+    }
+
+    // --- Management Methods ---
+
+    /**
+     * Adds a copy of a book. Adding a title that already exists adds another copy of it.
+     * @param book The copy to add.
+     */
+    public void addBook(Book book) {
+        Holding holding = findHolding(book.getTitle())
+            .orElseGet(() -> holdings.computeIfAbsent(key(book.getTitle()), k -> {
+                searchIndex.add(book.getTitle(), book.getAuthor()); // First copy of a new title
+                return new Holding(book.getTitle(), book.getAuthor());
+            }));
+        if (catalog != null) {
+            holding.setCatalogOffset(catalog.addCopy(book.getTitle(), book.getAuthor()));
+        }
+        Member recipient = holding.addCopy(book);
+        syncCatalog(holding);
+        if (recipient != null) {
+            startLoan(book, recipient);
+            System.out.println("Notice: new copy of '" + book.getTitle() + "' issued to " + recipient.getName() + " from the hold queue.");
+        }
+    }
+
+    /**
+     * Registers a member.
+     * @param member The member to add.
+     * @throws IllegalArgumentException if another member already uses the same ID.
+     */
+    public void addMember(Member member) {
+        Member existing = this.members.putIfAbsent(member.getMemberId(), member);
+        if (existing != null && existing != member) {
+            throw new IllegalArgumentException("Member ID '" + member.getMemberId() + "' is already in use.");
+        }
+    }
+
+    /**
+     * Finds a member by ID.
+     * @param memberId The ID of the member.
+     * @return An Optional containing the Member if registered, otherwise an empty Optional.
+     */
+    public Optional<Member> findMember(String memberId) {
+        return Optional.ofNullable(members.get(memberId));
+    }
+
+    /**
+     * Finds the member currently holding a copy.
+     * @param book The copy to look up.
+     * @return An Optional containing the borrower, or an empty Optional if the copy is not on loan.
+     */
+    public Optional<Member> findBorrower(Book book) {
+        return findLoan(book).map(Loan::getMember);
+    }
+
+    /**
+     * Finds the current loan of a copy.
+     * @param book The copy to look up.
+     * @return An Optional containing the loan, or an empty Optional if the copy is not on loan.
+     */
+    public Optional<Loan> findLoan(Book book) {
+        return Optional.ofNullable(loans.get(book));
+    }
+
+    /**
+     * Finds the holding for a title.
+     * @param title The title of the book to find.
+     * @return An Optional containing the Holding if found, otherwise an empty Optional.
+     */
+    public Optional<Holding> findHolding(String title) {
+        Holding holding = holdings.get(key(title));
+        if (holding == null && catalog != null) {
+            holding = loadHolding(title);
+        }
+        return Optional.ofNullable(holding);
+    }
+
+    /**
+     * Searches titles and authors for any of the words in a query, best matches first.
+     * @param query Free text such as "tolkien hobbit".
+     * @param limit The maximum number of results.
+     * @return The ranked matches.
+     */
+    public List<SearchResult> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Adds every title of the persistent catalog to the search index.
+     * Call once after opening a catalog-backed library; titles added later are indexed as they arrive.
+     */
+    public void indexCatalog() {
+        if (catalog != null) {
+            catalog.forEachTitle(searchIndex::add);
+        }
+    }
+
+    /**
+     * Checks whether a copy of a title can be borrowed right now.
+     * Titles not yet used in this run are answered from the catalog without creating any objects.
+     * @param title The title to check.
+     * @return true if at least one copy is on the shelf.
+     */
+    public boolean isAvailable(String title) {
+        Holding holding = holdings.get(key(title));
+        if (holding != null) {
+            return holding.getAvailableCopies() > 0;
+        }
+        if (catalog != null) {
+            // Loans are not persisted, so a title not yet used this run has every copy on the shelf, as
+            // loadHolding will find; the stored available count is from an earlier run.
+            long offset = catalog.find(title);
+            return offset >= 0 && catalog.getTotalCopies(offset) > 0;
+        }
+        return false;
+    }
+
+    // Creates the in-memory holding of a catalog title the first time it is used.
+    private Holding loadHolding(String title) {
+        long offset = catalog.find(title);
+        if (offset < 0) {
+            return null;
+        }
+        return holdings.computeIfAbsent(key(title), k -> {
+            // Loans are not persisted, so every copy starts the run on the shelf.
+            Holding holding = new Holding(catalog.getTitle(offset), catalog.getAuthor(offset));
+            int copies = catalog.getTotalCopies(offset);
+            for (int i = 0; i < copies; i++) {
+                holding.addCopy(new Book(holding.getTitle(), holding.getAuthor()));
+            }
+            holding.setCatalogOffset(offset);
+            catalog.updateAvailableCopies(offset, holding::getAvailableCopies);
+            return holding;
+        });
+    }
+
+    // Writes a holding's shelf count through to the catalog.
+    private void syncCatalog(Holding holding) {
+        if (catalog != null && holding.getCatalogOffset() >= 0) {
+            catalog.updateAvailableCopies(holding.getCatalogOffset(), holding::getAvailableCopies);
+        }
+    }
+
+    /**
+     * Orchestrates the process of a member borrowing a book.
+     * @param member The member borrowing the book.
+     * @param title The title of the book to borrow.
+     * @throws BookNotAvailableException if no copy is available or the title does not exist.
+     */
+    public void borrowBook(Member member, String title) throws BookNotAvailableException {
+        long start = Metrics.startTimer();
+        // Find the title in the library's holdings.
+        Optional<Holding> found = findHolding(title);
+        if (!found.isPresent()) {
+            BORROW_REJECTIONS.increment();
+            throw new BookNotAvailableException("Error: Book with title '" + title + "' not found in the library.");
+        }
+        Holding holding = found.get();
+
+        // Check for availability (Requirement #2: Exception Handling).
+        Book copy = holding.tryBorrow();
+        if (copy == null) {
+            BORROW_REJECTIONS.increment();
+            throw new BookNotAvailableException("Error: '" + title + "' is currently unavailable.");
+        }
+        syncCatalog(holding);
+
+        member.borrowBook(copy); // Add book to member's set.
+        startLoan(copy, member);
+        BORROW_LATENCY.recordSince(start); // Successful borrows only; the console message is not timed
+        System.out.println("Success: " + member.getName() + " has borrowed '" + title + "'.");
+    }
+
+    /**
+     * Borrows a book on behalf of a registered member.
+     * @param memberId The ID of the member borrowing the book.
+     * @param title The title of the book to borrow.
+     * @throws BookNotAvailableException if no copy is available or the title does not exist.
+     * @throws IllegalArgumentException if no member has this ID.
+     */
+    public void borrowBook(String memberId, String title) throws BookNotAvailableException {
+        borrowBook(requireMember(memberId), title);
+    }
+
+    /**
+     * Borrows a copy of a title if one is free, otherwise joins the title's reservation queue.
+     * @param member The member reserving the book.
+     * @param title The title of the book to reserve.
+     * @return true if a copy was borrowed immediately, false if the member was queued.
+     * @throws BookNotAvailableException if the title does not exist.
+     */
+    public boolean reserveBook(Member member, String title) throws BookNotAvailableException {
+        Holding holding = findHolding(title)
+            .orElseThrow(() -> new BookNotAvailableException("Error: Book with title '" + title + "' not found in the library."));
+
+        Book copy = holding.borrowOrReserve(member);
+        if (copy != null) {
+            syncCatalog(holding);
+            member.borrowBook(copy);
+            startLoan(copy, member);
+            System.out.println("Success: " + member.getName() + " has borrowed '" + title + "'.");
+            return true;
+        }
+        System.out.println("Reserved: " + member.getName() + " is number " + holding.getReservationCount() + " in line for '" + title + "'.");
+        return false;
+    }
+
+    /**
+     * Orchestrates the process of a member returning a book.
+     * A returned copy goes to the next member waiting for the title, if there is one.
+     * @param member The member returning the book.
+     * @param title The title of the book to return.
+     */
+    public void returnBook(Member member, String title) {
+        Optional<Holding> holdingOpt = findHolding(title);
+        Optional<Book> copyOpt = member.findBorrowedBook(title);
+
+        if (holdingOpt.isPresent() && copyOpt.isPresent()) {
+            returnCopy(member, copyOpt.get(), holdingOpt.get());
+        } else if (holdingOpt.isPresent()) {
+            System.out.println("Warning: " + member.getName() + " has no borrowed copy of '" + title + "' to return.");
+        } else {
+            System.out.println("Warning: Could not process return for a book titled '" + title + "' as it does not belong to this library.");
+        }
+    }
+
+    /**
+     * Returns a specific copy, whoever holds it. The borrower is found through the reverse index.
+     * @param book The copy being returned.
+     */
+    public void returnBook(Book book) {
+        Loan loan = loans.get(book);
+        Optional<Holding> holdingOpt = findHolding(book.getTitle());
+        if (loan != null && holdingOpt.isPresent()) {
+            returnCopy(loan.getMember(), book, holdingOpt.get());
+        } else {
+            System.out.println("Warning: '" + book.getTitle() + "' is not currently on loan.");
+        }
+    }
+
+    /**
+     * Returns a book on behalf of a registered member.
+     * @param memberId The ID of the member returning the book.
+     * @param title The title of the book to return.
+     * @throws IllegalArgumentException if no member has this ID.
+     */
+    public void returnBook(String memberId, String title) {
+        returnBook(requireMember(memberId), title);
+    }
+
+    /**
+     * Nightly overdue sweep. Only loans whose due date has passed since the last sweep are examined.
+     * @param today The day the sweep runs for.
+     * @return The loans that became overdue in this sweep.
+     */
+    public List<Loan> sweepOverdue(LocalDate today) {
+        List<Loan> newlyOverdue = dueDates.pollOverdue(today);
+        for (Loan loan : newlyOverdue) {
+            overdueLoans.put(loan.getBook(), loan);
+        }
+        return newlyOverdue;
+    }
+
+    /**
+     * Returns a read-only view of the active loans found overdue by previous sweeps.
+     * @return The overdue loans.
+     */
+    public Collection<Loan> getOverdueLoans() {
+        return Collections.unmodifiableCollection(overdueLoans.values());
+    }
+
+    /**
+     * Calculates outstanding fines on all overdue loans. Loans still out are assessed again each time;
+     * loans returned late since the last assessment are included once, fined up to their return day.
+     * @param policy The fine rules to apply.
+     * @param asOf The day to assess fines on.
+     * @return Fines in cents by member ID.
+     */
+    public Map<String, Long> assessFines(FinePolicy policy, LocalDate asOf) {
+        List<Loan> batch = new ArrayList<>(overdueLoans.values());
+        for (Loan loan; (loan = returnedLate.poll()) != null; ) {
+            batch.add(loan);
+        }
+        return policy.assess(batch, asOf);
+    }
+
+    // --- Snapshot ---
+
+    /**
+     * Writes the whole library to a snapshot: members, then the search index, then every title's
+     * copies with their loans and reservation queue, then the late returns not yet fined. Members are written once and referred to by
+     * position; dates are day numbers. Take it while no borrowing or returning is in progress.
+     * @param path The snapshot file.
+     * @return The size of the snapshot in bytes.
+     * @throws IllegalStateException if the library is backed by a persistent catalog, which is already stored.
+     */
+    public long writeSnapshot(Path path) throws IOException {
+        if (catalog != null) {
+            throw new IllegalStateException("A catalog-backed library is kept in its catalog; only in-memory libraries are snapshotted.");
+        }
+        // Borrowers and waiting members need not be registered, so they are collected as well
+        List<Member> everyone = new ArrayList<>(members.values());
+        Map<Member, Integer> positions = new IdentityHashMap<>(everyone.size() * 2);
+        for (Member member : everyone) {
+            positions.put(member, positions.size());
+        }
+        int registered = everyone.size();
+        List<Holding> titles = new ArrayList<>(searchIndex.size());
+        for (int doc = 0; doc < searchIndex.size(); doc++) {
+            titles.add(holdings.get(key(searchIndex.getTitle(doc))));
+        }
+        for (Holding holding : titles) {
+            for (Member waiting : holding.getReservations()) {
+                if (positions.putIfAbsent(waiting, positions.size()) == null) {
+                    everyone.add(waiting);
+                }
+            }
+        }
+        List<Loan> lateReturns = new ArrayList<>(returnedLate);
+        List<Loan> withMembers = new ArrayList<>(loans.values());
+        withMembers.addAll(lateReturns);
+        for (Loan loan : withMembers) {
+            if (positions.putIfAbsent(loan.getMember(), positions.size()) == null) {
+                everyone.add(loan.getMember());
+            }
+        }
+
+        try (SnapshotWriter out = SnapshotWriter.create(path, SNAPSHOT_KIND)) {
+            out.writeVarInt(everyone.size());
+            for (int i = 0; i < everyone.size(); i++) {
+                out.writeString(everyone.get(i).getName());
+                out.writeString(everyone.get(i).getMemberId());
+                out.writeBoolean(i < registered);
+            }
+            searchIndex.writeSnapshot(out);
+            out.writeVarInt(loans.size());
+            for (Holding holding : titles) { // In document order, so each title and author is written once, by the index
+                List<Book> copies = holding.getCopies();
+                out.writeVarInt(copies.size());
+                for (Book copy : copies) {
+                    Loan loan = loans.get(copy);
+                    out.writeBoolean(loan != null);
+                    if (loan != null) {
+                        out.writeVarInt(positions.get(loan.getMember()));
+                        out.writeVarLong(loan.getBorrowedOn().toEpochDay());
+                        out.writeVarInt((int) ChronoUnit.DAYS.between(loan.getBorrowedOn(), loan.getDueDate()));
+                        out.writeBoolean(overdueLoans.containsKey(copy));
+                    }
+                }
+                List<Member> waiting = holding.getReservations();
+                out.writeVarInt(waiting.size());
+                for (Member member : waiting) {
+                    out.writeVarInt(positions.get(member));
+                }
+            }
+            out.writeVarInt(lateReturns.size());
+            for (Loan loan : lateReturns) {
+                out.writeVarInt(positions.get(loan.getMember()));
+                out.writeString(loan.getBook().getTitle());
+                out.writeString(loan.getBook().getAuthor());
+                out.writeVarLong(loan.getBorrowedOn().toEpochDay());
+                out.writeVarInt((int) ChronoUnit.DAYS.between(loan.getBorrowedOn(), loan.getDueDate()));
+                out.writeVarInt((int) ChronoUnit.DAYS.between(loan.getBorrowedOn(), loan.getReturnedOn()));
+            }
+            long size = out.size();
+            out.commit();
+            return size;
+        }
+    }
+
+    /**
+     * Restores a library written by {@link #writeSnapshot(Path)}. Copies on loan go back to their
+     * borrowers, overdue loans stay overdue, and queued members keep their places.
+     * @param path The snapshot file.
+     * @param clock The clock used for loan dates from now on.
+     * @return The restored in-memory library.
+     * @throws IOException if the snapshot cannot be read or is damaged.
+     */
+    public static Library readSnapshot(Path path, Clock clock) throws IOException {
+        try (SnapshotReader in = SnapshotReader.open(path, SNAPSHOT_KIND)) {
+            Library library = new Library(clock);
+            Member[] everyone = new Member[in.readVarInt()];
+            library.members = new ConcurrentHashMap<>(everyone.length);
+            for (int i = 0; i < everyone.length; i++) {
+                everyone[i] = new Member(in.readString(), in.readString());
+                if (in.readBoolean()) {
+                    library.members.put(everyone[i].getMemberId(), everyone[i]);
+                }
+            }
+            library.searchIndex = SearchIndex.readSnapshot(in);
+            library.loans = new ConcurrentHashMap<>(in.readVarInt());
+            int titles = library.searchIndex.size();
+            library.holdings = new ConcurrentHashMap<>(titles);
+            for (int doc = 0; doc < titles; doc++) {
+                String title = library.searchIndex.getTitle(doc);
+                String author = library.searchIndex.getAuthor(doc);
+                Holding holding = new Holding(title, author);
+                int copies = in.readVarInt();
+                for (int c = 0; c < copies; c++) {
+                    Book copy = new Book(title, author);
+                    if (in.readBoolean()) {
+                        Member borrower = everyone[in.readVarInt()];
+                        LocalDate borrowedOn = LocalDate.ofEpochDay(in.readVarLong());
+                        Loan loan = new Loan(copy, borrower, borrowedOn, borrowedOn.plusDays(in.readVarInt()));
+                        copy.borrowBook();
+                        borrower.borrowBook(copy);
+                        library.loans.put(copy, loan);
+                        if (in.readBoolean()) {
+                            library.overdueLoans.put(copy, loan);
+                        } else {
+                            library.dueDates.add(loan);
+                        }
+                    }
+                    holding.restoreCopy(copy);
+                }
+                int waiting = in.readVarInt();
+                for (int w = 0; w < waiting; w++) {
+                    holding.restoreReservation(everyone[in.readVarInt()]);
+                }
+                library.holdings.put(key(title), holding);
+            }
+            int lateReturns = in.readVarInt();
+            for (int i = 0; i < lateReturns; i++) {
+                Member borrower = everyone[in.readVarInt()];
+                Book copy = new Book(in.readString(), in.readString()); // Stands in for the copy, which is back on the shelf
+                LocalDate borrowedOn = LocalDate.ofEpochDay(in.readVarLong());
+                Loan loan = new Loan(copy, borrower, borrowedOn, borrowedOn.plusDays(in.readVarInt()));
+                loan.markReturned(borrowedOn.plusDays(in.readVarInt()));
+                library.returnedLate.add(loan);
+            }
+            if (!in.atEnd()) {
+                throw new IOException("Snapshot " + path + " has data after its last title.");
+            }
+            return library;
+        }
+    }
+
+    private void startLoan(Book copy, Member member) {
+        LocalDate today = LocalDate.now(clock);
+        Loan loan = new Loan(copy, member, today, today.plusDays(LOAN_PERIOD_DAYS));
+        loans.put(copy, loan);
+        dueDates.add(loan);
+    }
+
+    private void returnCopy(Member member, Book copy, Holding holding) {
+        if (!member.returnBook(copy)) { // Another return of this copy got there first; shelving it again would count it twice.
+            System.out.println("Warning: " + member.getName() + " no longer has '" + copy.getTitle() + "' to return.");
+            return;
+        }
+        Loan loan = loans.remove(copy);
+        if (loan != null) {
+            LocalDate today = LocalDate.now(clock);
+            loan.markReturned(today); // The due-date index drops it on its next sweep.
+            overdueLoans.remove(copy);
+            if (loan.daysOverdue(today) > 0) { // Late, whether or not a sweep has seen it yet
+                returnedLate.add(loan);
+            }
+        }
+        Member next = holding.returnCopy(copy); // Shelve the copy or hand it to the next reservation.
+        syncCatalog(holding);
+        System.out.println("Success: " + member.getName() + " has returned '" + copy.getTitle() + "'.");
+        if (next != null) {
+            startLoan(copy, next);
+            System.out.println("Notice: '" + copy.getTitle() + "' issued to " + next.getName() + " from the hold queue.");
+        }
+    }
+
+    private Member requireMember(String memberId) {
+        return findMember(memberId)
+            .orElseThrow(() -> new IllegalArgumentException("No member registered with ID '" + memberId + "'."));
+    }
+
+    private static String key(String title) {
+        return title.toLowerCase();
+    }
+}
+
+/**
+ * Main class to demonstrate the Library Management System.
+ */
+public class LibraryManagementSystem {
+    public static void main(String[] args) {
+        // Persistent catalog mode: "java LibraryManagementSystem catalog <path> [titles to generate]"
+        if (args.length >= 2 && args[0].equals("catalog")) {
+            runCatalog(Paths.get(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 0);
+            return;
+        }
+        // Search benchmark mode: "java LibraryManagementSystem search [titles]"
+        if (args.length >= 1 && args[0].equals("search")) {
+            runSearchBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+
+        // Snapshot benchmark mode: "java LibraryManagementSystem snapshot [members] [path]"
+        if (args.length >= 1 && args[0].equals("snapshot")) {
+            runSnapshotBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000,
+                                 Paths.get(args.length > 2 ? args[2] : "library.snapshot"));
+            return;
+        }
+
+        // 1. Setup the Library
+        Library myLibrary = new Library();
+        myLibrary.addBook(new Book("The Hobbit", "J.R.R. Tolkien"));
+        myLibrary.addBook(new Book("1984", "George Orwell"));
+        myLibrary.addBook(new Book("To Kill a Mockingbird", "Harper Lee"));
+
+        Member member1 = new Member("Alice", "M001");
+        Member member2 = new Member("Bob", "M002");
+        myLibrary.addMember(member1);
+        myLibrary.addMember(member2);
+
+        System.out.println("--- Library Initialized ---\n");
+
+        // 2. Demonstrate successful borrowing and bonus feature
+        try {
+            myLibrary.borrowBook(member1, "The Hobbit");
+        } catch (BookNotAvailableException e) {
+            System.out.println(e.getMessage());
+        }
+        member1.displayBorrowedBooks(); // Bonus feature
+
+        // 3. Demonstrate exception handling for an unavailable book
+        System.out.println("\n--- Attempting to borrow an already borrowed book ---");
+        try {
+            myLibrary.borrowBook(member2, "The Hobbit");
+        } catch (BookNotAvailableException e) {
+            System.out.println(e.getMessage()); // Expected output
+        }
+
+        // 4. Demonstrate returning a book
+        System.out.println("\n--- Returning a book ---");
+        myLibrary.returnBook(member1, "The Hobbit");
+        member1.displayBorrowedBooks();
+
+        // 5. Demonstrate that the book is now available again
+        System.out.println("\n--- Borrowing the newly returned book ---");
+        try {
+            myLibrary.borrowBook(member2, "The Hobbit");
+        } catch (BookNotAvailableException e) {
+            System.out.println(e.getMessage());
+        }
+        member2.displayBorrowedBooks();
+
+        // 6. Demonstrate multiple copies and the reservation queue
+        System.out.println("\n--- Two copies of a popular title and a hold queue ---");
+        Member member3 = new Member("Carol", "M003");
+        myLibrary.addMember(member3);
+        myLibrary.addBook(new Book("Dune", "Frank Herbert"));
+        myLibrary.addBook(new Book("Dune", "Frank Herbert"));
+        try {
+            myLibrary.reserveBook(member1, "Dune");
+            myLibrary.reserveBook(member2, "Dune");
+            myLibrary.reserveBook(member3, "Dune"); // No copies left, so Carol is queued.
+        } catch (BookNotAvailableException e) {
+            System.out.println(e.getMessage());
+        }
+        myLibrary.findHolding("Dune").ifPresent(System.out::println);
+        myLibrary.returnBook("M001", "Dune"); // The returned copy goes straight to Carol.
+        member3.displayBorrowedBooks();
+        myLibrary.findHolding("Dune").ifPresent(System.out::println);
+
+        // 7. Demonstrate who has a given copy
+        member3.findBorrowedBook("Dune").ifPresent(copy ->
+            System.out.println("Current borrower of Carol's copy: " + myLibrary.findBorrower(copy).map(Member::getName).orElse("nobody")));
+
+        // 8. Demonstrate the overdue sweep and fines three weeks from now
+        System.out.println("\n--- Overdue sweep in three weeks ---");
+        LocalDate sweepDay = LocalDate.now().plusDays(21);
+        for (Loan loan : myLibrary.sweepOverdue(sweepDay)) {
+            System.out.println("Overdue: " + loan);
+        }
+        FinePolicy policy = new FinePolicy(25, 2, 1000); // 25 cents a day after two days' grace, capped at $10.
+        myLibrary.assessFines(policy, sweepDay).forEach((memberId, cents) ->
+            System.out.printf("Fine for %s: $%.2f%n", memberId, cents / 100.0));
+
+        // 9. Demonstrate full-text search
+        System.out.println("\n--- Searching for \"tolkien hobbit\" ---");
+        for (SearchResult result : myLibrary.search("tolkien hobbit", 5)) {
+            System.out.println("  " + result);
+        }
+
+        // 10. Show the hot-path metrics collected along the way
+        System.out.println("\n--- Metrics ---");
+        System.out.print(Metrics.report());
+    }
+
+    /**
+     * Generates a catalog of synthetic titles if asked to, then times a cold open and a few lookups.
+     */
+    private static void runCatalog(Path base, int titlesToGenerate) {
+        try {
+            if (titlesToGenerate > 0) {
+                long start = System.nanoTime();
+                try (CatalogFile catalog = CatalogFile.open(base)) {
+                    for (int i = 0; i < titlesToGenerate; i++) {
+                        catalog.addCopy("Title " + i, "Author " + (i % 10_000));
+                    }
+                }
+                System.out.printf("Generated %d titles in %.0f ms%n", titlesToGenerate, (System.nanoTime() - start) / 1e6);
+            }
+
+            long start = System.nanoTime();
+            try (CatalogFile catalog = CatalogFile.open(base)) {
+                Library library = new Library(Clock.systemDefaultZone(), catalog);
+                System.out.printf("Opened catalog of %d titles in %.2f ms%n", catalog.size(), (System.nanoTime() - start) / 1e6);
+
+                String[] probes = {"Title 0", "title " + (catalog.size() / 2), "Title " + (catalog.size() - 1), "Missing Title"};
+                for (String title : probes) {
+                    long lookup = System.nanoTime();
+                    boolean available = library.isAvailable(title);
+                    System.out.printf("  isAvailable(\"%s\") = %b in %.1f us%n", title, available, (System.nanoTime() - lookup) / 1e3);
+                }
+                library.addBook(new Book("Title 0", "Author 0")); // Appends a second copy to the catalog.
+                library.findHolding("Title 0").ifPresent(holding -> System.out.println("  " + holding));
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds a library through its public methods (members, two copies of a title per four members,
+     * loans, an overdue sweep, reservations and returns that hand copies on), then snapshots it and
+     * restores it with the original gone, as a fresh process would. The restored library must give
+     * the same counts, fines and search results.
+     */
+    private static void runSnapshotBenchmark(int memberCount, Path path) {
+        LocalDate today = LocalDate.of(2026, 10, 1);
+        Clock clock = Clock.fixed(today.atStartOfDay(ZoneOffset.UTC).toInstant(), ZoneOffset.UTC);
+        FinePolicy fines = new FinePolicy(25, 2, 1_000);
+        int titleCount = Math.max(1, memberCount / 4);
+        PrintStream console = System.out;
+        try {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream())); // A message per loan
+            long start = System.nanoTime();
+            Library library = new Library(clock);
+            for (int i = 0; i < memberCount; i++) {
+                library.addMember(new Member("Member " + i, "M" + i));
+            }
+            for (int t = 0; t < titleCount; t++) {
+                library.addBook(new Book("Title " + t, "Author " + (t % 10_000)));
+                library.addBook(new Book("Title " + t, "Author " + (t % 10_000)));
+            }
+            for (int i = 0; i < Math.min(memberCount, titleCount * 2); i++) {
+                library.borrowBook("M" + i, "Title " + (i % titleCount)); // Every copy goes out
+            }
+            library.sweepOverdue(today.plusDays(20));
+            for (int i = titleCount * 2; i < Math.min(memberCount, titleCount * 2 + titleCount / 2); i++) {
+                library.reserveBook(library.findMember("M" + i).get(), "Title " + (i % titleCount));
+            }
+            for (int i = 0; i < titleCount / 4; i++) {
+                library.returnBook("M" + i, "Title " + (i % titleCount)); // Handed to the first member waiting
+            }
+            double rebuildSeconds = (System.nanoTime() - start) / 1e9;
+            System.setOut(console);
+            console.printf("Rebuilt %,d members and %,d titles from code in %.2f s%n", memberCount, titleCount, rebuildSeconds);
+            String fingerprint = fingerprint(library, fines, today.plusDays(30));
+
+            start = System.nanoTime();
+            long bytes = library.writeSnapshot(path);
+            double writeSeconds = (System.nanoTime() - start) / 1e9;
+            console.printf("Snapshot written in %.2f s: %.1f MB, %.0f MB/s%n", writeSeconds, bytes / 1e6, bytes / 1e6 / writeSeconds);
+            library = null; // Restore into an empty heap, like a process starting up
+            System.gc();
+
+            start = System.nanoTime();
+            Library restored = Library.readSnapshot(path, clock);
+            double restoreSeconds = (System.nanoTime() - start) / 1e9;
+            console.printf("Restored in %.2f s, %.1fx faster than rebuilding%n", restoreSeconds, rebuildSeconds / restoreSeconds);
+            if (!fingerprint(restored, fines, today.plusDays(30)).equals(fingerprint)) {
+                throw new IllegalStateException("The restored library differs from the one saved.");
+            }
+            console.println("Restored library matches: " + fingerprint.substring(0, fingerprint.indexOf(';')));
+            Files.delete(path);
+        } catch (IOException | BookNotAvailableException e) {
+            System.setOut(console);
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Counts, every fine and a few searches, enough to tell whether two libraries hold the same state
+    private static String fingerprint(Library library, FinePolicy fines, LocalDate asOf) {
+        StringBuilder out = new StringBuilder();
+        int copies = 0;
+        int onShelf = 0;
+        int waiting = 0;
+        for (int t = 0; ; t++) {
+            Optional<Holding> holding = library.findHolding("Title " + t);
+            if (!holding.isPresent()) {
+                break;
+            }
+            copies += holding.get().getTotalCopies();
+            onShelf += holding.get().getAvailableCopies();
+            waiting += holding.get().getReservationCount();
+        }
+        out.append(String.format("%,d copies, %,d on the shelf, %,d reservations, %,d overdue loans;",
+                                 copies, onShelf, waiting, library.getOverdueLoans().size()));
+        out.append(new TreeMap<>(library.assessFines(fines, asOf)));
+        out.append(library.search("title 7 author 7", 5));
+        return out.toString();
+    }
+
+    /**
+     * Indexes synthetic titles drawn from a skewed vocabulary, then times a set of queries.
+     */
+    private static void runSearchBenchmark(int titleCount) {
+        Random random = new Random(42);
+        String[] vocabulary = new String[50_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = Integer.toString(i * 7919, 36) + "w";
+        }
+        SearchIndex index = new SearchIndex();
+        long start = System.nanoTime();
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < titleCount; i++) {
+            title.setLength(0);
+            int words = 2 + random.nextInt(5);
+            for (int w = 0; w < words; w++) {
+                // Cubing a uniform value favours low ranks, so a few words are common and most are rare.
+                double u = random.nextDouble();
+                title.append(vocabulary[(int) (u * u * u * vocabulary.length)]).append(' ');
+            }
+            index.add(title.toString(), "Author " + random.nextInt(100_000));
+        }
+        System.out.printf("Indexed %d titles in %.0f ms%n", titleCount, (System.nanoTime() - start) / 1e6);
+
+        String[] rare = new String[200];
+        String[] common = new String[200];
+        String[] multi = new String[200];
+        for (int q = 0; q < rare.length; q++) {
+            rare[q] = vocabulary[random.nextInt(vocabulary.length)] + " " + vocabulary[random.nextInt(vocabulary.length)];
+            common[q] = vocabulary[random.nextInt(50)] + " " + vocabulary[random.nextInt(50)];
+            multi[q] = vocabulary[random.nextInt(50)] + " " + vocabulary[random.nextInt(500)] + " "
+                       + vocabulary[random.nextInt(5_000)] + " " + vocabulary[random.nextInt(vocabulary.length)];
+        }
+        String[] everywhere = new String[20];
+        for (int q = 0; q < everywhere.length; q++) {
+            everywhere[q] = q % 2 == 0 ? "author" : "author " + vocabulary[q]; // "author" is in every title
+        }
+        for (int round = 0; round < 3; round++) { // Later rounds run with compiled code.
+            System.out.printf("Round %d:%n", round + 1);
+            timeQueries(index, "two rare words", rare);
+            timeQueries(index, "two common words", common);
+            timeQueries(index, "four mixed words", multi);
+            timeQueries(index, "word in every title", everywhere);
+        }
+        System.out.println("Most common word \"" + vocabulary[0] + "\": " + index.search(vocabulary[0], 3));
+    }
+
+    private static void timeQueries(SearchIndex index, String label, String[] queries) {
+        long[] nanos = new long[queries.length];
+        for (int q = 0; q < queries.length; q++) {
+            long queryStart = System.nanoTime();
+            index.search(queries[q], 10);
+            nanos[q] = System.nanoTime() - queryStart;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("  %-20s median %.3f ms, p99 %.3f ms, max %.3f ms%n", label,
+                          nanos[nanos.length / 2] / 1e6, nanos[nanos.length * 99 / 100] / 1e6, nanos[nanos.length - 1] / 1e6);
+    }
+}
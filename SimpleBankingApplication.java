@@ -27,6 +27,20 @@ public class SimpleBankingApplication {
         }
     }
 
+    /**
+     * Outcome of a withdrawal through the non-throwing API.
+     * The constants are shared and carry no stack trace, so a refused withdrawal costs as little as a successful one.
+     */
+    public enum WithdrawalResult {
+        SUCCESS,
+        LIMIT_EXCEEDED,
+        INSUFFICIENT_FUNDS;
+
+        public boolean isSuccess() {
+            return this == SUCCESS;
+        }
+    }
+
     // --- Abstract Base Class: BankAccount ---
 
     /**
@@ -69,6 +83,14 @@ public class SimpleBankingApplication {
 
         public abstract void withdraw(double amount) throws InsufficientFundsException, WithdrawalLimitExceededException;
 
+        /**
+         * Withdraws if allowed, without printing or throwing.
+         * Meant for high-volume callers that expect many refusals.
+         * @param amount The amount to withdraw.
+         * @return The outcome; the balance only changes on SUCCESS.
+         */
+        public abstract WithdrawalResult tryWithdraw(double amount);
+
         public abstract void printMonthlyStatement();
     }
 
@@ -90,22 +112,34 @@ public class SimpleBankingApplication {
 
         @Override
         public void withdraw(double amount) throws WithdrawalLimitExceededException, InsufficientFundsException {
-            if (withdrawalCount >= WITHDRAWAL_LIMIT) {
+            WithdrawalResult result = tryWithdraw(amount);
+            if (result == WithdrawalResult.LIMIT_EXCEEDED) {
                 throw new WithdrawalLimitExceededException(
                     "Withdrawal limit of " + WITHDRAWAL_LIMIT + " per month has been exceeded."
                 );
             }
 
-            if (amount > balance) {
+            if (result == WithdrawalResult.INSUFFICIENT_FUNDS) {
                 throw new InsufficientFundsException("Insufficient funds for withdrawal. Current balance: $" + balance);
             }
 
-            balance -= amount;
-            withdrawalCount++;
             System.out.printf("Successfully withdrew $%.2f from Savings Account. New balance: $%.2f. (%d/%d withdrawals this month)%n",
                     amount, balance, withdrawalCount, WITHDRAWAL_LIMIT);
         }
 
+        @Override
+        public WithdrawalResult tryWithdraw(double amount) {
+            if (withdrawalCount >= WITHDRAWAL_LIMIT) {
+                return WithdrawalResult.LIMIT_EXCEEDED;
+            }
+            if (amount > balance) {
+                return WithdrawalResult.INSUFFICIENT_FUNDS;
+            }
+            balance -= amount;
+            withdrawalCount++;
+            return WithdrawalResult.SUCCESS;
+        }
+
         @Override
         public void printMonthlyStatement() {
             System.out.println("\n--- Savings Account Monthly Statement ---");
@@ -131,14 +165,22 @@ public class SimpleBankingApplication {
 
         @Override
         public void withdraw(double amount) throws InsufficientFundsException {
-            if (amount > balance) {
+            if (tryWithdraw(amount) == WithdrawalResult.INSUFFICIENT_FUNDS) {
                 throw new InsufficientFundsException("Insufficient funds for withdrawal. Current balance: $" + balance);
             }
 
-            balance -= amount;
             System.out.printf("Successfully withdrew $%.2f from Current Account. New balance: $%.2f%n", amount, balance);
         }
 
+        @Override
+        public WithdrawalResult tryWithdraw(double amount) {
+            if (amount > balance) {
+                return WithdrawalResult.INSUFFICIENT_FUNDS;
+            }
+            balance -= amount;
+            return WithdrawalResult.SUCCESS;
+        }
+
         @Override
         public void printMonthlyStatement() {
             System.out.println("\n--- Current Account Monthly Statement ---");
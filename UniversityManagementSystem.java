@@ -1,5 +1,27 @@
 // Import necessary packages
+import com.snapshot.SnapshotReader;
+import com.snapshot.SnapshotWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 // Course class
 class Course {
@@ -30,10 +52,15 @@ class Course {
         return unitLoad; // Get unit load
     }
 
+    // Append course details to an existing buffer
+    public StringBuilder appendTo(StringBuilder sb) {
+        return sb.append(code).append(" - ").append(name).append(" (").append(unitLoad).append(" units)");
+    }
+
     // toString method for easy display
     @Override
     public String toString() {
-        return code + " - " + name + " (" + unitLoad + " units)"; // Format course details
+        return appendTo(new StringBuilder(48)).toString(); // Format course details
     }
 }
 
@@ -64,10 +91,16 @@ class Student {
         return studentId; // Get student ID
     }
 
+    // Append student details to an existing buffer (avoids a temporary String per student)
+    public StringBuilder appendTo(StringBuilder sb) {
+        return sb.append("Student Name: ").append(name).append('\n')
+                 .append("Student ID: ").append(studentId);
+    }
+
     // toString method for easy display
     @Override
     public String toString() {
-        return "Student Name: " + name + "\nStudent ID: " + studentId; // Format student details
+        return appendTo(new StringBuilder(48)).toString(); // Format student details
     }
 }
 
@@ -85,6 +118,15 @@ class Registration {
         this.registeredCourses = new ArrayList<>(); // Initialize course list
     }
 
+    // Getters
+    public Student getStudent() {
+        return student; // Get the registered student
+    }
+
+    public List<Course> getRegisteredCourses() {
+        return Collections.unmodifiableList(registeredCourses); // Read-only view of the courses
+    }
+
     // Add a course to the registration
     public void addCourse(Course course) {
         registeredCourses.add(course); // Add course to the list
@@ -99,28 +141,226 @@ class Registration {
         return total; // Return total unit load
     }
 
-    // Display summary (student info, courses, total unit load)
-    public void displaySummary() {
-        System.out.println("=== Registration Summary ==="); // Start of summary
-        System.out.println("Student Information:"); // Display student information
-        System.out.println(student);
-        System.out.println("Registered Courses:"); // Display registered courses
-       // If no courses are registered, display a message
+    // Write the summary (student info, courses, total unit load) into a caller-supplied buffer
+    public StringBuilder appendSummary(StringBuilder sb) {
+        sb.append("=== Registration Summary ===\n"); // Start of summary
+        sb.append("Student Information:\n"); // Student information
+        student.appendTo(sb).append('\n');
+        sb.append("Registered Courses:\n"); // Registered courses
+        // If no courses are registered, write a message
         if (registeredCourses.isEmpty()) {
-            System.out.println("  None");
+            sb.append("  None\n");
         } else {
             for (Course c : registeredCourses) {
-                System.out.println("  " + c);
+                c.appendTo(sb.append("  ")).append('\n');
             }
         }
-        System.out.println("Total Unit Load: " + getTotalUnitLoad()); // Display total unit load
-        System.out.println("==========================="); // End of summary
+        sb.append("Total Unit Load: ").append(getTotalUnitLoad()).append('\n'); // Total unit load
+        sb.append("===========================\n"); // End of summary
+        return sb;
+    }
+
+    // Display summary (student info, courses, total unit load) with a single write to stdout
+    public void displaySummary() {
+        System.out.print(appendSummary(new StringBuilder(256)));
+    }
+}
+
+// TranscriptRenderer class: writes the summaries of many registrations to one file
+// Registrations are split into shards that are formatted in parallel, then written in their original order.
+class TranscriptRenderer {
+    private static final int DEFAULT_SHARD_SIZE = 2048; // Registrations formatted per task
+
+    private final int threads; // Number of formatting workers
+    private final int shardSize; // Registrations per shard
+    private final ThreadLocal<StringBuilder> builders; // One reusable builder per worker thread
+
+    // Constructor
+    public TranscriptRenderer(int threads) {
+        this(threads, DEFAULT_SHARD_SIZE);
+    }
+
+    public TranscriptRenderer(int threads, int shardSize) {
+        if (threads <= 0 || shardSize <= 0) { // Validate sizing
+            throw new IllegalArgumentException("Thread count and shard size must be greater than zero.");
+        }
+        this.threads = threads;
+        this.shardSize = shardSize;
+        this.builders = ThreadLocal.withInitial(() -> new StringBuilder(shardSize * 256));
+    }
+
+    // Render every registration to the target file, replacing its contents
+    public RenderStats render(List<Registration> registrations, Path target) throws IOException {
+        long start = System.nanoTime();
+        long bytesWritten = 0;
+        int maxInFlight = threads * 2; // Bounds memory held by formatted-but-unwritten shards
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Deque<Future<ByteBuffer>> pending = new ArrayDeque<>(); // Shards in submission order
+            for (int from = 0; from < registrations.size(); from += shardSize) {
+                List<Registration> shard = registrations.subList(from, Math.min(from + shardSize, registrations.size()));
+                pending.addLast(workers.submit(() -> formatShard(shard)));
+                if (pending.size() >= maxInFlight) {
+                    bytesWritten += writeFully(channel, await(pending.removeFirst()));
+                }
+            }
+            while (!pending.isEmpty()) { // Drain the remaining shards in order
+                bytesWritten += writeFully(channel, await(pending.removeFirst()));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return new RenderStats(registrations.size(), bytesWritten, System.nanoTime() - start);
+    }
+
+    // Format one shard with the calling worker's reusable builder
+    private ByteBuffer formatShard(List<Registration> shard) {
+        StringBuilder sb = builders.get();
+        sb.setLength(0); // Reuse the builder's backing array
+        for (Registration registration : shard) {
+            registration.appendSummary(sb);
+        }
+        return StandardCharsets.UTF_8.encode(CharBuffer.wrap(sb));
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> shard) throws IOException {
+        try {
+            return shard.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transcript rendering was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to format a transcript shard.", e.getCause());
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return length;
+    }
+}
+
+// RenderStats class: throughput report for one rendering run
+class RenderStats {
+    private final int registrations; // Registrations rendered
+    private final long bytes; // Bytes written to the file
+    private final long elapsedNanos; // Wall-clock time of the run
+
+    public RenderStats(int registrations, long bytes, long elapsedNanos) {
+        this.registrations = registrations;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getRegistrations() {
+        return registrations;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getRegistrationsPerSecond() {
+        return registrations / (Math.max(elapsedNanos, 1) / 1_000_000_000.0);
+    }
+
+    public double getMegabytesPerSecond() {
+        return (bytes / (1024.0 * 1024.0)) / (Math.max(elapsedNanos, 1) / 1_000_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d registrations, %.1f MB in %.1f ms (%.0f registrations/s, %.1f MB/s)",
+                registrations, bytes / (1024.0 * 1024.0), elapsedNanos / 1_000_000.0,
+                getRegistrationsPerSecond(), getMegabytesPerSecond());
+    }
+}
+
+// RegistrationSnapshot class: saves a term's registrations to one compact binary file and restores them
+// Courses are shared by many registrations, so each distinct course is written once, where it first
+// appears, and registrations refer to it by position; restored registrations share course objects the same way.
+class RegistrationSnapshot {
+    private static final String KIND = "registrations"; // What the file holds, checked on restore
+
+    private RegistrationSnapshot() {
+    }
+
+    // Write every registration in order; returns the size of the snapshot in bytes
+    public static long write(List<Registration> registrations, Path path) throws IOException {
+        Map<Course, Integer> positions = new IdentityHashMap<>();
+        try (SnapshotWriter out = SnapshotWriter.create(path, KIND)) {
+            out.writeVarInt(registrations.size());
+            for (Registration registration : registrations) {
+                out.writeString(registration.getStudent().getName());
+                out.writeString(registration.getStudent().getStudentId());
+                List<Course> courses = registration.getRegisteredCourses();
+                out.writeVarInt(courses.size());
+                for (Course course : courses) {
+                    Integer position = positions.get(course);
+                    if (position == null) { // First time this course appears: 0, then the course itself
+                        positions.put(course, positions.size());
+                        out.writeVarInt(0);
+                        out.writeString(course.getName());
+                        out.writeString(course.getCode());
+                        out.writeVarInt(course.getUnitLoad());
+                    } else {
+                        out.writeVarInt(position + 1);
+                    }
+                }
+            }
+            long size = out.size();
+            out.commit();
+            return size;
+        }
+    }
+
+    // Read back the registrations of a snapshot, in the order they were written
+    public static List<Registration> read(Path path) throws IOException {
+        try (SnapshotReader in = SnapshotReader.open(path, KIND)) {
+            int count = in.readVarInt();
+            List<Registration> registrations = new ArrayList<>(count);
+            List<Course> courses = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Registration registration = new Registration(new Student(in.readString(), in.readString()));
+                int courseCount = in.readVarInt();
+                for (int c = 0; c < courseCount; c++) {
+                    int reference = in.readVarInt();
+                    if (reference == 0) {
+                        courses.add(new Course(in.readString(), in.readString(), in.readVarInt()));
+                        reference = courses.size();
+                    } else if (reference > courses.size()) {
+                        throw new IOException("Snapshot " + path + " refers to a course it has not defined.");
+                    }
+                    registration.addCourse(courses.get(reference - 1));
+                }
+                registrations.add(registration);
+            }
+            if (!in.atEnd()) {
+                throw new IOException("Snapshot " + path + " has data after its last registration.");
+            }
+            return registrations;
+        }
     }
 }
 
 // Main class to demonstrate functionality
 public class UniversityManagementSystem {
     public static void main(String[] args) {
+        // Snapshot benchmark mode, e.g. "java UniversityManagementSystem snapshot 2000000 registrations.snapshot"
+        if (args.length > 0 && args[0].equals("snapshot")) {
+            runSnapshotBenchmark(args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000,
+                                 Paths.get(args.length > 2 ? args[2] : "registrations.snapshot"));
+            return;
+        }
+
         // Create some courses
         Course math = new Course("Introduction to Programming ", "CSC 235", 3);
         Course physics = new Course("Web programming", "CSC 293", 4);
@@ -137,5 +377,70 @@ public class UniversityManagementSystem {
 
         // Display registration summary
         registration.displaySummary(); // Show all registered courses and total unit load
+
+        // Render a whole-term transcript dump when a student count is given, e.g. "java UniversityManagementSystem 1000000"
+        if (args.length > 0) {
+            List<Registration> term = buildTerm(Integer.parseInt(args[0]), new Course[] {math, physics, programming});
+            Path output = Paths.get(args.length > 1 ? args[1] : "transcripts.txt");
+            try {
+                RenderStats stats = new TranscriptRenderer(Runtime.getRuntime().availableProcessors()).render(term, output);
+                System.out.println("Transcripts written to " + output + ": " + stats);
+            } catch (IOException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+    }
+
+    // Build a term of registrations the way a registration drive would, one student at a time
+    private static List<Registration> buildTerm(int studentCount, Course[] catalog) {
+        List<Registration> term = new ArrayList<>(studentCount);
+        for (int i = 0; i < studentCount; i++) {
+            Registration r = new Registration(new Student("Student " + i, "E" + i));
+            for (int c = 0; c <= i % catalog.length; c++) {
+                r.addCourse(catalog[c]);
+            }
+            term.add(r);
+        }
+        return term;
+    }
+
+    // Time building a term from code against saving and restoring it; the restored term must save identically
+    private static void runSnapshotBenchmark(int studentCount, Path path) {
+        Course[] catalog = new Course[6]; // One to six courses per student, as in the transcript run
+        for (int c = 0; c < catalog.length; c++) {
+            catalog[c] = new Course("Course " + c, "CSC " + (100 + c), 1 + c % 4);
+        }
+        try {
+            long start = System.nanoTime();
+            List<Registration> term = buildTerm(studentCount, catalog);
+            double buildSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Built %,d registrations from code in %.2f s%n", term.size(), buildSeconds);
+
+            start = System.nanoTime();
+            long bytes = RegistrationSnapshot.write(term, path);
+            double writeSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Snapshot written in %.2f s: %.1f MB, %.1f bytes per registration, %.0f MB/s%n",
+                    writeSeconds, bytes / 1e6, (double) bytes / term.size(), bytes / 1e6 / writeSeconds);
+            term = null; // Restore into an empty heap, like a process starting up
+            System.gc();
+
+            start = System.nanoTime();
+            List<Registration> restored = RegistrationSnapshot.read(path);
+            double restoreSeconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Restored %,d registrations in %.2f s (%.1fx the speed of building)%n",
+                    restored.size(), restoreSeconds, buildSeconds / restoreSeconds);
+
+            Path copy = path.resolveSibling(path.getFileName() + ".copy");
+            RegistrationSnapshot.write(restored, copy);
+            long mismatch = Files.mismatch(path, copy);
+            Files.delete(copy);
+            Files.delete(path);
+            if (mismatch != -1) {
+                throw new IllegalStateException("The restored term does not save identically.");
+            }
+            System.out.println("Restored term saves byte for byte the same");
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,64 @@
+package com.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, such as completed purchases or rejected withdrawals.
+ * Backed by a {@link LongAdder}, so many threads can increment it without contending on one
+ * memory location. Does nothing when metrics are disabled.
+ */
+public class Counter {
+    private final String name;
+    private final long createdNanos;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+        this.createdNanos = System.nanoTime();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment() {
+        if (Metrics.ENABLED) {
+            count.increment();
+        }
+    }
+
+    /**
+     * Adds to the count.
+     * @param amount The amount to add. Must not be negative.
+     */
+    public void add(long amount) {
+        if (Metrics.ENABLED) {
+            count.add(amount);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the average rate since the counter was created.
+     * @return Events per second.
+     */
+    public double getRatePerSecond() {
+        double seconds = (System.nanoTime() - createdNanos) / 1e9;
+        return seconds <= 0 ? 0 : count.sum() / seconds;
+    }
+
+    /**
+     * Appends this counter as one line of the text report.
+     * @param out The builder to append to.
+     */
+    void appendTo(StringBuilder out) {
+        out.append(name).append(" count=").append(getCount())
+           .append(String.format(" rate=%.1f/s", getRatePerSecond())).append('\n');
+    }
+}
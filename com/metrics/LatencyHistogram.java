@@ -0,0 +1,149 @@
+package com.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Fixed-memory latency histogram in the style of HdrHistogram.
+ *
+ * Values below 128 ns get a bucket each. Above that, every power-of-two range is split into 64
+ * linear sub-buckets, so any recorded value is reported to within 1.6%. All values from 1 ns to
+ * 2^62 ns fit in 3,712 buckets (about 29 KB), and recording is a few shifts plus one atomic add.
+ * Count and mean are derived from the buckets when read, so recording touches nothing else but
+ * the running maximum, which is only written when it grows.
+ * Does nothing when metrics are disabled.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 128; // One bucket per nanosecond below this
+    private static final int SUB_BUCKETS = 64;     // Linear sub-buckets per power of two above it
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + 56 * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records the time elapsed since a start time taken with {@link Metrics#startTimer()}.
+     * @param startNanos The start time.
+     */
+    public void recordSince(long startNanos) {
+        if (Metrics.ENABLED) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records one latency.
+     * @param nanos The latency in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (Metrics.ENABLED) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucketOf(value));
+            maxNanos.accumulate(value);
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the mean latency, taking each recorded value as the middle of its bucket.
+     * @return The mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMeanNanos() {
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long inBucket = counts.get(i);
+            if (inBucket != 0) {
+                count += inBucket;
+                total += inBucket * ((lowestValueIn(i) + highestValueIn(i)) / 2.0);
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Returns the latency at or below which the given fraction of recorded values fall.
+     * Taken while other threads record, the result reflects roughly the moment of the call.
+     *
+     * @param fraction The percentile as a fraction, for example 0.99.
+     * @return The upper edge of the bucket holding that percentile, in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double fraction) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Appends this histogram as one line of the text report, in microseconds.
+     * @param out The builder to append to.
+     */
+    void appendTo(StringBuilder out) {
+        out.append(name).append(" count=").append(getCount())
+           .append(String.format(" mean=%.2fus p50=%.2fus p99=%.2fus p999=%.2fus max=%.2fus",
+                                 getMeanNanos() / 1e3, getPercentileNanos(0.50) / 1e3, getPercentileNanos(0.99) / 1e3,
+                                 getPercentileNanos(0.999) / 1e3, getMaxNanos() / 1e3))
+           .append('\n');
+    }
+
+    static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 57 - Long.numberOfLeadingZeros(value); // Leaves the top 7 bits: 64 to 127
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long lowestValueIn(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return top << shift;
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
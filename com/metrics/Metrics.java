@@ -0,0 +1,141 @@
+package com.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of named counters and latency histograms for the hot paths of every
+ * application in this repository (purchases, borrowing, withdrawals, payroll).
+ *
+ * Typical use keeps the metric in a static field and times the operation:
+ * <pre>
+ *     private static final LatencyHistogram WITHDRAW = Metrics.histogram("bank.withdraw");
+ *     ...
+ *     long start = Metrics.startTimer();
+ *     ...
+ *     WITHDRAW.recordSince(start);
+ * </pre>
+ *
+ * Run with {@code -Dmetrics.enabled=false} to turn all recording off. {@link #ENABLED} is a
+ * static final constant, so the JIT compiler removes every guarded recording call and the timer
+ * reads, leaving the instrumented code as fast as the uninstrumented one.
+ *
+ * Snapshots can be read in code, as a text report ({@link #report()}), through JMX
+ * ({@link #registerMBean()}), or from a local HTTP endpoint ({@link #startTextEndpoint(int)}).
+ */
+public final class Metrics {
+    /**
+     * Whether metrics are recorded. Read once, from the {@code metrics.enabled} system property.
+     */
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("metrics.enabled"));
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     * @param name The metric name, for example {@code "store.order.purchases"}.
+     * @return The counter.
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Returns the latency histogram with the given name, creating it on first use.
+     * @param name The metric name, for example {@code "bank.withdraw"}.
+     * @return The histogram.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Returns a start time for {@link LatencyHistogram#recordSince(long)}, or 0 without reading
+     * the clock when metrics are disabled.
+     * @return The current {@link System#nanoTime()}.
+     */
+    public static long startTimer() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Renders every metric as one line of text, sorted by name.
+     * @return The report.
+     */
+    public static String report() {
+        StringBuilder out = new StringBuilder();
+        if (!ENABLED) {
+            out.append("# metrics disabled (-Dmetrics.enabled=false)\n");
+        }
+        for (Counter counter : new TreeMap<>(counters).values()) {
+            counter.appendTo(out);
+        }
+        for (LatencyHistogram histogram : new TreeMap<>(histograms).values()) {
+            histogram.appendTo(out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Publishes all metrics, including ones created later, as attributes of the JMX bean
+     * {@code com.metrics:type=Metrics}, for JConsole or any other JMX client.
+     * Registering more than once has no further effect.
+     *
+     * @throws IllegalStateException if the platform MBean server rejects the bean.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("com.metrics:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsDynamicMBean(), name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics MBean.", e);
+        }
+    }
+
+    /**
+     * Serves {@link #report()} as plain text at {@code http://127.0.0.1:<port>/metrics}.
+     * The endpoint only listens on the loopback interface.
+     *
+     * @param port The port, or 0 to pick a free one.
+     * @return The running server; call {@code stop(0)} on it to shut it down.
+     * @throws IOException if the port cannot be bound.
+     */
+    public static HttpServer startTextEndpoint(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    static Map<String, Counter> counters() {
+        return counters;
+    }
+
+    static Map<String, LatencyHistogram> histograms() {
+        return histograms;
+    }
+}
@@ -0,0 +1,110 @@
+package com.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Read-only JMX view of the metrics registry. Its attribute list is rebuilt on every request,
+ * so metrics created after registration appear without re-registering.
+ * Counters expose {@code <name>.count}; histograms expose {@code <name>.count},
+ * {@code <name>.p50Micros}, {@code <name>.p99Micros}, {@code <name>.p999Micros} and {@code <name>.maxMicros}.
+ */
+class MetricsDynamicMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        int dot = attribute.lastIndexOf('.');
+        if (dot < 0) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        String name = attribute.substring(0, dot);
+        String field = attribute.substring(dot + 1);
+        Counter counter = Metrics.counters().get(name);
+        if (counter != null && field.equals("count")) {
+            return counter.getCount();
+        }
+        LatencyHistogram histogram = Metrics.histograms().get(name);
+        if (histogram != null) {
+            switch (field) {
+                case "count":
+                    return histogram.getCount();
+                case "p50Micros":
+                    return histogram.getPercentileNanos(0.50) / 1e3;
+                case "p99Micros":
+                    return histogram.getPercentileNanos(0.99) / 1e3;
+                case "p999Micros":
+                    return histogram.getPercentileNanos(0.999) / 1e3;
+                case "maxMicros":
+                    return histogram.getMaxNanos() / 1e3;
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Skipped, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("report")) {
+            return Metrics.report();
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : new TreeMap<>(Metrics.counters()).keySet()) {
+            attributes.add(readOnly(name + ".count", "long"));
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(Metrics.histograms()).entrySet()) {
+            attributes.add(readOnly(entry.getKey() + ".count", "long"));
+            for (String field : new String[]{"p50Micros", "p99Micros", "p999Micros", "maxMicros"}) {
+                attributes.add(readOnly(entry.getKey() + "." + field, "double"));
+            }
+        }
+        MBeanOperationInfo report = new MBeanOperationInfo("report", "All metrics as text", new MBeanParameterInfo[0],
+                                                           "java.lang.String", MBeanOperationInfo.INFO);
+        return new MBeanInfo(getClass().getName(), "Application metrics",
+                             attributes.toArray(new MBeanAttributeInfo[0]), null,
+                             new MBeanOperationInfo[]{report}, null);
+    }
+
+    private static MBeanAttributeInfo readOnly(String name, String type) {
+        return new MBeanAttributeInfo(name, type, name, true, false, false);
+    }
+}
@@ -0,0 +1,83 @@
+package com.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures what instrumentation adds to a small operation, with metrics enabled and disabled.
+ * Each mode runs in its own JVM, because {@link Metrics#ENABLED} is fixed when the class loads.
+ * Every measurement is repeated after warm-up and the fastest round is reported, which is the
+ * figure least disturbed by garbage collection and other processes.
+ * Usage: java com.metrics.MetricsOverheadBenchmark [operationsPerRound]
+ */
+public class MetricsOverheadBenchmark {
+    private static final LatencyHistogram LATENCY = Metrics.histogram("benchmark.operation");
+    private static final Counter COUNT = Metrics.counter("benchmark.operations");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String operations = args.length > 0 ? args[0] : "20000000";
+        if (args.length > 1 && args[1].equals("child")) {
+            measure(Integer.parseInt(operations));
+            return;
+        }
+        for (String enabled : new String[]{"true", "false"}) {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            List<String> command = Arrays.asList(java, "-Dmetrics.enabled=" + enabled, "-cp",
+                                                 System.getProperty("java.class.path"),
+                                                 MetricsOverheadBenchmark.class.getName(), operations, "child");
+            Process child = new ProcessBuilder(command).inheritIO().start();
+            if (child.waitFor() != 0) {
+                throw new IllegalStateException("Benchmark child exited with " + child.exitValue() + ".");
+            }
+        }
+    }
+
+    private static void measure(int operations) {
+        long[] data = new long[1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i * 0x9E3779B97F4A7C15L;
+        }
+        long bestPlain = Long.MAX_VALUE;
+        long bestInstrumented = Long.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                sink += work(data, i);
+            }
+            bestPlain = Math.min(bestPlain, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < operations; i++) {
+                sink += instrumentedWork(data, i);
+            }
+            bestInstrumented = Math.min(bestInstrumented, System.nanoTime() - start);
+        }
+        double plain = (double) bestPlain / operations;
+        double instrumented = (double) bestInstrumented / operations;
+        System.out.printf("metrics.enabled=%-5s plain %6.2f ns/op, instrumented %6.2f ns/op, overhead %6.2f ns/op (sink %d)%n",
+                          Metrics.ENABLED, plain, instrumented, instrumented - plain, sink & 1);
+        if (Metrics.ENABLED) {
+            System.out.print(Metrics.report());
+        }
+    }
+
+    // Stands in for a short hot-path operation such as a balance update.
+    private static long work(long[] data, int i) {
+        long value = data[i & 1023];
+        value ^= value >>> 31;
+        value *= 0xBF58476D1CE4E5B9L;
+        data[i & 1023] = value;
+        return value;
+    }
+
+    private static long instrumentedWork(long[] data, int i) {
+        long start = Metrics.startTimer();
+        long value = work(data, i);
+        COUNT.increment();
+        LATENCY.recordSince(start);
+        return value;
+    }
+}
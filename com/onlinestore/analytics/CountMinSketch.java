@@ -0,0 +1,70 @@
+package com.onlinestore.analytics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free frequency estimator.
+ * Each key is counted in one cell of every row; its estimate is the smallest of those cells,
+ * which can overcount because of collisions but never undercounts. Memory stays at
+ * {@code depth * width} counters no matter how many distinct keys are seen.
+ */
+public class CountMinSketch {
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xD3A2646C};
+
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counters;
+
+    /**
+     * Constructs a sketch.
+     *
+     * @param depth Number of rows, between 1 and 6. More rows lower the chance of a large overcount.
+     * @param width Counters per row, rounded up to a power of two. Wider rows lower the size of overcounts.
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("Sketch depth must be between 1 and " + SEEDS.length + ".");
+        }
+        if (width < 1 || width > (1 << 24)) {
+            throw new IllegalArgumentException("Sketch width must be between 1 and 16777216.");
+        }
+        int roundedWidth = Integer.highestOneBit(width) == width ? width : Integer.highestOneBit(width) << 1;
+        this.depth = depth;
+        this.mask = roundedWidth - 1;
+        this.counters = new AtomicLongArray(depth * roundedWidth);
+    }
+
+    /**
+     * Adds to the count of a key.
+     *
+     * @param key    The key.
+     * @param amount The amount to add. Must not be negative.
+     */
+    public void add(String key, long amount) {
+        int hash = key.hashCode();
+        for (int row = 0; row < depth; row++) {
+            counters.addAndGet(cell(row, hash), amount);
+        }
+    }
+
+    /**
+     * Returns the estimated count of a key, which is never below the true count.
+     *
+     * @param key The key.
+     * @return The estimate.
+     */
+    public long estimate(String key) {
+        int hash = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters.get(cell(row, hash)));
+        }
+        return min;
+    }
+
+    private int cell(int row, int hash) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 15;
+        return row * (mask + 1) + (h & mask);
+    }
+}
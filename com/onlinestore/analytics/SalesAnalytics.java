@@ -0,0 +1,238 @@
+package com.onlinestore.analytics;
+
+import com.onlinestore.model.Order;
+import com.onlinestore.model.Product;
+import com.onlinestore.model.PurchaseListener;
+
+import java.time.Clock;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps running sales figures up to date as orders are purchased, so dashboard queries read
+ * pre-aggregated values instead of walking every customer's order history.
+ *
+ * All updates are lock-free: totals use {@link LongAdder}s, per-product figures are estimated
+ * with count-min sketches, and the best-selling products are tracked as a small set of
+ * heavy-hitter candidates. Money is counted in cents.
+ *
+ * Register an instance with {@link Order#addPurchaseListener(PurchaseListener)}.
+ */
+public class SalesAnalytics implements PurchaseListener {
+    private static final int HOURS_KEPT = 48;
+
+    private final Clock clock;
+    private final int topCapacity; // Heavy-hitter candidates kept between trims
+    private final LongAdder orderCount = new LongAdder();
+    private final LongAdder unitsSold = new LongAdder();
+    private final LongAdder revenueCents = new LongAdder(); // After discounts
+    private final LongAdder discountCents = new LongAdder();
+    private final Map<String, LongAdder> revenueCentsByCustomer = new ConcurrentHashMap<>();
+    private final CountMinSketch unitsByProduct;
+    private final CountMinSketch revenueCentsByProduct;
+    private final Map<String, Long> topCandidates = new ConcurrentHashMap<>(); // Product ID to last estimate
+    private final Map<Long, HourBucket> hourlyBuckets = new ConcurrentHashMap<>(); // Keyed by hours since the epoch
+
+    /**
+     * Constructs an analytics aggregator.
+     *
+     * @param clock       The clock used to place purchases in hourly buckets.
+     * @param maxTopItems The largest {@code k} that {@link #getTopProducts(int)} will be asked for.
+     */
+    public SalesAnalytics(Clock clock, int maxTopItems) {
+        if (clock == null || maxTopItems <= 0) {
+            throw new IllegalArgumentException("Clock cannot be null and top item count must be positive.");
+        }
+        this.clock = clock;
+        this.topCapacity = maxTopItems * 4;
+        this.unitsByProduct = new CountMinSketch(4, 1 << 16);
+        this.revenueCentsByProduct = new CountMinSketch(4, 1 << 16);
+    }
+
+    /**
+     * Records a purchased order. Called by {@link Order#purchase()}.
+     * @param order The purchased order.
+     */
+    @Override
+    public void onPurchase(Order order) {
+        long finalCents = toCents(order.getFinalTotalAmount());
+        List<Product> products = order.getProducts();
+
+        orderCount.increment();
+        unitsSold.add(products.size());
+        revenueCents.add(finalCents);
+        discountCents.add(toCents(order.getDiscountApplied()));
+        revenueCentsByCustomer.computeIfAbsent(order.getCustomer().getId(), id -> new LongAdder()).add(finalCents);
+
+        // Collapse repeated units so each product is counted once per order.
+        Map<String, long[]> perProduct = new HashMap<>(); // Product ID to {units, cents}
+        for (Product product : products) {
+            long[] totals = perProduct.computeIfAbsent(product.getId(), id -> new long[2]);
+            totals[0]++;
+            totals[1] += toCents(product.getPrice());
+        }
+        for (Map.Entry<String, long[]> entry : perProduct.entrySet()) {
+            unitsByProduct.add(entry.getKey(), entry.getValue()[0]);
+            revenueCentsByProduct.add(entry.getKey(), entry.getValue()[1]);
+            offerTopCandidate(entry.getKey());
+        }
+
+        HourBucket bucket = bucketFor(currentHour());
+        bucket.orders.increment();
+        bucket.revenueCents.add(finalCents);
+    }
+
+    // --- Dashboard queries ---
+
+    public long getOrderCount() {
+        return orderCount.sum();
+    }
+
+    public long getUnitsSold() {
+        return unitsSold.sum();
+    }
+
+    /**
+     * Returns total revenue after discounts.
+     * @return Revenue in dollars.
+     */
+    public double getTotalRevenue() {
+        return revenueCents.sum() / 100.0;
+    }
+
+    /**
+     * Returns the total of all discounts given.
+     * @return Discounts in dollars.
+     */
+    public double getTotalDiscounts() {
+        return discountCents.sum() / 100.0;
+    }
+
+    /**
+     * Returns a customer's total spend after discounts.
+     * @param customerId The customer's ID.
+     * @return Revenue in dollars, 0 if the customer has bought nothing.
+     */
+    public double getRevenueForCustomer(String customerId) {
+        LongAdder revenue = revenueCentsByCustomer.get(customerId);
+        return revenue == null ? 0 : revenue.sum() / 100.0;
+    }
+
+    /**
+     * Returns the estimated units sold of a product. The estimate may be slightly high, never low.
+     * @param productId The product's ID.
+     * @return Estimated units.
+     */
+    public long getEstimatedUnitsForProduct(String productId) {
+        return unitsByProduct.estimate(productId);
+    }
+
+    /**
+     * Returns the estimated revenue of a product before order discounts. The estimate may be slightly high, never low.
+     * @param productId The product's ID.
+     * @return Estimated revenue in dollars.
+     */
+    public double getEstimatedRevenueForProduct(String productId) {
+        return revenueCentsByProduct.estimate(productId) / 100.0;
+    }
+
+    /**
+     * Returns the best-selling products by estimated units.
+     * @param k How many products to return; at most the {@code maxTopItems} given to the constructor.
+     * @return Up to {@code k} product IDs with their estimated units, best first.
+     */
+    public List<Map.Entry<String, Long>> getTopProducts(int k) {
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+        for (String productId : topCandidates.keySet()) {
+            ranked.add(new AbstractMap.SimpleImmutableEntry<>(productId, unitsByProduct.estimate(productId)));
+        }
+        ranked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return ranked.subList(0, Math.min(k, ranked.size()));
+    }
+
+    /**
+     * Returns revenue per hour for the most recent hours, oldest first, ending with the current hour.
+     * @param hours How many hours to return, at most 48.
+     * @return Revenue in dollars per hour.
+     */
+    public double[] getHourlyRevenue(int hours) {
+        int count = Math.min(hours, HOURS_KEPT);
+        long now = currentHour();
+        double[] revenue = new double[count];
+        for (int i = 0; i < count; i++) {
+            HourBucket bucket = hourlyBuckets.get(now - count + 1 + i);
+            revenue[i] = bucket == null ? 0 : bucket.revenueCents.sum() / 100.0;
+        }
+        return revenue;
+    }
+
+    /**
+     * Returns the number of orders per hour for the most recent hours, oldest first, ending with the current hour.
+     * @param hours How many hours to return, at most 48.
+     * @return Orders per hour.
+     */
+    public long[] getHourlyOrderCounts(int hours) {
+        int count = Math.min(hours, HOURS_KEPT);
+        long now = currentHour();
+        long[] orders = new long[count];
+        for (int i = 0; i < count; i++) {
+            HourBucket bucket = hourlyBuckets.get(now - count + 1 + i);
+            orders[i] = bucket == null ? 0 : bucket.orders.sum();
+        }
+        return orders;
+    }
+
+    // --- Internals ---
+
+    private void offerTopCandidate(String productId) {
+        long estimate = unitsByProduct.estimate(productId);
+        topCandidates.put(productId, estimate);
+        if (topCandidates.size() > topCapacity) {
+            trimTopCandidates();
+        }
+    }
+
+    // Keeps the stronger half of the candidates. Runs rarely, so a lock here does not slow recording.
+    private synchronized void trimTopCandidates() {
+        if (topCandidates.size() <= topCapacity) {
+            return; // Another thread trimmed first.
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(topCandidates.entrySet());
+        entries.sort(Comparator.comparingLong(Map.Entry::getValue));
+        for (int i = 0; i < entries.size() - topCapacity / 2; i++) {
+            topCandidates.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        }
+    }
+
+    private HourBucket bucketFor(long hour) {
+        HourBucket bucket = hourlyBuckets.get(hour);
+        if (bucket == null) {
+            bucket = hourlyBuckets.computeIfAbsent(hour, h -> new HourBucket());
+            hourlyBuckets.keySet().removeIf(h -> h <= hour - HOURS_KEPT); // Once per new hour
+        }
+        return bucket;
+    }
+
+    private long currentHour() {
+        return TimeUnit.MILLISECONDS.toHours(clock.millis());
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * Sales recorded within one clock hour.
+     */
+    private static final class HourBucket {
+        final LongAdder orders = new LongAdder();
+        final LongAdder revenueCents = new LongAdder();
+    }
+}
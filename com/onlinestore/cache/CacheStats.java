@@ -0,0 +1,68 @@
+package com.onlinestore.cache;
+
+/**
+ * Immutable snapshot of a cache's counters.
+ */
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long evictionCount;
+    private final long expirationCount;
+
+    public CacheStats(long hitCount, long missCount, long loadCount, long evictionCount, long expirationCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns how many times the loader was called. This can be lower than the miss count when
+     * concurrent misses on the same key share one load.
+     * @return The load count.
+     */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Returns how many entries were dropped to stay within the size limit.
+     * @return The eviction count.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns how many entries were dropped because they outlived the expiry time.
+     * @return The expiration count.
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Returns the fraction of lookups served from the cache.
+     * @return The hit rate between 0 and 1, or 1 if there were no lookups.
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CacheStats{hits=%d, misses=%d, hitRate=%.1f%%, loads=%d, evictions=%d, expirations=%d}",
+                             hitCount, missCount, getHitRate() * 100, loadCount, evictionCount, expirationCount);
+    }
+}
@@ -0,0 +1,75 @@
+package com.onlinestore.cache;
+
+/**
+ * Approximate access-frequency counter used by {@link TinyLfuCache} to decide which entries to admit.
+ * Each key has four 4-bit counters in one 64-bit word, so the sketch uses 8 bytes per cached entry.
+ * When the number of recorded accesses reaches ten times the cache size, every counter is halved.
+ * This ages out keys that were popular long ago so that newly popular keys can get in.
+ *
+ * Not thread-safe; the cache only calls it while holding its policy lock.
+ */
+final class FrequencySketch {
+    private static final long RESET_MASK = 0x7777777777777777L; // Clears the high bit of every counter after a shift
+    private static final long[] SEEDS = {0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long maximumSize) {
+        int words = (int) Math.min(1 << 30, Math.max(8, Long.highestOneBit(Math.max(1, maximumSize - 1)) << 1));
+        this.table = new long[words];
+        this.mask = words - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(1, maximumSize));
+    }
+
+    /**
+     * Returns the estimated access count of a key, from 0 to 15.
+     */
+    int frequency(int hash) {
+        int spread = spread(hash);
+        int word = spread & mask;
+        int start = (spread >>> 24) & 3; // Picks which 4 of the 16 counters in the word belong to this key
+        int min = 15;
+        for (int i = 0; i < 4; i++) {
+            int counter = indexOf(spread, i);
+            min = Math.min(min, (int) ((table[word] >>> ((((start + i) & 3) << 2) + (counter << 4))) & 0xF));
+        }
+        return min;
+    }
+
+    /**
+     * Records one access of a key, halving all counters once the sample period is over.
+     */
+    void increment(int hash) {
+        int spread = spread(hash);
+        int word = spread & mask;
+        int start = (spread >>> 24) & 3;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int counter = indexOf(spread, i);
+            int shift = (((start + i) & 3) << 2) + (counter << 4);
+            if (((table[word] >>> shift) & 0xF) != 0xF) {
+                table[word] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+    }
+
+    private static int indexOf(int spread, int i) {
+        long h = (spread + SEEDS[i]) * SEEDS[i];
+        return (int) ((h + (h >>> 32)) & 3); // Which of the four 16-bit lanes in the word
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
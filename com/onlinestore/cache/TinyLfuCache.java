@@ -0,0 +1,351 @@
+package com.onlinestore.cache;
+
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Bounded, concurrent, read-through cache with W-TinyLFU eviction.
+ *
+ * New entries land in a small LRU "window" (1% of the capacity). When the window overflows, its
+ * oldest entry competes for a place in the main space against the main space's next victim.
+ * Whichever has been accessed more often, according to a {@link FrequencySketch}, stays. The main
+ * space is a segmented LRU: entries start in "probation" and move to "protected" (80% of the main
+ * space) when they are read again. This keeps a skewed workload's hot keys cached even when long
+ * runs of one-off lookups pass through.
+ *
+ * Lookups read a {@link ConcurrentHashMap} without locking. Eviction bookkeeping runs under one
+ * lock. A hit only records itself when that lock is free, so hits never wait behind each other;
+ * under heavy contention some accesses go unrecorded, which only makes the frequencies slightly
+ * less exact.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class TinyLfuCache<K, V> {
+    private static final int NONE = 0;
+    private static final int WINDOW = 1;
+    private static final int PROBATION = 2;
+    private static final int PROTECTED = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final Function<? super K, ? extends Optional<? extends V>> loader;
+    private final long maximumSize;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final long expireAfterWriteMillis;
+    private final Clock clock;
+
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessOrder<K, V> window = new AccessOrder<>();
+    private final AccessOrder<K, V> probation = new AccessOrder<>();
+    private final AccessOrder<K, V> protectedSegment = new AccessOrder<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Constructs a cache.
+     *
+     * @param maximumSize            The maximum number of entries. Must be at least 2.
+     * @param expireAfterWriteMillis How long an entry is served after it was loaded, or 0 to never expire. Cannot be negative.
+     * @param clock                  The clock used for expiry. Cannot be null.
+     * @param loader                 Loads a value on a miss, for example {@code catalog::findById}. An empty result
+     *                               is returned to the caller but not cached. Cannot be null.
+     */
+    public TinyLfuCache(long maximumSize, long expireAfterWriteMillis, Clock clock,
+                        Function<? super K, ? extends Optional<? extends V>> loader) {
+        if (maximumSize < 2 || expireAfterWriteMillis < 0) {
+            throw new IllegalArgumentException("Cache size must be at least 2 and expiry cannot be negative.");
+        }
+        if (clock == null || loader == null) {
+            throw new IllegalArgumentException("Clock and loader cannot be null for a cache.");
+        }
+        this.data = new ConcurrentHashMap<>();
+        this.loader = loader;
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (maximumSize - windowMaximum) * 8 / 10;
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+        this.clock = clock;
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * Returns the value for a key, loading it on a miss or when the cached copy has expired.
+     * Concurrent misses on the same key share a single load.
+     *
+     * @param key The key. Cannot be null.
+     * @return The value, or an empty Optional if the loader found nothing.
+     */
+    public Optional<V> get(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Cache key cannot be null.");
+        }
+        long now = clock.millis();
+        Node<K, V> node = data.get(key);
+        if (node != null && !isExpired(node, now)) {
+            hits.increment();
+            if (policyLock.tryLock()) {
+                try {
+                    onAccess(node);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return Optional.of(node.value);
+        }
+
+        misses.increment();
+        Load<K, V> load = new Load<>();
+        Node<K, V> current = data.compute(key, (k, existing) -> {
+            if (existing != null && !isExpired(existing, now)) {
+                return existing; // Another thread loaded it while we waited for the bin
+            }
+            load.expired = existing;
+            loads.increment();
+            Optional<? extends V> value = loader.apply(k);
+            if (!value.isPresent()) {
+                return null;
+            }
+            load.added = new Node<>(k, value.get(), now);
+            return load.added;
+        });
+        if (load.expired != null || load.added != null) {
+            policyLock.lock();
+            try {
+                if (load.expired != null) {
+                    unlink(load.expired);
+                    expirations.increment();
+                }
+                if (load.added != null && data.get(key) == load.added) { // Skip if replaced or invalidated since
+                    sketch.increment(load.added.hash);
+                    window.addLast(load.added, WINDOW);
+                    evictEntries();
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return current == null ? Optional.empty() : Optional.of(current.value);
+    }
+
+    /**
+     * Returns the cached value for a key without loading it.
+     *
+     * @param key The key.
+     * @return The cached value, or an empty Optional if it is not cached or has expired.
+     */
+    public Optional<V> getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        return node == null || isExpired(node, clock.millis()) ? Optional.empty() : Optional.of(node.value);
+    }
+
+    /**
+     * Drops the cached value for a key, so the next lookup loads it again.
+     * Call this when the underlying record changes.
+     *
+     * @param key The key.
+     */
+    public void invalidate(K key) {
+        Node<K, V> removed = data.remove(key);
+        if (removed != null) {
+            policyLock.lock();
+            try {
+                unlink(removed);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes every entry that has outlived the expiry time.
+     * @return The number of entries removed.
+     */
+    public int evictExpired() {
+        if (expireAfterWriteMillis == 0) {
+            return 0;
+        }
+        long now = clock.millis();
+        int removed = 0;
+        for (Iterator<Node<K, V>> it = data.values().iterator(); it.hasNext(); ) {
+            Node<K, V> node = it.next();
+            if (isExpired(node, now) && data.remove(node.key, node)) {
+                policyLock.lock();
+                try {
+                    unlink(node);
+                } finally {
+                    policyLock.unlock();
+                }
+                expirations.increment();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of cached entries, including any that have expired but not been removed yet.
+     * @return The entry count.
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns a snapshot of the hit, miss, load, eviction and expiration counters.
+     * @return The cache statistics.
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), expirations.sum());
+    }
+
+    private boolean isExpired(Node<K, V> node, long now) {
+        return expireAfterWriteMillis > 0 && now - node.writeMillis >= expireAfterWriteMillis;
+    }
+
+    // --- Eviction policy (called with policyLock held) ---
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == NONE) {
+            return; // Removed after the caller read it from the map
+        }
+        sketch.increment(node.hash);
+        if (node.queue == WINDOW) {
+            window.moveToBack(node);
+        } else if (node.queue == PROTECTED) {
+            protectedSegment.moveToBack(node);
+        } else {
+            probation.remove(node);
+            protectedSegment.addLast(node, PROTECTED);
+            if (protectedSegment.size > protectedMaximum) {
+                Node<K, V> demoted = protectedSegment.first();
+                protectedSegment.remove(demoted);
+                probation.addLast(demoted, PROBATION);
+            }
+        }
+    }
+
+    private void evictEntries() {
+        while (window.size > windowMaximum) {
+            Node<K, V> candidate = window.first();
+            window.remove(candidate);
+            if (window.size + probation.size + protectedSegment.size < maximumSize) {
+                probation.addLast(candidate, PROBATION); // Main space has room: admit without a contest
+                continue;
+            }
+            Node<K, V> victim = probation.size > 0 ? probation.first() : protectedSegment.first();
+            if (victim != null && sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                unlink(victim);
+                evict(victim);
+                probation.addLast(candidate, PROBATION);
+            } else {
+                evict(candidate);
+            }
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            evictions.increment();
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.remove(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else if (node.queue == PROTECTED) {
+            protectedSegment.remove(node);
+        }
+    }
+
+    /**
+     * A cached value. The queue and links are only touched with the policy lock held.
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int hash;
+        final long writeMillis;
+        int queue = NONE;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long writeMillis) {
+            this.key = key;
+            this.value = value;
+            this.hash = key.hashCode();
+            this.writeMillis = writeMillis;
+        }
+    }
+
+    /**
+     * What a load changed, recorded inside {@code compute} and applied to the policy afterwards.
+     */
+    private static final class Load<K, V> {
+        Node<K, V> expired;
+        Node<K, V> added;
+    }
+
+    /**
+     * Intrusive doubly linked list from least to most recently used.
+     */
+    private static final class AccessOrder<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        private long size;
+
+        Node<K, V> first() {
+            return head;
+        }
+
+        void addLast(Node<K, V> node, int queue) {
+            node.queue = queue;
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.queue = NONE;
+            size--;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != tail) {
+                int queue = node.queue;
+                remove(node);
+                addLast(node, queue);
+            }
+        }
+    }
+}
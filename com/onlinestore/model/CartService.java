@@ -0,0 +1,169 @@
+package com.onlinestore.model;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the active shopping carts of all customers and turns them into orders at checkout.
+ * The number of carts is bounded: carts left untouched for longer than the idle timeout are
+ * evicted, and when the limit is reached new carts are refused until eviction frees room.
+ * A place is reserved atomically as each cart is created, so the limit holds under concurrency.
+ * Each eviction scan notes when the oldest remaining cart will go idle; a refused cart triggers
+ * a scan only after that time, so refusals at the limit do not each cost a scan of every cart.
+ */
+public class CartService {
+    private final ProductCatalog catalog;
+    private final Map<String, ShoppingCart> cartsByCustomerId;
+    private final int maxCarts;
+    private final long idleTimeoutMillis;
+    private final Clock clock;
+    private final AtomicInteger cartCount; // Places taken; reserved before a cart is added, released after it is removed
+    private volatile long nextEvictionMillis; // No cart can have been idle long enough before this time
+
+    /**
+     * Constructs a cart service.
+     *
+     * @param catalog           The catalog carts are filled from. Cannot be null.
+     * @param maxCarts          The maximum number of carts held at once. Must be positive.
+     * @param idleTimeoutMillis How long a cart may go unused before it can be evicted. Must be positive.
+     * @param clock             The clock used to measure idle time. Cannot be null.
+     */
+    public CartService(ProductCatalog catalog, int maxCarts, long idleTimeoutMillis, Clock clock) {
+        if (catalog == null || clock == null) {
+            throw new IllegalArgumentException("Catalog and clock cannot be null for a cart service.");
+        }
+        if (maxCarts <= 0 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Cart limit and idle timeout must be positive.");
+        }
+        this.catalog = catalog;
+        this.cartsByCustomerId = new ConcurrentHashMap<>();
+        this.maxCarts = maxCarts;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.clock = clock;
+        this.cartCount = new AtomicInteger();
+    }
+
+    /**
+     * Returns the customer's cart, creating an empty one if needed.
+     *
+     * @param customer The customer. Cannot be null.
+     * @return The customer's active cart.
+     * @throws IllegalStateException if the cart limit is reached and no idle carts can be evicted.
+     */
+    public ShoppingCart getCart(Customer customer) {
+        if (customer == null) {
+            throw new IllegalArgumentException("Customer cannot be null.");
+        }
+        long now = clock.millis();
+        ShoppingCart cart = cartsByCustomerId.get(customer.getId());
+        if (cart == null) {
+            cart = cartsByCustomerId.computeIfAbsent(customer.getId(), id -> openCart(customer, now));
+            if (cart == null && now >= nextEvictionMillis && evictIdleCarts() > 0) {
+                cart = cartsByCustomerId.computeIfAbsent(customer.getId(), id -> openCart(customer, now));
+            }
+            if (cart == null) {
+                throw new IllegalStateException("Cart limit of " + maxCarts + " reached; try again later.");
+            }
+        }
+        cart.touch(now);
+        return cart;
+    }
+
+    // Creates a cart if a place is free, or returns null so that computeIfAbsent adds nothing
+    private ShoppingCart openCart(Customer customer, long now) {
+        int taken;
+        do {
+            taken = cartCount.get();
+            if (taken >= maxCarts) {
+                return null;
+            }
+        } while (!cartCount.compareAndSet(taken, taken + 1));
+        return new ShoppingCart(customer, catalog, now);
+    }
+
+    /**
+     * Returns the customer's cart if one is active.
+     * @param customerId The customer's ID.
+     * @return The cart, or an empty Optional.
+     */
+    public Optional<ShoppingCart> findCart(String customerId) {
+        return Optional.ofNullable(cartsByCustomerId.get(customerId));
+    }
+
+    /**
+     * Adds units of a product to the customer's cart.
+     *
+     * @param customer  The customer.
+     * @param productId The ID of the product.
+     * @param quantity  The number of units to add.
+     */
+    public void addItem(Customer customer, String productId, int quantity) {
+        getCart(customer).addItem(productId, quantity);
+    }
+
+    /**
+     * Removes units of a product from the customer's cart.
+     *
+     * @param customerId The customer's ID.
+     * @param productId  The ID of the product.
+     * @param quantity   The number of units to remove.
+     * @return The number of units actually removed.
+     */
+    public int removeItem(String customerId, String productId, int quantity) {
+        ShoppingCart cart = cartsByCustomerId.get(customerId);
+        if (cart == null) {
+            return 0;
+        }
+        cart.touch(clock.millis());
+        return cart.removeItem(productId, quantity);
+    }
+
+    /**
+     * Turns the customer's cart into a pending order and closes the cart.
+     *
+     * @param customerId The customer's ID.
+     * @return The new order; call {@link Order#purchase()} to complete it.
+     * @throws IllegalStateException if the customer has no cart or the cart is empty.
+     */
+    public Order checkout(String customerId) {
+        ShoppingCart cart = cartsByCustomerId.remove(customerId);
+        if (cart == null) {
+            throw new IllegalStateException("Customer " + customerId + " has no active cart.");
+        }
+        cartCount.decrementAndGet();
+        return cart.toOrder();
+    }
+
+    /**
+     * Removes every cart that has been idle for longer than the idle timeout.
+     * @return The number of carts evicted.
+     */
+    public int evictIdleCarts() {
+        long now = clock.millis();
+        long cutoff = now - idleTimeoutMillis;
+        long oldestKept = now; // Carts added from now on are newer still
+        int evicted = 0;
+        for (Map.Entry<String, ShoppingCart> entry : cartsByCustomerId.entrySet()) {
+            long lastAccess = entry.getValue().getLastAccessMillis();
+            if (lastAccess >= cutoff) {
+                oldestKept = Math.min(oldestKept, lastAccess);
+            } else if (cartsByCustomerId.remove(entry.getKey(), entry.getValue())) {
+                cartCount.decrementAndGet();
+                evicted++;
+            }
+        }
+        nextEvictionMillis = oldestKept + idleTimeoutMillis + 1; // When the oldest cart kept becomes evictable
+        return evicted;
+    }
+
+    /**
+     * Returns the number of active carts.
+     * @return The cart count.
+     */
+    public int getActiveCartCount() {
+        return cartsByCustomerId.size();
+    }
+}
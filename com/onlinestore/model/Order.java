@@ -1,11 +1,16 @@
 package com.onlinestore.model;
 
+import com.metrics.Counter;
+import com.metrics.LatencyHistogram;
+import com.metrics.Metrics;
+
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents an order placed by a customer, containing a list of products.
@@ -17,15 +22,21 @@ public class Order implements Purchasable {
     private Customer customer; // Aggregation: An order belongs to a customer
     private List<Product> products; // Aggregation: An order contains products
     private LocalDateTime orderDate;
-    private double subTotalAmount; // Total before discount
-    private double finalTotalAmount; // Total after discount
-    private boolean isPurchased; // Status flag for the order
-    private double discountApplied; // Amount of discount applied
+    private final double presetSubTotalAmount; // Subtotal supplied by the creator, or NaN to sum the products
+    private volatile Totals totals; // Computed on first use; most carts turned into orders are never priced
+    private volatile boolean isPurchased; // Status flag for the order; set once, through markPurchased
 
     // Constants for bonus discount logic
     private static final double DISCOUNT_THRESHOLD = 1000.0; // Amount above which discount applies
     private static final double DISCOUNT_PERCENTAGE = 0.10; // 10% discount
 
+    // Components notified of every completed purchase; read far more often than changed
+    private static final List<PurchaseListener> purchaseListeners = new CopyOnWriteArrayList<>();
+
+    // Hot-path metrics for the purchase flow
+    private static final LatencyHistogram PURCHASE_LATENCY = Metrics.histogram("store.order.purchase");
+    private static final Counter REPEAT_PURCHASES = Metrics.counter("store.order.purchase.repeated");
+
     /**
      * Constructs a new Order.
      *
@@ -47,8 +58,72 @@ public class Order implements Purchasable {
         this.products = new ArrayList<>(products);
         this.orderDate = LocalDateTime.now();
         this.isPurchased = false; // Order is pending by default
-        this.discountApplied = 0.0;
-        calculateTotals(); // Calculate initial totals and apply discount if applicable
+        this.presetSubTotalAmount = Double.NaN; // Totals are calculated when first needed
+    }
+
+    /**
+     * Constructs an order from products that have already been collected and totalled,
+     * such as the contents of a {@link ShoppingCart}. The list is adopted without copying,
+     * so the caller must pass a list that nobody modifies afterwards.
+     *
+     * @param customer       The customer placing the order. Cannot be null.
+     * @param products       The products in the order, one entry per unit. Cannot be null or empty.
+     * @param subTotalAmount The sum of the product prices.
+     */
+    Order(Customer customer, List<Product> products, double subTotalAmount) {
+        if (customer == null) {
+            throw new IllegalArgumentException("Customer cannot be null for an order.");
+        }
+        if (products == null || products.isEmpty()) {
+            throw new IllegalArgumentException("Products list cannot be null or empty for an order.");
+        }
+
+        this.orderId = UUID.randomUUID().toString();
+        this.customer = customer;
+        this.products = products;
+        this.orderDate = LocalDateTime.now();
+        this.isPurchased = false;
+        this.presetSubTotalAmount = subTotalAmount;
+    }
+
+    /**
+     * Recreates an order restored from a snapshot exactly as it was saved, ID and date included.
+     * Nothing is published: listeners are not notified and the order is not added to the customer.
+     *
+     * @param orderId              The ID the order was saved with.
+     * @param customer             The customer who placed the order.
+     * @param products             The products in the order, adopted without copying.
+     * @param orderDate            When the order was placed.
+     * @param presetSubTotalAmount The subtotal supplied when the order was created, or NaN.
+     * @param isPurchased          Whether the order had been purchased.
+     */
+    Order(String orderId, Customer customer, List<Product> products, LocalDateTime orderDate,
+          double presetSubTotalAmount, boolean isPurchased) {
+        this.orderId = orderId;
+        this.customer = customer;
+        this.products = products;
+        this.orderDate = orderDate;
+        this.presetSubTotalAmount = presetSubTotalAmount;
+        this.isPurchased = isPurchased;
+    }
+
+    /**
+     * Registers a listener to be notified of every completed purchase.
+     * @param listener The listener to add. Cannot be null.
+     */
+    public static void addPurchaseListener(PurchaseListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Purchase listener cannot be null.");
+        }
+        purchaseListeners.add(listener);
+    }
+
+    /**
+     * Stops notifying a previously registered listener.
+     * @param listener The listener to remove.
+     */
+    public static void removePurchaseListener(PurchaseListener listener) {
+        purchaseListeners.remove(listener);
     }
 
     // --- Getters for Order properties ---
@@ -75,49 +150,77 @@ public class Order implements Purchasable {
     }
 
     public double getSubTotalAmount() {
-        return subTotalAmount;
+        return totals().subTotalAmount;
     }
 
     public double getFinalTotalAmount() {
-        return finalTotalAmount;
+        return totals().finalTotalAmount;
     }
 
     public boolean isPurchased() {
         return isPurchased;
     }
 
+    // The subtotal supplied by the creator, or NaN; saved in snapshots so restored totals match exactly
+    double getPresetSubTotalAmount() {
+        return presetSubTotalAmount;
+    }
+
     public double getDiscountApplied() {
-        return discountApplied;
+        return totals().discountApplied;
     }
 
     /**
-     * Recalculates the sub-total amount based on the products in the order.
-     * This method should be called internally whenever the product list changes (though not exposed publicly).
-     * It also triggers the discount application.
+     * Returns the order's totals, calculating them on the first call.
+     * Double-checked locking on a volatile field: later calls cost one volatile read, the
+     * calculation (and its discount message) runs exactly once, and every thread sees the
+     * fully built result.
+     * @return The memoized totals.
      */
-    private void calculateTotals() {
-        this.subTotalAmount = products.stream()
-                                    .mapToDouble(Product::getPrice)
-                                    .sum();
-        // Initially, final total is the subtotal
-        this.finalTotalAmount = this.subTotalAmount;
-        applyDiscount(); // Apply discount after calculating sub-total
+    private Totals totals() {
+        Totals result = totals;
+        if (result == null) {
+            synchronized (this) {
+                result = totals;
+                if (result == null) {
+                    result = calculateTotals();
+                    totals = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the sub-total amount based on the products in the order,
+     * unless the creator already supplied it, and then applies the discount.
+     * @return The calculated totals.
+     */
+    private Totals calculateTotals() {
+        double subTotalAmount = presetSubTotalAmount;
+        if (Double.isNaN(subTotalAmount)) {
+            subTotalAmount = 0.0;
+            for (Product product : products) {
+                subTotalAmount += product.getPrice();
+            }
+        }
+        return applyDiscount(subTotalAmount); // Apply discount after calculating sub-total
     }
 
     /**
      * Applies a bonus discount if the sub-total amount exceeds the defined threshold.
      * This is a bonus implementation.
+     * @param subTotalAmount The total before discount.
+     * @return The totals with the discount, if any, applied.
      */
-    private void applyDiscount() {
+    private Totals applyDiscount(double subTotalAmount) {
         if (subTotalAmount > DISCOUNT_THRESHOLD) {
-            this.discountApplied = subTotalAmount * DISCOUNT_PERCENTAGE;
-            this.finalTotalAmount = subTotalAmount - discountApplied;
+            double discountApplied = subTotalAmount * DISCOUNT_PERCENTAGE;
             System.out.printf("  [INFO] Discount of $%.2f (%.0f%%) applied for order %s (Subtotal: $%.2f).%n",
                               discountApplied, DISCOUNT_PERCENTAGE * 100, orderId, subTotalAmount);
-        } else {
-            this.discountApplied = 0.0; // No discount applied
-            this.finalTotalAmount = subTotalAmount; // Final total remains subtotal
+            return new Totals(subTotalAmount, discountApplied, subTotalAmount - discountApplied);
         }
+        return new Totals(subTotalAmount, 0.0, subTotalAmount); // No discount applied
     }
 
     /**
@@ -127,7 +230,9 @@ public class Order implements Purchasable {
      */
     @Override
     public void purchase() {
-        if (!isPurchased) {
+        if (markPurchased()) {
+            long start = Metrics.startTimer();
+            totals(); // Price the order before it is published to the customer and listeners
             System.out.println("\n--- Initiating purchase for Order ID: " + orderId + " ---");
             // In a real system, this would involve complex logic like:
             // 1. Payment gateway integration
@@ -136,19 +241,34 @@ public class Order implements Purchasable {
             // 4. Sending confirmation emails to customer and store
             // 5. Logging the transaction
 
-            this.isPurchased = true; // Mark order as purchased
             customer.addOrder(this); // Add this order to the customer's list of orders (aggregation)
+            for (PurchaseListener listener : purchaseListeners) {
+                listener.onPurchase(this); // Publish the purchase event
+            }
+            PURCHASE_LATENCY.recordSince(start);
             System.out.println("Purchase successful for Order ID: " + orderId + " by " + customer.getName() + ".");
         } else {
+            REPEAT_PURCHASES.increment();
             System.out.println("Order ID: " + orderId + " has already been purchased. No action taken.");
         }
     }
 
+    // Marks the order purchased and returns true, or returns false if it already was. Only the caller
+    // that gets true goes on to publish the purchase, so concurrent calls never count a sale twice.
+    private synchronized boolean markPurchased() {
+        if (isPurchased) {
+            return false;
+        }
+        isPurchased = true;
+        return true;
+    }
+
     /**
      * Generates and prints a detailed receipt for the order.
      * This method provides a clear summary of the order details, products, and total amounts.
      */
     public void generateReceipt() {
+        Totals totals = totals(); // Price first, so a discount notice is not printed inside the receipt
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
         System.out.println("\n========================================");
@@ -168,12 +288,27 @@ public class Order implements Purchasable {
             }
         }
         System.out.println("----------------------------------------");
-        System.out.printf("Subtotal: $%.2f%n", subTotalAmount);
-        if (discountApplied > 0) {
-            System.out.printf("Discount (%.0f%%): -$%.2f%n", DISCOUNT_PERCENTAGE * 100, discountApplied);
+        System.out.printf("Subtotal: $%.2f%n", totals.subTotalAmount);
+        if (totals.discountApplied > 0) {
+            System.out.printf("Discount (%.0f%%): -$%.2f%n", DISCOUNT_PERCENTAGE * 100, totals.discountApplied);
         }
-        System.out.printf("Total Amount: $%.2f%n", finalTotalAmount);
+        System.out.printf("Total Amount: $%.2f%n", totals.finalTotalAmount);
         System.out.println("Status: " + (isPurchased ? "PURCHASED" : "PENDING"));
         System.out.println("========================================\n");
     }
+
+    /**
+     * The priced amounts of an order. Immutable, so it can be shared once published.
+     */
+    private static final class Totals {
+        final double subTotalAmount; // Total before discount
+        final double discountApplied; // Amount of discount applied
+        final double finalTotalAmount; // Total after discount
+
+        Totals(double subTotalAmount, double discountApplied, double finalTotalAmount) {
+            this.subTotalAmount = subTotalAmount;
+            this.discountApplied = discountApplied;
+            this.finalTotalAmount = finalTotalAmount;
+        }
+    }
 }
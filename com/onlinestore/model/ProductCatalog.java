@@ -0,0 +1,324 @@
+package com.onlinestore.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Holds every product the store sells and indexes them for the common storefront queries:
+ * lookup by ID, products within a price range, and products whose name starts with a prefix.
+ *
+ * Products are immutable, so a price change publishes a new Product version. Reads never lock:
+ * the ID map always points at the current version, and the sorted indexes may briefly hold an
+ * old and a new version side by side, so range and prefix queries keep only entries that are
+ * still current. Writes are serialized with a lock, so each product has one current version.
+ */
+public class ProductCatalog {
+    private final Map<String, Product> productsById;
+    private final ConcurrentSkipListMap<PriceKey, Product> productsByPrice;
+    private final ConcurrentSkipListMap<String, Product> productsByName; // Keyed by lower-case name + '\0' + ID
+    private final Map<String, Integer> ordinals; // Dense number per product ID, assigned once and never reused
+    private volatile String[] idsByOrdinal; // Grown by copying; slots are written once
+    private int nextOrdinal;
+    private final Object writeLock = new Object();
+
+    /**
+     * Constructs an empty product catalog.
+     */
+    public ProductCatalog() {
+        this.productsById = new ConcurrentHashMap<>();
+        this.productsByPrice = new ConcurrentSkipListMap<>();
+        this.productsByName = new ConcurrentSkipListMap<>();
+        this.ordinals = new ConcurrentHashMap<>();
+        this.idsByOrdinal = new String[1024];
+    }
+
+    /**
+     * Adds a product to the catalog.
+     *
+     * @param product The product to add. Cannot be null.
+     * @throws IllegalArgumentException if the product is null or its ID is already in the catalog.
+     */
+    public void addProduct(Product product) {
+        if (product == null) {
+            throw new IllegalArgumentException("Cannot add a null product to the catalog.");
+        }
+        synchronized (writeLock) {
+            if (productsById.containsKey(product.getId())) {
+                throw new IllegalArgumentException("Product ID " + product.getId() + " is already in the catalog.");
+            }
+            if (!ordinals.containsKey(product.getId())) {
+                assignOrdinal(product.getId());
+            }
+            index(product);
+            productsById.put(product.getId(), product);
+        }
+    }
+
+    /**
+     * Changes the price of a product by publishing a new version of it.
+     * Readers see either the old or the new price, never a mix.
+     *
+     * @param id       The ID of the product to reprice.
+     * @param newPrice The new price. Must be positive.
+     * @return The new version of the product.
+     * @throws IllegalArgumentException if no product has this ID or the price is not positive.
+     */
+    public Product updatePrice(String id, double newPrice) {
+        synchronized (writeLock) {
+            Product current = productsById.get(id);
+            if (current == null) {
+                throw new IllegalArgumentException("No product with ID " + id + " in the catalog.");
+            }
+            Product updated = new Product(current.getId(), current.getName(), newPrice);
+            index(updated); // Index first so the new version is findable the moment it becomes current
+            productsById.put(id, updated);
+            unindex(current);
+            return updated;
+        }
+    }
+
+    /**
+     * Removes a product from the catalog.
+     *
+     * @param id The ID of the product to remove.
+     * @return The removed product, or an empty Optional if no product had this ID.
+     */
+    public Optional<Product> removeProduct(String id) {
+        synchronized (writeLock) {
+            Product removed = productsById.remove(id);
+            if (removed != null) {
+                unindex(removed);
+            }
+            return Optional.ofNullable(removed);
+        }
+    }
+
+    /**
+     * Looks up a product by its ID in constant time.
+     *
+     * @param id The product ID.
+     * @return The current version of the product, or an empty Optional if it is not in the catalog.
+     */
+    public Optional<Product> findById(String id) {
+        return Optional.ofNullable(productsById.get(id));
+    }
+
+    /**
+     * Returns the product's ordinal: a small, dense, permanent number that lets other components
+     * key products with primitive {@code int}s instead of ID strings.
+     *
+     * @param id The product ID.
+     * @return The ordinal, or -1 if the product has never been in the catalog.
+     */
+    public int ordinalOf(String id) {
+        Integer ordinal = ordinals.get(id);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Looks up the current version of a product by its ordinal.
+     *
+     * @param ordinal A value returned by {@link #ordinalOf(String)}.
+     * @return The product, or an empty Optional if it has since been removed.
+     */
+    public Optional<Product> findByOrdinal(int ordinal) {
+        String[] ids = idsByOrdinal;
+        if (ordinal < 0 || ordinal >= ids.length || ids[ordinal] == null) {
+            return Optional.empty();
+        }
+        return findById(ids[ordinal]);
+    }
+
+    /**
+     * Returns the number of ordinals handed out so far, including those of removed products.
+     * @return One more than the highest ordinal.
+     */
+    int getOrdinalCount() {
+        synchronized (writeLock) {
+            return nextOrdinal;
+        }
+    }
+
+    /**
+     * Returns the ID an ordinal was handed out to, whether or not the product is still in the catalog.
+     * @param ordinal An ordinal below {@link #getOrdinalCount()}.
+     * @return The product ID.
+     */
+    String getIdAt(int ordinal) {
+        return idsByOrdinal[ordinal];
+    }
+
+    /**
+     * Hands out the next ordinal while a catalog is restored, so every product keeps the ordinal it had.
+     * @param id The product ID the ordinal belongs to.
+     * @param product The current version of the product, or null if it had been removed.
+     */
+    void restoreOrdinal(String id, Product product) {
+        synchronized (writeLock) {
+            assignOrdinal(id);
+            if (product != null) {
+                index(product);
+                productsById.put(id, product);
+            }
+        }
+    }
+
+    /**
+     * Returns every product priced between two bounds, inclusive, cheapest first.
+     *
+     * @param minPrice The lowest price to include.
+     * @param maxPrice The highest price to include.
+     * @return The matching products, sorted by price and then ID.
+     */
+    public List<Product> findByPriceRange(double minPrice, double maxPrice) {
+        return findByPriceRange(minPrice, maxPrice, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns up to {@code limit} products priced between two bounds, inclusive, cheapest first.
+     *
+     * @param minPrice The lowest price to include.
+     * @param maxPrice The highest price to include.
+     * @param limit    The maximum number of products to return.
+     * @return The matching products, sorted by price and then ID.
+     */
+    public List<Product> findByPriceRange(double minPrice, double maxPrice, int limit) {
+        List<Product> result = new ArrayList<>();
+        if (minPrice > maxPrice) {
+            return result;
+        }
+        ConcurrentNavigableMap<PriceKey, Product> range =
+                productsByPrice.subMap(PriceKey.lowest(minPrice), true, PriceKey.highest(maxPrice), true);
+        for (Product product : range.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (isCurrent(product)) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns up to {@code limit} products whose name starts with the given prefix, ignoring case,
+     * in alphabetical order.
+     *
+     * @param prefix The start of the product name.
+     * @param limit  The maximum number of products to return.
+     * @return The matching products.
+     */
+    public List<Product> findByNamePrefix(String prefix, int limit) {
+        List<Product> result = new ArrayList<>();
+        String from = prefix.toLowerCase();
+        for (Product product : productsByName.subMap(from, true, from + Character.MAX_VALUE, true).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (isCurrent(product)) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of products in the catalog.
+     * @return The product count.
+     */
+    public int size() {
+        return productsById.size();
+    }
+
+    // Called with the write lock held. Readers only learn an ordinal through the ordinals map,
+    // which is written last, so the array slot is always visible to anyone holding its ordinal.
+    private void assignOrdinal(String id) {
+        int ordinal = nextOrdinal++;
+        String[] ids = idsByOrdinal;
+        if (ordinal == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[ordinal] = id;
+        idsByOrdinal = ids;
+        ordinals.put(id, ordinal);
+    }
+
+    private void index(Product product) {
+        productsByPrice.put(PriceKey.of(product), product);
+        productsByName.put(nameKey(product), product);
+    }
+
+    private void unindex(Product product) {
+        productsByPrice.remove(PriceKey.of(product), product);
+        productsByName.remove(nameKey(product), product);
+    }
+
+    // An index entry is current if the ID map still points at the same version.
+    private boolean isCurrent(Product product) {
+        return productsById.get(product.getId()) == product;
+    }
+
+    // Both versions of a repriced product share this key, so removal is matched on the value as well.
+    private static String nameKey(Product product) {
+        return product.getName().toLowerCase() + '\0' + product.getId();
+    }
+
+    /**
+     * Sort key for the price index: price first, then product ID so equal prices stay distinct.
+     * A null ID sorts before (or, for range ends, after) every real ID at the same price.
+     */
+    private static final class PriceKey implements Comparable<PriceKey> {
+        private final double price;
+        private final String id;
+        private final boolean upperBound;
+
+        private PriceKey(double price, String id, boolean upperBound) {
+            this.price = price;
+            this.id = id;
+            this.upperBound = upperBound;
+        }
+
+        static PriceKey of(Product product) {
+            return new PriceKey(product.getPrice(), product.getId(), false);
+        }
+
+        static PriceKey lowest(double price) {
+            return new PriceKey(price, null, false);
+        }
+
+        static PriceKey highest(double price) {
+            return new PriceKey(price, null, true);
+        }
+
+        @Override
+        public int compareTo(PriceKey other) {
+            int byPrice = Double.compare(price, other.price);
+            if (byPrice != 0) {
+                return byPrice;
+            }
+            if (id == null || other.id == null) {
+                if (id == other.id) {
+                    return Boolean.compare(upperBound, other.upperBound);
+                }
+                return id == null ? (upperBound ? 1 : -1) : (other.upperBound ? -1 : 1);
+            }
+            return id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PriceKey && compareTo((PriceKey) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(price) * 31 + (id == null ? 0 : id.hashCode());
+        }
+    }
+}
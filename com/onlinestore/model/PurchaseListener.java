@@ -0,0 +1,16 @@
+package com.onlinestore.model;
+
+/**
+ * Callback for components that react to completed purchases, such as analytics or persistence.
+ * Listeners are called on the purchasing thread, right after the order is marked as purchased,
+ * so implementations should be quick and must be safe to call from many threads at once.
+ */
+@FunctionalInterface
+public interface PurchaseListener {
+    /**
+     * Called once for every order whose purchase completes.
+     *
+     * @param order The purchased order.
+     */
+    void onPurchase(Order order);
+}
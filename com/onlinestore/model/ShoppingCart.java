@@ -0,0 +1,283 @@
+package com.onlinestore.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * A customer's cart of products that have not been ordered yet.
+ * Line items are stored as (product ordinal, quantity, unit price) in a small open-addressing
+ * table of primitive arrays, so a cart holds no per-line objects. The subtotal is kept up to date
+ * on every change, so reading it never walks the lines.
+ *
+ * Prices are tracked in cents to keep the running total exact.
+ */
+public class ShoppingCart {
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 4; // Most carts hold only a few distinct products
+
+    private final Customer customer;
+    private final ProductCatalog catalog;
+    private int[] ordinals; // Product ordinal per slot, EMPTY if the slot is free
+    private int[] quantities;
+    private long[] unitCents; // Price of one unit when the line was last changed
+    private int lineCount;
+    private int itemCount;
+    private long subTotalCents;
+    private volatile long lastAccessMillis;
+
+    /**
+     * Constructs an empty cart.
+     *
+     * @param customer The customer who owns the cart. Cannot be null.
+     * @param catalog  The catalog products are added from. Cannot be null.
+     * @param nowMillis The creation time, used for idle eviction.
+     */
+    public ShoppingCart(Customer customer, ProductCatalog catalog, long nowMillis) {
+        if (customer == null || catalog == null) {
+            throw new IllegalArgumentException("Customer and catalog cannot be null for a cart.");
+        }
+        this.customer = customer;
+        this.catalog = catalog;
+        this.ordinals = newSlots(INITIAL_CAPACITY);
+        this.quantities = new int[INITIAL_CAPACITY];
+        this.unitCents = new long[INITIAL_CAPACITY];
+        this.lastAccessMillis = nowMillis;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    /**
+     * Adds units of a product at its current catalog price. If the product is already in the cart,
+     * the whole line is repriced to the current price.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The number of units to add. Must be positive.
+     * @throws IllegalArgumentException if the quantity is not positive or the product is not in the catalog.
+     */
+    public synchronized void addItem(String productId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity to add must be positive.");
+        }
+        Product product = catalog.findById(productId)
+                .orElseThrow(() -> new IllegalArgumentException("No product with ID " + productId + " in the catalog."));
+        int ordinal = catalog.ordinalOf(productId);
+        long cents = toCents(product.getPrice());
+
+        int slot = find(ordinal);
+        if (slot >= 0) {
+            subTotalCents += cents * (quantities[slot] + quantity) - unitCents[slot] * quantities[slot];
+            quantities[slot] += quantity;
+            unitCents[slot] = cents;
+        } else {
+            if ((lineCount + 1) * 4 > ordinals.length * 3) {
+                resize(ordinals.length * 2);
+            }
+            slot = insertionSlot(ordinal);
+            ordinals[slot] = ordinal;
+            quantities[slot] = quantity;
+            unitCents[slot] = cents;
+            lineCount++;
+            subTotalCents += cents * quantity;
+        }
+        itemCount += quantity;
+    }
+
+    /**
+     * Removes units of a product. Removing as many units as the cart holds, or more, removes the line.
+     *
+     * @param productId The ID of the product.
+     * @param quantity  The number of units to remove. Must be positive.
+     * @return The number of units actually removed.
+     */
+    public synchronized int removeItem(String productId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity to remove must be positive.");
+        }
+        int slot = find(catalog.ordinalOf(productId));
+        if (slot < 0) {
+            return 0;
+        }
+        int removed = Math.min(quantity, quantities[slot]);
+        subTotalCents -= unitCents[slot] * removed;
+        itemCount -= removed;
+        quantities[slot] -= removed;
+        if (quantities[slot] == 0) {
+            deleteSlot(slot);
+            lineCount--;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns how many units of a product are in the cart.
+     * @param productId The ID of the product.
+     * @return The quantity, or 0 if the product is not in the cart.
+     */
+    public synchronized int getQuantity(String productId) {
+        int slot = find(catalog.ordinalOf(productId));
+        return slot < 0 ? 0 : quantities[slot];
+    }
+
+    /**
+     * Returns the cart subtotal without recomputing it.
+     * @return The sum of unit price times quantity over all lines.
+     */
+    public synchronized double getSubTotalAmount() {
+        return subTotalCents / 100.0;
+    }
+
+    public synchronized int getItemCount() {
+        return itemCount;
+    }
+
+    public synchronized int getLineCount() {
+        return lineCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return lineCount == 0;
+    }
+
+    long getLastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    void touch(long nowMillis) {
+        lastAccessMillis = nowMillis;
+    }
+
+    /**
+     * Turns the cart into a pending order at current catalog prices.
+     * The order's product list is a read-only view over this cart's line arrays, not a list
+     * with one stored reference per unit, and the cart's lines are not copied again by the order.
+     *
+     * @return The new order.
+     * @throws IllegalStateException if the cart is empty or a product in it has been removed from the catalog.
+     */
+    public synchronized Order toOrder() {
+        if (lineCount == 0) {
+            throw new IllegalStateException("Cannot place an order from an empty cart.");
+        }
+        Product[] lineProducts = new Product[lineCount];
+        int[] endIndex = new int[lineCount]; // Cumulative unit count after each line
+        long cents = 0;
+        int line = 0;
+        int units = 0;
+        for (int slot = 0; slot < ordinals.length; slot++) {
+            if (ordinals[slot] == EMPTY) {
+                continue;
+            }
+            int ordinal = ordinals[slot];
+            Product product = catalog.findByOrdinal(ordinal)
+                    .orElseThrow(() -> new IllegalStateException("A product in the cart is no longer sold (ordinal " + ordinal + ")."));
+            lineProducts[line] = product;
+            units += quantities[slot];
+            endIndex[line] = units;
+            cents += toCents(product.getPrice()) * quantities[slot];
+            line++;
+        }
+        return new Order(customer, new UnitList(lineProducts, endIndex), cents / 100.0);
+    }
+
+    private static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    // --- Open-addressing table (linear probing, backward-shift deletion) ---
+
+    private static int[] newSlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    private static int home(int ordinal, int mask) {
+        return (ordinal * 0x9E3779B9 >>> 16) & mask;
+    }
+
+    private int find(int ordinal) {
+        if (ordinal < 0) {
+            return -1;
+        }
+        int mask = ordinals.length - 1;
+        for (int slot = home(ordinal, mask); ordinals[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (ordinals[slot] == ordinal) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int insertionSlot(int ordinal) {
+        int mask = ordinals.length - 1;
+        int slot = home(ordinal, mask);
+        while (ordinals[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void deleteSlot(int slot) {
+        int mask = ordinals.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; ordinals[next] != EMPTY; next = (next + 1) & mask) {
+            int home = home(ordinals[next], mask);
+            // Move the entry back if the hole lies on its probe path from home to its current slot.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                ordinals[hole] = ordinals[next];
+                quantities[hole] = quantities[next];
+                unitCents[hole] = unitCents[next];
+                hole = next;
+            }
+        }
+        ordinals[hole] = EMPTY;
+        quantities[hole] = 0;
+        unitCents[hole] = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] oldOrdinals = ordinals;
+        int[] oldQuantities = quantities;
+        long[] oldUnitCents = unitCents;
+        ordinals = newSlots(capacity);
+        quantities = new int[capacity];
+        unitCents = new long[capacity];
+        for (int i = 0; i < oldOrdinals.length; i++) {
+            if (oldOrdinals[i] != EMPTY) {
+                int slot = insertionSlot(oldOrdinals[i]);
+                ordinals[slot] = oldOrdinals[i];
+                quantities[slot] = oldQuantities[i];
+                unitCents[slot] = oldUnitCents[i];
+            }
+        }
+    }
+
+    /**
+     * Read-only list with one element per unit, backed by one Product reference per line.
+     */
+    private static final class UnitList extends AbstractList<Product> {
+        private final Product[] lineProducts;
+        private final int[] endIndex;
+
+        UnitList(Product[] lineProducts, int[] endIndex) {
+            this.lineProducts = lineProducts;
+            this.endIndex = endIndex;
+        }
+
+        @Override
+        public Product get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of range for " + size() + " units.");
+            }
+            int line = Arrays.binarySearch(endIndex, index + 1);
+            return lineProducts[line >= 0 ? line : -line - 1];
+        }
+
+        @Override
+        public int size() {
+            return endIndex[endIndex.length - 1];
+        }
+    }
+}
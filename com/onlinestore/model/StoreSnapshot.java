@@ -0,0 +1,180 @@
+package com.onlinestore.model;
+
+import com.snapshot.SnapshotReader;
+import com.snapshot.SnapshotWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The store's product catalog and its customers with their purchased orders, saved to and
+ * restored from one compact binary snapshot.
+ *
+ * The catalog is written in ordinal order, removed products included, so every product keeps its
+ * ordinal after a restore. Each product object is written once and referred to by position after
+ * that; products that orders still hold but the catalog no longer does, such as a version from
+ * before a price change, are written where an order first uses them. Orders keep their IDs (as
+ * 16-byte UUIDs), dates and subtotals. Orders that were never purchased are not reachable from a
+ * customer and are not saved.
+ */
+public class StoreSnapshot {
+    private static final String KIND = "store";
+
+    private final ProductCatalog catalog;
+    private final List<Customer> customers;
+
+    /**
+     * Constructs a snapshot of the given state, ready to be written.
+     *
+     * @param catalog   The product catalog.
+     * @param customers The customers, in the order they should be restored.
+     */
+    public StoreSnapshot(ProductCatalog catalog, List<Customer> customers) {
+        if (catalog == null || customers == null) {
+            throw new IllegalArgumentException("A store snapshot needs a catalog and a customer list.");
+        }
+        this.catalog = catalog;
+        this.customers = customers;
+    }
+
+    public ProductCatalog getCatalog() {
+        return catalog;
+    }
+
+    public List<Customer> getCustomers() {
+        return Collections.unmodifiableList(customers);
+    }
+
+    /**
+     * Writes the catalog, the customers and their orders. Take it while no purchases are in progress.
+     *
+     * @param path The snapshot file.
+     * @return The size of the snapshot in bytes.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public long write(Path path) throws IOException {
+        Map<Product, Integer> positions = new IdentityHashMap<>();
+        try (SnapshotWriter out = SnapshotWriter.create(path, KIND)) {
+            int ordinals = catalog.getOrdinalCount();
+            out.writeVarInt(ordinals);
+            for (int ordinal = 0; ordinal < ordinals; ordinal++) {
+                String id = catalog.getIdAt(ordinal);
+                Product product = catalog.findById(id).orElse(null);
+                out.writeString(id);
+                out.writeBoolean(product != null);
+                if (product != null) {
+                    positions.put(product, positions.size());
+                    out.writeString(product.getName());
+                    out.writeDouble(product.getPrice());
+                }
+            }
+
+            out.writeVarInt(customers.size());
+            for (Customer customer : customers) {
+                out.writeString(customer.getId());
+                out.writeString(customer.getName());
+                out.writeString(customer.getEmail());
+                List<Order> orders = customer.getOrders();
+                out.writeVarInt(orders.size());
+                for (Order order : orders) {
+                    writeOrder(out, order, positions);
+                }
+            }
+            long size = out.size();
+            out.commit();
+            return size;
+        }
+    }
+
+    private static void writeOrder(SnapshotWriter out, Order order, Map<Product, Integer> positions) throws IOException {
+        UUID orderId = UUID.fromString(order.getOrderId());
+        out.writeLong(orderId.getMostSignificantBits());
+        out.writeLong(orderId.getLeastSignificantBits());
+        out.writeVarLong(order.getOrderDate().toEpochSecond(ZoneOffset.UTC));
+        out.writeVarInt(order.getOrderDate().getNano());
+        out.writeDouble(order.getPresetSubTotalAmount());
+        out.writeBoolean(order.isPurchased());
+        List<Product> products = order.getProducts();
+        out.writeVarInt(products.size());
+        for (Product product : products) {
+            Integer position = positions.get(product);
+            if (position == null) { // Not in the catalog as it is now: 0, then the product itself
+                positions.put(product, positions.size());
+                out.writeVarInt(0);
+                out.writeString(product.getId());
+                out.writeString(product.getName());
+                out.writeDouble(product.getPrice());
+            } else {
+                out.writeVarInt(position + 1);
+            }
+        }
+    }
+
+    /**
+     * Restores a snapshot written by {@link #write(Path)}. Orders are added back to their customers
+     * without being purchased again, so purchase listeners hear nothing.
+     *
+     * @param path The snapshot file.
+     * @return The restored catalog and customers.
+     * @throws IOException if the snapshot cannot be read or is damaged.
+     */
+    public static StoreSnapshot read(Path path) throws IOException {
+        try (SnapshotReader in = SnapshotReader.open(path, KIND)) {
+            ProductCatalog catalog = new ProductCatalog();
+            List<Product> products = new ArrayList<>();
+            int ordinals = in.readVarInt();
+            for (int ordinal = 0; ordinal < ordinals; ordinal++) {
+                String id = in.readString();
+                Product product = null;
+                if (in.readBoolean()) {
+                    product = new Product(id, in.readString(), in.readDouble());
+                    products.add(product);
+                }
+                catalog.restoreOrdinal(id, product);
+            }
+
+            int customerCount = in.readVarInt();
+            List<Customer> customers = new ArrayList<>(customerCount);
+            for (int i = 0; i < customerCount; i++) {
+                Customer customer = new Customer(in.readString(), in.readString(), in.readString());
+                int orderCount = in.readVarInt();
+                for (int o = 0; o < orderCount; o++) {
+                    customer.addOrder(readOrder(in, customer, products, path));
+                }
+                customers.add(customer);
+            }
+            if (!in.atEnd()) {
+                throw new IOException("Snapshot " + path + " has data after its last customer.");
+            }
+            return new StoreSnapshot(catalog, customers);
+        }
+    }
+
+    private static Order readOrder(SnapshotReader in, Customer customer, List<Product> products, Path path) throws IOException {
+        String orderId = new UUID(in.readLong(), in.readLong()).toString();
+        LocalDateTime orderDate = LocalDateTime.ofEpochSecond(in.readVarLong(), in.readVarInt(), ZoneOffset.UTC);
+        double presetSubTotalAmount = in.readDouble();
+        boolean purchased = in.readBoolean();
+        int productCount = in.readVarInt();
+        List<Product> ordered = new ArrayList<>(productCount);
+        for (int p = 0; p < productCount; p++) {
+            int reference = in.readVarInt();
+            if (reference == 0) {
+                products.add(new Product(in.readString(), in.readString(), in.readDouble()));
+                reference = products.size();
+            } else if (reference > products.size()) {
+                throw new IOException("Snapshot " + path + " refers to a product it has not defined.");
+            }
+            ordered.add(products.get(reference - 1));
+        }
+        return new Order(orderId, customer, ordered, orderDate, presetSubTotalAmount, purchased);
+    }
+}
@@ -0,0 +1,76 @@
+package com.onlinestore.simulation;
+
+import com.onlinestore.model.CartService;
+import com.onlinestore.model.Customer;
+import com.onlinestore.model.Product;
+import com.onlinestore.model.ProductCatalog;
+
+import java.time.Clock;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a CartService with many concurrently built carts and reports throughput and heap per cart.
+ * Usage: java com.onlinestore.simulation.CartServiceBenchmark [cartCount] [threads]
+ */
+public class CartServiceBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int cartCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        ProductCatalog catalog = new ProductCatalog();
+        int productCount = 10_000;
+        for (int i = 0; i < productCount; i++) {
+            catalog.addProduct(new Product("P" + i, "Product " + i, 1 + i % 500));
+        }
+        Customer[] customers = new Customer[cartCount];
+        for (int i = 0; i < cartCount; i++) {
+            customers[i] = new Customer("C" + i, "Customer " + i, "c" + i + "@example.com");
+        }
+        CartService carts = new CartService(catalog, cartCount, 30 * 60 * 1000L, Clock.systemUTC());
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        int perThread = (cartCount + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            int from = t * perThread;
+            int to = Math.min(cartCount, from + perThread);
+            workers.execute(() -> {
+                Random random = new Random(from);
+                for (int i = from; i < to; i++) {
+                    for (int line = 0; line < 3; line++) { // Three lines, some with repeats
+                        carts.addItem(customers[i], "P" + random.nextInt(productCount), 1 + random.nextInt(3));
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        long nanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        System.out.printf("Filled %d carts (3 lines each) on %d threads in %.0f ms: %.0f adds/s%n",
+                          carts.getActiveCartCount(), threads, nanos / 1e6, cartCount * 3 / (nanos / 1e9));
+        System.out.printf("Heap per active cart: ~%d bytes%n", (heapAfter - heapBefore) / Math.max(1, cartCount));
+
+        start = System.nanoTime();
+        double total = 0;
+        for (int i = 0; i < cartCount; i += 100) {
+            total += carts.checkout(customers[i].getId()).getFinalTotalAmount();
+        }
+        System.out.printf("Checked out %d carts in %.0f ms (total $%.2f)%n",
+                          cartCount / 100, (System.nanoTime() - start) / 1e6, total);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,74 @@
+package com.onlinestore.simulation;
+
+import com.onlinestore.model.Customer;
+import com.onlinestore.model.Order;
+import com.onlinestore.model.Product;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares creating orders that are mostly abandoned, where only the few that reach checkout
+ * are priced, with pricing every order up front as the eager Order constructor used to.
+ * Discount notices go to a discarded stream so console speed does not dominate the timings.
+ * Usage: java com.onlinestore.simulation.LazyOrderTotalsBenchmark [orderCount] [checkoutPercent]
+ */
+public class LazyOrderTotalsBenchmark {
+
+    public static void main(String[] args) {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int checkoutPercent = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Product[] products = new Product[200];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new Product("P" + i, "Product " + i, 5 + i * 5); // Up to $1000, so some orders get a discount
+        }
+        Customer customer = new Customer("C1", "Benchmark Customer", "bench@example.com");
+        List<List<Product>> carts = new ArrayList<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 1024; i++) {
+            List<Product> cart = new ArrayList<>();
+            for (int line = 1 + random.nextInt(6); line > 0; line--) {
+                cart.add(products[random.nextInt(products.length)]);
+            }
+            carts.add(cart);
+        }
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (int round = 1; round <= 3; round++) { // Later rounds run with compiled code
+            long[] priceAll = run(customer, carts, orderCount, 100);
+            long[] lazy = run(customer, carts, orderCount, checkoutPercent);
+            console.printf("Round %d: price every order   %7.1f ms, %6.0f bytes/order%n",
+                           round, priceAll[0] / 1e6, (double) priceAll[1] / orderCount);
+            console.printf("         price %3d%% (lazy)    %7.1f ms, %6.0f bytes/order%n",
+                           checkoutPercent, lazy[0] / 1e6, (double) lazy[1] / orderCount);
+        }
+        System.setOut(console);
+    }
+
+    private static long[] run(Customer customer, List<List<Product>> carts, int orderCount, int pricedPercent) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        double revenue = 0;
+        for (int i = 0; i < orderCount; i++) {
+            Order order = new Order(customer, carts.get(i & 1023));
+            if (i % 100 < pricedPercent) {
+                revenue += order.getFinalTotalAmount();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (revenue < 0) {
+            throw new IllegalStateException(); // Keeps the totals from being optimized away
+        }
+        return new long[]{nanos, allocatedBytes() - allocatedBefore};
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,81 @@
+package com.onlinestore.simulation;
+
+import com.onlinestore.cache.TinyLfuCache;
+import com.onlinestore.model.Customer;
+import com.onlinestore.model.Product;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Measures product and customer lookups through TinyLfuCache under a Zipfian (skewed) workload,
+ * with a fixed cache size and datasets growing well past what the cache holds.
+ *
+ * The backing store builds each record on demand and charges a fixed delay per load, standing in
+ * for a disk or network read, so datasets far larger than the heap can be simulated.
+ * Usage: java com.onlinestore.simulation.LookupCacheBenchmark [cacheSize] [loadMicros] [lookups]
+ */
+public class LookupCacheBenchmark {
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    public static void main(String[] args) {
+        int cacheSize = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long loadNanos = (args.length > 1 ? Long.parseLong(args[1]) : 50) * 1000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 2_000_000;
+
+        for (long datasetSize : new long[]{1_000_000L, 10_000_000L, 100_000_000L}) {
+            TinyLfuCache<String, Product> products = new TinyLfuCache<>(cacheSize, 0, Clock.systemUTC(),
+                    id -> Optional.of(loadProduct(id, loadNanos)));
+            TinyLfuCache<String, Customer> customers = new TinyLfuCache<>(cacheSize, 0, Clock.systemUTC(),
+                    id -> Optional.of(loadCustomer(id, loadNanos)));
+            Random random = new Random(datasetSize);
+            long[] latencies = new long[lookups];
+            for (int i = 0; i < lookups; i++) {
+                long start = System.nanoTime();
+                if ((i & 1) == 0) {
+                    products.get("P" + zipf(random, datasetSize));
+                } else {
+                    customers.get("C" + zipf(random, datasetSize));
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies, lookups / 2, lookups); // Report the second half, once the cache has warmed up
+            long[] warm = Arrays.copyOfRange(latencies, lookups / 2, lookups);
+            System.out.printf("Dataset %,d: p50 %.2f us, p99 %.2f us, p99.9 %.2f us%n", datasetSize,
+                              percentile(warm, 0.50), percentile(warm, 0.99), percentile(warm, 0.999));
+            System.out.println("  Products:  " + products.stats());
+            System.out.println("  Customers: " + customers.stats());
+        }
+    }
+
+    // Approximate Zipf sampling by inverting the continuous CDF of x^-s over [1, n + 1).
+    private static long zipf(Random random, long n) {
+        double oneMinusS = 1 - ZIPF_EXPONENT;
+        double max = Math.pow(n + 1, oneMinusS);
+        double x = Math.pow(1 + random.nextDouble() * (max - 1), 1 / oneMinusS);
+        return Math.min(n, (long) x) - 1;
+    }
+
+    private static Product loadProduct(String id, long loadNanos) {
+        pause(loadNanos);
+        return new Product(id, "Product " + id, 1 + Math.floorMod(id.hashCode(), 500));
+    }
+
+    private static Customer loadCustomer(String id, long loadNanos) {
+        pause(loadNanos);
+        return new Customer(id, "Customer " + id, id.toLowerCase() + "@example.com");
+    }
+
+    private static void pause(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)] / 1e3;
+    }
+}
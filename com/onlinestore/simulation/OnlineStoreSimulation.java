@@ -2,12 +2,22 @@
 // Imporrting necessary classes for the simulation
 package com.onlinestore.simulation;
 
+import com.onlinestore.analytics.SalesAnalytics;
+import com.onlinestore.cache.TinyLfuCache;
+import com.onlinestore.model.CartService;
 import com.onlinestore.model.Customer;
 import com.onlinestore.model.Order;
 import com.onlinestore.model.Product;
+import com.onlinestore.model.ProductCatalog;
+import com.onlinestore.model.ShoppingCart;
 
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * Main class to simulate the online store purchase flow.
@@ -39,6 +49,18 @@ public class OnlineStoreSimulation {
         System.out.println(webcam);
         System.out.println(deskChair);
 
+        // Register the products in a catalog so they can be looked up and queried
+        ProductCatalog catalog = new ProductCatalog();
+        for (Product product : Arrays.asList(laptop, keyboard, mouse, monitor, headphones, webcam, deskChair)) {
+            catalog.addProduct(product);
+        }
+        System.out.println("\nProducts priced $50-$200: " + catalog.findByPriceRange(50.00, 200.00));
+        System.out.println("Products starting with \"h\": " + catalog.findByNamePrefix("h", 10));
+
+        // Keep live sales figures as orders are purchased
+        SalesAnalytics analytics = new SalesAnalytics(Clock.systemUTC(), 10);
+        Order.addPurchaseListener(analytics);
+
         // 2. Create Customers
         System.out.println("\n--- Creating Customers ---");
         Customer alice = new Customer("C001", "Alice Smith", "alice.smith@example.com");
@@ -100,6 +122,20 @@ public class OnlineStoreSimulation {
         charlieOrder1.purchase();
         charlieOrder1.generateReceipt();
 
+        // 6b. Demonstrate the cart service: quantities instead of repeated products
+        System.out.println("\n--- Charlie's Second Order (Built in a Shopping Cart) ---");
+        CartService cartService = new CartService(catalog, 1_000_000, 30 * 60 * 1000L, Clock.systemUTC());
+        cartService.addItem(charlie, "P003", 2);   // 2 x $75
+        cartService.addItem(charlie, "P006", 1);   // $80
+        cartService.addItem(charlie, "P003", 1);   // 3rd mouse
+        cartService.removeItem(charlie.getId(), "P006", 1);
+        ShoppingCart charlieCart = cartService.getCart(charlie);
+        System.out.printf("Charlie's cart: %d items on %d lines, subtotal $%.2f%n",
+                          charlieCart.getItemCount(), charlieCart.getLineCount(), charlieCart.getSubTotalAmount());
+        Order charlieOrder2 = cartService.checkout(charlie.getId());
+        charlieOrder2.purchase();
+        charlieOrder2.generateReceipt();
+
         // 7. Demonstrate Customer's multiple orders (aggregation in Customer class)
         System.out.println("\n--- Checking Customer's Order History ---");
 
@@ -118,6 +154,32 @@ public class OnlineStoreSimulation {
             System.out.println("  - Order ID: " + order.getOrderId() + ", Final Total: $" + String.format("%.2f", order.getFinalTotalAmount()));
         }
 
+        // 8. Read the sales dashboard without walking any order history
+        System.out.println("\n--- Sales Dashboard ---");
+        System.out.printf("Orders: %d, units: %d, revenue: $%.2f, discounts: $%.2f%n",
+                          analytics.getOrderCount(), analytics.getUnitsSold(),
+                          analytics.getTotalRevenue(), analytics.getTotalDiscounts());
+        System.out.printf("Alice's spend: $%.2f%n", analytics.getRevenueForCustomer(alice.getId()));
+        System.out.println("Top products by units: " + analytics.getTopProducts(3));
+        System.out.printf("Revenue this hour: $%.2f%n", analytics.getHourlyRevenue(1)[0]);
+
+        // 9. Serve repeated ID lookups from bounded read-through caches
+        System.out.println("\n--- Cached Lookups ---");
+        TinyLfuCache<String, Product> productCache = new TinyLfuCache<>(1000, 10 * 60 * 1000L, Clock.systemUTC(), catalog::findById);
+        Map<String, Customer> customersById = new HashMap<>();
+        for (Customer customer : Arrays.asList(alice, bob, charlie)) {
+            customersById.put(customer.getId(), customer);
+        }
+        TinyLfuCache<String, Customer> customerCache = new TinyLfuCache<>(1000, 10 * 60 * 1000L, Clock.systemUTC(),
+                id -> Optional.ofNullable(customersById.get(id)));
+        for (int i = 0; i < 3; i++) {
+            productCache.get(laptop.getId());
+            customerCache.get(alice.getId());
+        }
+        System.out.println("Unknown product: " + productCache.get("P999"));
+        System.out.println("Products:  " + productCache.stats());
+        System.out.println("Customers: " + customerCache.stats());
+
         System.out.println("\n--- Online Store Simulation Finished ---");
     }
 }
\ No newline at end of file
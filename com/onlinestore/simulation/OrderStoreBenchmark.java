@@ -0,0 +1,99 @@
+package com.onlinestore.simulation;
+
+import com.onlinestore.model.Customer;
+import com.onlinestore.model.Order;
+import com.onlinestore.model.Product;
+import com.onlinestore.store.OrderStore;
+import com.onlinestore.store.StoredOrder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes many orders to an OrderStore from several threads, simulates a crash that leaves a torn
+ * record at the end of the log, and measures how long reopening (recovery) takes.
+ * Usage: java com.onlinestore.simulation.OrderStoreBenchmark [logPath] [orderCount] [threads]
+ */
+public class OrderStoreBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path logPath = Paths.get(args.length > 0 ? args[0] : "orders.log");
+        int orderCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int inFlight = 256; // Appends each thread keeps outstanding, so batches form even on few threads
+        Files.deleteIfExists(logPath);
+
+        Product[] products = new Product[1000];
+        for (int i = 0; i < products.length; i++) {
+            products[i] = new Product("P" + i, "Product " + i, 1 + i % 300); // Orders stay below the discount threshold
+        }
+        Customer[] customers = new Customer[10_000];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Customer("C" + i, "Customer " + i, "c" + i + "@example.com");
+        }
+
+        String[] sampleId = new String[1];
+        OrderStore writeStore = OrderStore.open(logPath);
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        int perThread = (orderCount + threads - 1) / threads;
+        for (int t = 0; t < threads; t++) {
+            int from = t * perThread;
+            int to = Math.min(orderCount, from + perThread);
+            workers.execute(() -> {
+                Random random = new Random(from);
+                List<CompletableFuture<Void>> pending = new ArrayList<>(inFlight);
+                for (int i = from; i < to; i++) {
+                    Product a = products[random.nextInt(products.length)];
+                    Product b = products[random.nextInt(products.length)];
+                    Order order = new Order(customers[i % customers.length], Arrays.asList(a, a, b));
+                    if (i == 0) {
+                        sampleId[0] = order.getOrderId();
+                    }
+                    pending.add(writeStore.append(order));
+                    if (pending.size() == inFlight) {
+                        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+                        pending.clear();
+                    }
+                }
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        long nanos = System.nanoTime() - start;
+        writeStore.close();
+        System.out.printf("Wrote %d orders on %d threads in %.0f ms: %.0f durable orders/s, log %.1f MB%n",
+                          orderCount, threads, nanos / 1e6, orderCount / (nanos / 1e9), Files.size(logPath) / 1e6);
+
+        // Simulate a crash in the middle of a write: a header promising more bytes than follow it.
+        long goodSize = Files.size(logPath);
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(20).putInt(0, 500).putInt(4, 12345));
+        }
+
+        start = System.nanoTime();
+        OrderStore store = OrderStore.open(logPath);
+        nanos = System.nanoTime() - start;
+        System.out.printf("Recovered %d orders in %.0f ms; torn tail %s%n", store.size(), nanos / 1e6,
+                          Files.size(logPath) == goodSize ? "truncated" : "NOT truncated");
+
+        StoredOrder sample = store.findById(sampleId[0]).orElseThrow(() -> new IllegalStateException("Sample order lost."));
+        System.out.println("Sample: " + sample);
+        System.out.println("Orders for C0 after recovery: " + store.findByCustomer("C0").size());
+        store.close();
+    }
+}
@@ -0,0 +1,71 @@
+package com.onlinestore.simulation;
+
+import com.onlinestore.model.Product;
+import com.onlinestore.model.ProductCatalog;
+
+import java.util.Random;
+
+/**
+ * Measures ProductCatalog lookups and queries at catalog sizes in the millions.
+ * Usage: java com.onlinestore.simulation.ProductCatalogBenchmark [productCount]
+ */
+public class ProductCatalogBenchmark {
+
+    public static void main(String[] args) {
+        int productCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(7);
+        ProductCatalog catalog = new ProductCatalog();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < productCount; i++) {
+            double price = 1 + random.nextInt(100_000) / 100.0; // $1.00 to $1000.99
+            catalog.addProduct(new Product(sku(i), "Item " + Integer.toString(i, 36), price));
+        }
+        report("addProduct x " + productCount, System.nanoTime() - start, productCount);
+
+        for (int round = 1; round <= 3; round++) { // Later rounds run with compiled code
+            System.out.println("\n--- Round " + round + " ---");
+
+            int lookups = 1_000_000;
+            long found = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                found += catalog.findById(sku(random.nextInt(productCount))).isPresent() ? 1 : 0;
+            }
+            report("findById (" + found + " hits)", System.nanoTime() - start, lookups);
+
+            int rangeQueries = 10_000;
+            long matched = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < rangeQueries; i++) {
+                double from = 1 + random.nextInt(99_000) / 100.0;
+                matched += catalog.findByPriceRange(from, from + 10, 50).size();
+            }
+            report("findByPriceRange, first 50 in a $10 band (" + matched + " rows)", System.nanoTime() - start, rangeQueries);
+
+            int prefixQueries = 10_000;
+            matched = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < prefixQueries; i++) {
+                String prefix = "item " + Integer.toString(36 + random.nextInt(36 * 36 - 36), 36); // Two base-36 digits
+                matched += catalog.findByNamePrefix(prefix, 20).size();
+            }
+            report("findByNamePrefix, first 20 (" + matched + " rows)", System.nanoTime() - start, prefixQueries);
+
+            int updates = 100_000;
+            start = System.nanoTime();
+            for (int i = 0; i < updates; i++) {
+                catalog.updatePrice(sku(random.nextInt(productCount)), 1 + random.nextInt(100_000) / 100.0);
+            }
+            report("updatePrice", System.nanoTime() - start, updates);
+        }
+    }
+
+    private static String sku(int i) {
+        return "SKU" + i;
+    }
+
+    private static void report(String label, long nanos, int operations) {
+        System.out.printf("%-60s %10.1f ms total, %8.3f us/op%n", label, nanos / 1e6, nanos / 1e3 / operations);
+    }
+}
@@ -0,0 +1,91 @@
+package com.onlinestore.simulation;
+
+import com.onlinestore.model.Customer;
+import com.onlinestore.model.Order;
+import com.onlinestore.model.Product;
+import com.onlinestore.model.ProductCatalog;
+import com.onlinestore.model.StoreSnapshot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds a store through its public API (a catalog with some repricing, customers purchasing orders),
+ * then saves it to a snapshot and restores it with the original gone, as a fresh process would.
+ * The restored store must save a byte-for-byte identical snapshot. Purchase messages go to a
+ * discarded stream so console speed does not dominate the build time.
+ * Usage: java com.onlinestore.simulation.StoreSnapshotBenchmark [customerCount] [ordersPerCustomer] [path]
+ */
+public class StoreSnapshotBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int customerCount = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int ordersPerCustomer = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        Path path = Paths.get(args.length > 2 ? args[2] : "store.snapshot");
+        int productCount = 100_000;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        ProductCatalog catalog = new ProductCatalog();
+        for (int i = 0; i < productCount; i++) {
+            catalog.addProduct(new Product("SKU" + i, "Item " + Integer.toString(i, 36), 1 + i % 400));
+        }
+        Random random = new Random(5);
+        List<Customer> customers = new ArrayList<>(customerCount);
+        for (int i = 0; i < customerCount; i++) {
+            Customer customer = new Customer("C" + i, "Customer " + i, "c" + i + "@example.com");
+            for (int o = 0; o < ordersPerCustomer; o++) {
+                List<Product> products = new ArrayList<>();
+                for (int line = 1 + random.nextInt(4); line > 0; line--) {
+                    products.add(catalog.findById("SKU" + random.nextInt(productCount)).get());
+                }
+                new Order(customer, products).purchase();
+            }
+            customers.add(customer);
+            if (i % 100 == 0) { // Prices change while customers shop, so older orders hold older versions
+                catalog.updatePrice("SKU" + random.nextInt(productCount), 1 + random.nextInt(400));
+            }
+        }
+        catalog.removeProduct("SKU0");
+        double buildSeconds = (System.nanoTime() - start) / 1e9;
+        System.setOut(console);
+        long orderCount = (long) customerCount * ordersPerCustomer;
+        System.out.printf("Built %,d products, %,d customers and %,d orders from code in %.2f s%n",
+                          productCount, customerCount, orderCount, buildSeconds);
+
+        start = System.nanoTime();
+        long bytes = new StoreSnapshot(catalog, customers).write(path);
+        double writeSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Snapshot written in %.2f s: %.1f MB, %.1f bytes per order, %.0f MB/s%n",
+                          writeSeconds, bytes / 1e6, (double) bytes / orderCount, bytes / 1e6 / writeSeconds);
+        catalog = null; // Restore into an empty heap, like a process starting up
+        customers = null;
+        System.gc();
+
+        start = System.nanoTime();
+        StoreSnapshot restored = StoreSnapshot.read(path);
+        double restoreSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Restored %,d customers in %.2f s, %.1fx faster than building%n",
+                          restored.getCustomers().size(), restoreSeconds, buildSeconds / restoreSeconds);
+
+        Path copy = path.resolveSibling(path.getFileName() + ".copy");
+        restored.write(copy);
+        long mismatch = Files.mismatch(path, copy);
+        Files.delete(copy);
+        Files.delete(path);
+        if (mismatch != -1) {
+            throw new IllegalStateException("The restored store does not save identically (first difference at byte " + mismatch + ").");
+        }
+        Customer sample = restored.getCustomers().get(0);
+        System.out.println("Restored store saves byte for byte the same; " + sample.getName() + " has "
+                           + sample.getOrders().size() + " orders, the first " + sample.getOrders().get(0).getOrderId());
+    }
+}
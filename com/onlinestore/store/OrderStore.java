@@ -0,0 +1,492 @@
+package com.onlinestore.store;
+
+import com.onlinestore.model.Order;
+import com.onlinestore.model.Product;
+import com.onlinestore.model.PurchaseListener;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded, crash-safe order store backed by a single append-only log file.
+ *
+ * Each record is {@code [int payloadLength][int crc32][payload]}. Appends from any number of
+ * threads are queued to one writer thread, which writes everything queued so far and then
+ * forces it to disk once, so concurrent purchases share the cost of each fsync. An append is
+ * acknowledged only after its record is on disk.
+ *
+ * On open, the log is scanned to rebuild the in-memory indexes by order ID and customer ID.
+ * A torn or corrupt record at the tail, left by a crash mid-write, is cut off.
+ */
+public class OrderStore implements PurchaseListener, Closeable {
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_BATCH = 4096; // Records written per fsync at most
+    private static final PendingWrite SHUTDOWN = new PendingWrite(null, null, new byte[0]); // Queued by close()
+
+    private final Path logPath;
+    private final FileChannel channel;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Thread writer;
+    private final ReadWriteLock indexLock;
+    private final OrderIdIndex orderIndex;
+    private final Map<String, LongList> customerIndex;
+    private volatile boolean closed;
+    private long end; // Next write position; used by the writer thread only after open
+
+    private OrderStore(Path logPath) throws IOException {
+        this.logPath = logPath;
+        this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.queue = new LinkedBlockingQueue<>();
+        this.indexLock = new ReentrantReadWriteLock();
+        this.orderIndex = new OrderIdIndex();
+        this.customerIndex = new HashMap<>();
+        this.writer = new Thread(this::writeLoop, "order-store-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the store, creating the log if needed and recovering its indexes.
+     *
+     * @param logPath The log file.
+     * @return The open store.
+     * @throws IOException if the log cannot be read or written.
+     */
+    public static OrderStore open(Path logPath) throws IOException {
+        OrderStore store = new OrderStore(logPath);
+        try {
+            store.recover();
+        } catch (IOException | RuntimeException e) {
+            store.channel.close();
+            throw e;
+        }
+        store.writer.start();
+        return store;
+    }
+
+    /**
+     * Persists every purchased order. Blocks the purchasing thread until the order is durable.
+     * @param order The purchased order.
+     */
+    @Override
+    public void onPurchase(Order order) {
+        try {
+            append(order).join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException("Failed to persist order " + order.getOrderId() + ".",
+                    e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+        }
+    }
+
+    /**
+     * Queues an order to be written. The returned future completes once the order is on disk.
+     *
+     * @param order The order to persist.
+     * @return A future that completes when the order is durable.
+     * @throws IllegalStateException if the store is closed.
+     */
+    public CompletableFuture<Void> append(Order order) {
+        if (closed) {
+            throw new IllegalStateException("Order store is closed.");
+        }
+        byte[] payload = encode(order); // Serialize on the caller's thread, not the writer's
+        PendingWrite write = new PendingWrite(order.getOrderId(), order.getCustomer().getId(), payload);
+        queue.add(write);
+        if (closed && queue.remove(write)) { // close() began meanwhile and the writer may already have stopped
+            throw new IllegalStateException("Order store is closed.");
+        }
+        return write.done;
+    }
+
+    /**
+     * Loads an order by its ID.
+     *
+     * @param orderId The order ID.
+     * @return The stored order, or an empty Optional if it was never stored.
+     * @throws UncheckedIOException if the log cannot be read.
+     */
+    public Optional<StoredOrder> findById(String orderId) {
+        long offset;
+        indexLock.readLock().lock();
+        try {
+            offset = orderIndex.get(UUID.fromString(orderId));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty(); // Not a UUID, so never an order ID this store issued
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        return offset < 0 ? Optional.empty() : Optional.of(read(offset));
+    }
+
+    /**
+     * Loads every order of a customer, oldest first.
+     *
+     * @param customerId The customer ID.
+     * @return The customer's stored orders.
+     * @throws UncheckedIOException if the log cannot be read.
+     */
+    public List<StoredOrder> findByCustomer(String customerId) {
+        long[] offsets;
+        indexLock.readLock().lock();
+        try {
+            LongList list = customerIndex.get(customerId);
+            offsets = list == null ? new long[0] : list.toArray();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        List<StoredOrder> orders = new ArrayList<>(offsets.length);
+        for (long offset : offsets) {
+            orders.add(read(offset));
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the number of orders stored.
+     * @return The order count.
+     */
+    public int size() {
+        indexLock.readLock().lock();
+        try {
+            return orderIndex.size();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes out and forces everything already queued, then closes the log. Appends racing with
+     * close are either written or fail with IllegalStateException.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(SHUTDOWN); // Behind every append accepted so far; the writer stops when it reaches it
+        boolean interrupted = false;
+        while (writer.isAlive()) { // Never interrupt the writer: that would close the channel mid-batch
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        PendingWrite late;
+        while ((late = queue.poll()) != null) { // Queued after the writer stopped
+            late.done.completeExceptionally(new IllegalStateException("Order store is closed."));
+        }
+        channel.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Write path ---
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // Only close() stops the writer
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            stopping = batch.remove(SHUTDOWN);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        try {
+            int bytes = 0;
+            for (PendingWrite write : batch) {
+                bytes += RECORD_HEADER_BYTES + write.payload.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(bytes);
+            long[] offsets = new long[batch.size()];
+            long position = end;
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < batch.size(); i++) {
+                byte[] payload = batch.get(i).payload;
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                offsets[i] = position;
+                buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+                position += RECORD_HEADER_BYTES + payload.length;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, end + buffer.position());
+            }
+            channel.force(false); // One fsync for the whole batch
+            end = position;
+
+            indexLock.writeLock().lock();
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    addToIndex(batch.get(i).orderId, batch.get(i).customerId, offsets[i]);
+                }
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            for (PendingWrite write : batch) {
+                write.done.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (PendingWrite write : batch) {
+                write.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static byte[] encode(Order order) {
+        // Collapse repeated units into one line per product, keeping first-seen order
+        Map<String, int[]> quantities = new LinkedHashMap<>();
+        Map<String, Double> prices = new HashMap<>();
+        for (Product product : order.getProducts()) {
+            quantities.computeIfAbsent(product.getId(), id -> new int[1])[0]++;
+            prices.put(product.getId(), product.getPrice());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + quantities.size() * 24);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(order.getOrderId());
+            out.writeUTF(order.getCustomer().getId());
+            out.writeLong(order.getOrderDate().toInstant(ZoneOffset.UTC).toEpochMilli());
+            out.writeDouble(order.getSubTotalAmount());
+            out.writeDouble(order.getDiscountApplied());
+            out.writeDouble(order.getFinalTotalAmount());
+            out.writeInt(quantities.size());
+            for (Map.Entry<String, int[]> line : quantities.entrySet()) {
+                out.writeUTF(line.getKey());
+                out.writeInt(line.getValue()[0]);
+                out.writeDouble(prices.get(line.getKey()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen for an in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    // --- Read path ---
+
+    private StoredOrder read(long offset) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+            readFully(header, offset);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(payload, offset + RECORD_HEADER_BYTES);
+            return decode(payload.array());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read order at offset " + offset + " of " + logPath + ".", e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + logPath + ".");
+            }
+        }
+    }
+
+    private static StoredOrder decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String orderId = in.readUTF();
+        String customerId = in.readUTF();
+        LocalDateTime orderDate = LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneOffset.UTC);
+        double subTotal = in.readDouble();
+        double discount = in.readDouble();
+        double finalTotal = in.readDouble();
+        int lineCount = in.readInt();
+        List<StoredOrder.Line> lines = new ArrayList<>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lines.add(new StoredOrder.Line(in.readUTF(), in.readInt(), in.readDouble()));
+        }
+        return new StoredOrder(orderId, customerId, orderDate, subTotal, discount, finalTotal, lines);
+    }
+
+    // --- Recovery ---
+
+    private void recover() throws IOException {
+        long position = 0;
+        long size = channel.size();
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[256];
+        InputStream stream = new BufferedInputStream(Files.newInputStream(logPath), 1 << 20);
+        try (DataInputStream in = new DataInputStream(stream)) {
+            while (position + RECORD_HEADER_BYTES <= size) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || position + RECORD_HEADER_BYTES + length > size) {
+                    break; // Torn header or record cut short by a crash
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break; // Partially written record
+                }
+                DataInputStream ids = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+                addToIndex(ids.readUTF(), ids.readUTF(), position);
+                position += RECORD_HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            // Header cut short; everything before position is intact
+        }
+        if (position < size) {
+            channel.truncate(position); // Drop the damaged tail so new records follow good ones
+            channel.force(true);
+        }
+        end = position;
+    }
+
+    private void addToIndex(String orderId, String customerId, long offset) {
+        orderIndex.put(UUID.fromString(orderId), offset);
+        customerIndex.computeIfAbsent(customerId, id -> new LongList()).add(offset);
+    }
+
+    /**
+     * An order waiting for the writer thread.
+     */
+    private static final class PendingWrite {
+        final String orderId;
+        final String customerId;
+        final byte[] payload;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingWrite(String orderId, String customerId, byte[] payload) {
+            this.orderId = orderId;
+            this.customerId = customerId;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Open-addressing map from a 128-bit order UUID to a log offset, held in three primitive arrays
+     * (24 bytes per slot) instead of String and Long objects.
+     */
+    private static final class OrderIdIndex {
+        private long[] high = new long[1024];
+        private long[] low = new long[1024];
+        private long[] offsets = new long[1024]; // Offset + 1; 0 marks a free slot
+        private int size;
+
+        long get(UUID id) {
+            int mask = offsets.length - 1;
+            for (int slot = slot(id.getMostSignificantBits(), id.getLeastSignificantBits(), mask);
+                 offsets[slot] != 0; slot = (slot + 1) & mask) {
+                if (high[slot] == id.getMostSignificantBits() && low[slot] == id.getLeastSignificantBits()) {
+                    return offsets[slot] - 1;
+                }
+            }
+            return -1;
+        }
+
+        void put(UUID id, long offset) {
+            if ((size + 1) * 4 > offsets.length * 3) {
+                grow();
+            }
+            if (insert(id.getMostSignificantBits(), id.getLeastSignificantBits(), offset + 1)) {
+                size++;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        private boolean insert(long hi, long lo, long storedOffset) {
+            int mask = offsets.length - 1;
+            int slot = slot(hi, lo, mask);
+            while (offsets[slot] != 0) {
+                if (high[slot] == hi && low[slot] == lo) {
+                    offsets[slot] = storedOffset; // The same order written again: keep the latest copy
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            high[slot] = hi;
+            low[slot] = lo;
+            offsets[slot] = storedOffset;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldHigh = high;
+            long[] oldLow = low;
+            long[] oldOffsets = offsets;
+            high = new long[oldOffsets.length * 2];
+            low = new long[oldOffsets.length * 2];
+            offsets = new long[oldOffsets.length * 2];
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] != 0) {
+                    insert(oldHigh[i], oldLow[i], oldOffsets[i]);
+                }
+            }
+        }
+
+        private static int slot(long hi, long lo, int mask) {
+            long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * Growable list of primitive longs.
+     */
+    private static final class LongList {
+        private long[] values = new long[2];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
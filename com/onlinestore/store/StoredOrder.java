@@ -0,0 +1,112 @@
+package com.onlinestore.store;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only copy of an order as it was written to the {@link OrderStore}.
+ * It carries IDs rather than live Customer and Product objects, so it can be
+ * loaded without rebuilding the rest of the domain model.
+ */
+public class StoredOrder {
+    private final String orderId;
+    private final String customerId;
+    private final LocalDateTime orderDate;
+    private final double subTotalAmount;
+    private final double discountApplied;
+    private final double finalTotalAmount;
+    private final List<Line> lines;
+
+    /**
+     * Constructs a stored order.
+     *
+     * @param orderId          The order's unique ID.
+     * @param customerId       The ID of the customer who placed it.
+     * @param orderDate        When the order was created.
+     * @param subTotalAmount   Total before discount.
+     * @param discountApplied  Discount taken off the subtotal.
+     * @param finalTotalAmount Total after discount.
+     * @param lines            One line per distinct product.
+     */
+    public StoredOrder(String orderId, String customerId, LocalDateTime orderDate, double subTotalAmount,
+                       double discountApplied, double finalTotalAmount, List<Line> lines) {
+        this.orderId = orderId;
+        this.customerId = customerId;
+        this.orderDate = orderDate;
+        this.subTotalAmount = subTotalAmount;
+        this.discountApplied = discountApplied;
+        this.finalTotalAmount = finalTotalAmount;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public LocalDateTime getOrderDate() {
+        return orderDate;
+    }
+
+    public double getSubTotalAmount() {
+        return subTotalAmount;
+    }
+
+    public double getDiscountApplied() {
+        return discountApplied;
+    }
+
+    public double getFinalTotalAmount() {
+        return finalTotalAmount;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredOrder{" +
+               "orderId='" + orderId + '\'' +
+               ", customerId='" + customerId + '\'' +
+               ", lines=" + lines.size() +
+               ", finalTotal=" + String.format("%.2f", finalTotalAmount) +
+               '}';
+    }
+
+    /**
+     * Quantity and unit price of one product within a stored order.
+     */
+    public static class Line {
+        private final String productId;
+        private final int quantity;
+        private final double unitPrice;
+
+        public Line(String productId, int quantity, double unitPrice) {
+            this.productId = productId;
+            this.quantity = quantity;
+            this.unitPrice = unitPrice;
+        }
+
+        public String getProductId() {
+            return productId;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public double getUnitPrice() {
+            return unitPrice;
+        }
+
+        @Override
+        public String toString() {
+            return quantity + " x " + productId + " @ " + String.format("%.2f", unitPrice);
+        }
+    }
+}
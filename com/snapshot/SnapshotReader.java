@@ -0,0 +1,234 @@
+package com.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads back a snapshot written by {@link SnapshotWriter}, field by field in the order written.
+ *
+ * The file is memory-mapped in windows of up to 256 MB, so restoring reads straight from the page
+ * cache with no read calls or copies, and snapshots larger than one mapping are read window by window.
+ * Opening checks the header, the trailer and the CRC32 of the whole payload before anything is
+ * decoded, so a torn or damaged file is refused up front instead of producing a half-restored model.
+ */
+public class SnapshotReader implements Closeable {
+    private static final long WINDOW_BYTES = 256L << 20;
+    private static final int MAX_VARINT_BYTES = 5;
+    private static final int MAX_VARLONG_BYTES = 10;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long payloadBytes;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private final List<String> sharedStrings = new ArrayList<>();
+    private byte[] scratch = new byte[256]; // Bytes of the string being decoded
+
+    private SnapshotReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long fileBytes = channel.size();
+            if (fileBytes < SnapshotWriter.TRAILER_BYTES + 4) {
+                throw corrupt("too short to be a snapshot");
+            }
+            MappedByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, fileBytes - SnapshotWriter.TRAILER_BYTES,
+                                                   SnapshotWriter.TRAILER_BYTES);
+            if (trailer.getInt() != SnapshotWriter.TRAILER_MAGIC) {
+                throw corrupt("no trailer, it was not written to the end");
+            }
+            this.payloadBytes = trailer.getLong();
+            int expectedCrc = trailer.getInt();
+            if (payloadBytes != fileBytes - SnapshotWriter.TRAILER_BYTES) {
+                throw corrupt("the trailer gives the wrong length");
+            }
+            CRC32 crc = new CRC32();
+            for (long start = 0; start < payloadBytes; start += WINDOW_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, payloadBytes - start)));
+            }
+            if ((int) crc.getValue() != expectedCrc) {
+                throw corrupt("checksum mismatch");
+            }
+            map(0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens and verifies a snapshot.
+     *
+     * @param path The snapshot file.
+     * @param kind What the snapshot must hold, as given to {@link SnapshotWriter#create(Path, String)}.
+     * @return The reader, positioned after the header.
+     * @throws IOException if the file cannot be read, is damaged, or holds something else.
+     */
+    public static SnapshotReader open(Path path, String kind) throws IOException {
+        SnapshotReader reader = new SnapshotReader(path);
+        try {
+            if (reader.readInt() != SnapshotWriter.MAGIC) {
+                throw reader.corrupt("not a snapshot file");
+            }
+            int version = reader.readVarInt();
+            if (version != SnapshotWriter.VERSION) {
+                throw reader.corrupt("unsupported format version " + version);
+            }
+            String found = reader.readString();
+            if (!found.equals(kind)) {
+                throw new IOException("Snapshot " + path + " holds '" + found + "', not '" + kind + "'.");
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        ensure(1);
+        return window.get();
+    }
+
+    public int readInt() throws IOException {
+        ensure(4);
+        return window.getInt();
+    }
+
+    public long readLong() throws IOException {
+        ensure(8);
+        return window.getLong();
+    }
+
+    public double readDouble() throws IOException {
+        ensure(8);
+        return window.getDouble();
+    }
+
+    public int readVarInt() throws IOException {
+        ensure((int) Math.min(MAX_VARINT_BYTES, Math.max(1, remaining()))); // A varint may end near the end of the file
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = window.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw corrupt("bad varint");
+    }
+
+    public long readVarLong() throws IOException {
+        ensure((int) Math.min(MAX_VARLONG_BYTES, Math.max(1, remaining())));
+        long zigzag = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = window.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw corrupt("bad varint");
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        if (length == 0) {
+            return "";
+        }
+        if (length > remaining()) {
+            throw corrupt("a string runs past the end");
+        }
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        copy(scratch, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Reads bytes written with SnapshotWriter.writeBytes into a new array of exactly their length
+    public byte[] readBytes() throws IOException {
+        int length = readVarInt();
+        if (length > remaining()) {
+            throw corrupt("a byte array runs past the end");
+        }
+        byte[] bytes = new byte[length];
+        copy(bytes, length);
+        return bytes;
+    }
+
+    private void copy(byte[] into, int length) throws IOException {
+        for (int offset = 0; offset < length; ) {
+            ensure(1);
+            int chunk = Math.min(window.remaining(), length - offset);
+            window.get(into, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    // Reads a string written with SnapshotWriter.writeSharedString; every occurrence returns the same object
+    public String readSharedString() throws IOException {
+        int reference = readVarInt();
+        if (reference == 0) {
+            String value = readString();
+            sharedStrings.add(value);
+            return value;
+        }
+        if (reference > sharedStrings.size()) {
+            throw corrupt("a shared string refers past those read so far");
+        }
+        return sharedStrings.get(reference - 1);
+    }
+
+    /**
+     * Returns whether every field has been read; restore code checks this to catch a reader and
+     * writer that disagree about the fields.
+     * @return true at the end of the payload.
+     */
+    public boolean atEnd() {
+        return remaining() == 0;
+    }
+
+    private long remaining() {
+        return payloadBytes - windowStart - window.position();
+    }
+
+    // Remaps when the next field does not fit in the current window
+    private void ensure(int bytes) throws IOException {
+        if (window.remaining() < bytes) {
+            if (remaining() < bytes) {
+                throw corrupt("it ends in the middle of a field");
+            }
+            map(windowStart + window.position());
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_BYTES, payloadBytes - start));
+    }
+
+    private IOException corrupt(String reason) {
+        return new IOException("Snapshot " + path + " is damaged: " + reason + ".");
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,239 @@
+package com.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a snapshot file: a header naming what the snapshot holds, the caller's fields in order,
+ * and a trailer with the payload length and a CRC32 of everything before it.
+ *
+ * Fields are encoded compactly by hand rather than with Java serialization: counts, indexes and
+ * other non-negative ints as unsigned varints (one byte below 128), signed longs as zigzag varints,
+ * doubles as 8 raw bytes, and strings as a varint byte length followed by UTF-8. Strings repeated
+ * across many entities, such as a product or branch name, can be written as shared strings: in full
+ * the first time, then as a small index, and restored as one String object. Nothing describes the
+ * fields themselves, so the reader must read them back in exactly the order they were written.
+ *
+ * Output is streamed through one 1 MB buffer, so a snapshot of any size is written in constant
+ * memory. The file is written under a temporary name and only moved into place by {@link #commit()},
+ * so a crash mid-write leaves the previous snapshot intact.
+ */
+public class SnapshotWriter implements Closeable {
+    static final int MAGIC = 0x534E4150; // "SNAP"
+    static final int TRAILER_MAGIC = 0x53454E44; // "SEND"
+    static final int VERSION = 1;
+    static final int TRAILER_BYTES = 16; // int magic, long payload length, int CRC32
+
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int MAX_FIELD_BYTES = 10; // Longest varint; every other fixed-size field is shorter
+
+    private final Path path;
+    private final Path temp;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final CRC32 crc = new CRC32();
+    private final Map<String, Integer> sharedStrings = new HashMap<>();
+    private long written;
+    private boolean committed;
+
+    private SnapshotWriter(Path path) throws IOException {
+        this.path = path;
+        this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+        this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Starts a snapshot.
+     *
+     * @param path The file the snapshot will replace once committed.
+     * @param kind What the snapshot holds, for example {@code "bank"}; checked again on restore.
+     * @return The writer, positioned after the header.
+     * @throws IOException if the temporary file cannot be created.
+     */
+    public static SnapshotWriter create(Path path, String kind) throws IOException {
+        SnapshotWriter writer = new SnapshotWriter(path);
+        writer.writeInt(MAGIC);
+        writer.writeVarInt(VERSION);
+        writer.writeString(kind);
+        return writer;
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Writes a count, index or other non-negative int in 1 to 5 bytes.
+     * @param value The value. Must not be negative.
+     */
+    public void writeVarInt(int value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Varints must not be negative: " + value + ".");
+        }
+        ensure(5);
+        while (value >= 0x80) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Writes any long in 1 to 10 bytes; values near zero, positive or negative, take the fewest.
+     * @param value The value.
+     */
+    public void writeVarLong(long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        ensure(MAX_FIELD_BYTES);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) (zigzag | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes. Plain ASCII is copied straight into the buffer.
+     * @param value The string. Must not be null.
+     */
+    public void writeString(String value) throws IOException {
+        int length = value.length();
+        if (length < BUFFER_BYTES - 5 && isAscii(value, length)) {
+            writeVarInt(length);
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes raw bytes, such as an already encoded index, as their length and the bytes themselves.
+     * @param bytes The array holding the bytes.
+     * @param offset The first byte to write.
+     * @param length The number of bytes to write.
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        writeVarInt(length);
+        for (int end = offset + length; offset < end; ) {
+            ensure(1);
+            int chunk = Math.min(buffer.remaining(), end - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    /**
+     * Writes a string that recurs across entities. Only its first occurrence is written in full;
+     * later ones are the varint index of that occurrence. Meant for values with few distinct strings.
+     * @param value The string. Must not be null.
+     */
+    public void writeSharedString(String value) throws IOException {
+        Integer index = sharedStrings.get(value);
+        if (index != null) {
+            writeVarInt(index + 1);
+            return;
+        }
+        sharedStrings.put(value, sharedStrings.size());
+        writeVarInt(0); // A new string follows
+        writeString(value);
+    }
+
+    private static boolean isAscii(String value, int length) {
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes written so far, header included.
+     * @return The snapshot size up to now.
+     */
+    public long size() {
+        return written + buffer.position();
+    }
+
+    /**
+     * Writes the trailer, forces the file to disk and moves it over any previous snapshot.
+     * @throws IOException if the snapshot cannot be written or moved into place.
+     */
+    public void commit() throws IOException {
+        long payloadBytes = size();
+        flush();
+        buffer.putInt(TRAILER_MAGIC).putLong(payloadBytes).putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        channel.force(false);
+        channel.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Abandons the snapshot if it was not committed, deleting the temporary file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            channel.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        crc.update(buffer); // Consumes the bytes; rewind to write them
+        buffer.rewind();
+        written += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}